@@ -0,0 +1,166 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Hot paths of the repository: writing files of different sizes, listing and looking up
+ * files in folders of different sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FileInFolderRepositoryBenchmark {
+
+    private static final Path BENCHMARK_ROOT = Paths.get("target", "benchmark-storage");
+
+    @State(Scope.Benchmark)
+    public static class WriteState {
+
+        @Param({"1024", "1048576", "67108864", "1073741824"})
+        long fileSize;
+
+        @Param({"8"})
+        int batchSize;
+
+        FileInFolderRepository repository;
+        Path root;
+        AtomicLong fileNumber = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            root = BENCHMARK_ROOT.resolve("write");
+            repository = new FileInFolderRepository();
+            if (!repository.init(root.toString(), true)) {
+                throw new IllegalStateException("Could not initialize " + root);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void deleteWrittenFiles() {
+            repository.deleteAll();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            repository.close();
+            FileSystemUtils.deleteRecursively(root);
+        }
+
+        Multipart nextFile() {
+            return new Multipart(
+                    "file",
+                    "file" + fileNumber.incrementAndGet() + ".bin",
+                    MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                    fileSize,
+                    new GeneratedContent(fileSize));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class FolderState {
+
+        @Param({"10", "1000", "100000", "1000000"})
+        int folderSize;
+
+        FileInFolderRepository repository;
+        Path root;
+        String existingFilename;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            root = BENCHMARK_ROOT.resolve("folder" + folderSize);
+            FileSystemUtils.deleteRecursively(root);
+            Files.createDirectories(root);
+            for (int i = 0; i < folderSize; i++) {
+                Files.createFile(root.resolve("file" + i + ".txt"));
+            }
+            existingFilename = "file" + folderSize / 2 + ".txt";
+            repository = new FileInFolderRepository();
+            if (!repository.init(root.toString(), false)) {
+                throw new IllegalStateException("Could not initialize " + root);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            repository.close();
+            FileSystemUtils.deleteRecursively(root);
+        }
+    }
+
+    @Benchmark
+    public Optional<String> save(WriteState state) {
+        return state.repository.save(state.nextFile());
+    }
+
+    @Benchmark
+    public List<String> saveAll(WriteState state) {
+        List<Multipart> files = IntStream.range(0, state.batchSize)
+                .mapToObj(i -> state.nextFile())
+                .toList();
+        return state.repository.saveAll(files).toList();
+    }
+
+    @Benchmark
+    public List<Path> findAll(FolderState state) {
+        return state.repository.findAll();
+    }
+
+    @Benchmark
+    public long count(FolderState state) {
+        return state.repository.count();
+    }
+
+    @Benchmark
+    public Optional<Resource> getByFilename(FolderState state) {
+        return state.repository.getByFilename(state.existingFilename);
+    }
+
+    /**
+     * Content of the given length produced on the fly, so that large files do not have to be held in memory.
+     */
+    static class GeneratedContent implements InputStreamSource {
+
+        private final long size;
+
+        GeneratedContent(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                long remaining = size;
+
+                @Override
+                public int read() {
+                    return remaining-- > 0 ? 'x' : -1;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int count = (int) Math.min(length, remaining);
+                    Arrays.fill(buffer, offset, offset + count, (byte) 'x');
+                    remaining -= count;
+                    return count;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package lgrimm.service;
+
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Listing a page of the files as the view model, from the index of folders of different sizes:
+ * the first page, a page in the middle (reached by its cursor) and a page filtered by a glob.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FileInFolderServiceBenchmark {
+
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @State(Scope.Benchmark)
+    public static class ListingState {
+
+        @Param({"10", "1000", "100000", "1000000"})
+        int folderSize;
+
+        @Param({"NAME", "SIZE"})
+        SortKey sort;
+
+        FileInFolderService service;
+        FileQuery firstPage;
+        FileQuery middlePage;
+        FileQuery globPage;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            FileIndex index = new FileIndex();
+            for (int i = 0; i < folderSize; i++) {
+                index.put(new FileMetadata("file" + i + ".txt", i % 4096, i, "text/plain"));
+            }
+            service = new FileInFolderService(new FileInFolderRepository() {
+                @Override
+                public boolean init(String repositoryPath, boolean deleteAllFromStorage) {
+                    return true;
+                }
+
+                @Override
+                public FilePage findPage(FileQuery query) {
+                    return index.page(query);
+                }
+            });
+            firstPage = new FileQuery(null, null, sort, false, null, FileInFolderService.DEFAULT_PAGE_SIZE);
+            FilePage page = index.page(firstPage.withLimit(Math.max(1, folderSize / 2)));
+            middlePage = new FileQuery(null, null, sort, false, page.getNextCursor(), FileInFolderService.DEFAULT_PAGE_SIZE);
+            globPage = new FileQuery(null, "file*7.txt", sort, false, null, FileInFolderService.DEFAULT_PAGE_SIZE);
+        }
+    }
+
+    @Benchmark
+    public Payload firstPage(ListingState state) {
+        return state.service.getFileList(state.firstPage, BASE_URL);
+    }
+
+    @Benchmark
+    public Payload middlePage(ListingState state) {
+        return state.service.getFileList(state.middlePage, BASE_URL);
+    }
+
+    @Benchmark
+    public Payload globPage(ListingState state) {
+        return state.service.getFileList(state.globPage, BASE_URL);
+    }
+}
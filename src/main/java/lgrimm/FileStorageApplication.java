@@ -1,9 +1,12 @@
 package lgrimm;
 
+import lgrimm.configuration.*;
 import org.springframework.boot.*;
 import org.springframework.boot.autoconfigure.*;
+import org.springframework.boot.context.properties.*;
 
 @SpringBootApplication
+@EnableConfigurationProperties(StorageProperties.class)
 public class FileStorageApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,20 @@
+package lgrimm.configuration;
+
+import lgrimm.controller.*;
+import lgrimm.repository.*;
+import org.springframework.boot.web.servlet.*;
+import org.springframework.context.annotation.*;
+
+@Configuration
+public class AsyncServletConfiguration {
+
+    @Bean
+    public ServletRegistrationBean<AsyncFileServlet> asyncFileServlet(FileInFolderRepository repository,
+                                                                      StorageProperties properties,
+                                                                      BulkheadInterceptor bulkheadInterceptor) {
+        ServletRegistrationBean<AsyncFileServlet> registration = new ServletRegistrationBean<>(
+                new AsyncFileServlet(repository, properties, bulkheadInterceptor), AsyncFileServlet.PATH);
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
@@ -0,0 +1,16 @@
+package lgrimm.configuration;
+
+/**
+ * How the compressible files are kept on the disk.
+ */
+public enum AtRestCompression {
+    /**
+     * As they were uploaded.
+     */
+    NONE,
+    /**
+     * Gzip-compressed when they are written, decompressed while they are read
+     * (or sent as they are to the clients accepting gzip).
+     */
+    GZIP
+}
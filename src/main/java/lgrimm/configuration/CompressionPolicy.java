@@ -0,0 +1,40 @@
+package lgrimm.configuration;
+
+import org.springframework.http.*;
+
+import java.util.*;
+
+/**
+ * Tells the files worth compressing by their content type and size, for the downloads and the storage alike.
+ */
+public class CompressionPolicy {
+
+    private final List<MediaType> types;
+    private final long minSize;
+
+    public CompressionPolicy(StorageProperties.Compression compression) {
+        this.types = compression.getMimeTypes().stream()
+                .map(CompressionPolicy::parseMediaType)
+                .flatMap(Optional::stream)
+                .toList();
+        this.minSize = compression.getMinSize().toBytes();
+    }
+
+    public boolean isCompressible(String contentType, long size) {
+        if (size < minSize) {
+            return false;
+        }
+        Optional<MediaType> type = parseMediaType(contentType);
+        return type.isPresent() && types.stream()
+                .anyMatch(compressible -> compressible.includes(type.get()));
+    }
+
+    private static Optional<MediaType> parseMediaType(String type) {
+        try {
+            return Optional.of(MediaType.parseMediaType(type));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+}
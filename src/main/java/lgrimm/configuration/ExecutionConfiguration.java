@@ -0,0 +1,84 @@
+package lgrimm.configuration;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.simple.*;
+import lgrimm.controller.*;
+import org.apache.commons.logging.*;
+import org.apache.coyote.*;
+import org.springframework.beans.factory.*;
+import org.springframework.boot.autoconfigure.condition.*;
+import org.springframework.boot.web.embedded.tomcat.*;
+import org.springframework.boot.web.servlet.*;
+import org.springframework.context.annotation.*;
+import org.springframework.web.servlet.config.annotation.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+@Configuration
+public class ExecutionConfiguration implements WebMvcConfigurer {
+
+    private static final Log log = LogFactory.getLog(ExecutionConfiguration.class);
+
+    private final StorageProperties properties;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final ObjectProvider<RateLimitInterceptor> rateLimit;
+
+    public ExecutionConfiguration(StorageProperties properties,
+                                  ObjectProvider<MeterRegistry> meterRegistry,
+                                  ObjectProvider<RateLimitInterceptor> rateLimit) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.rateLimit = rateLimit;
+    }
+
+    @Bean
+    public BulkheadInterceptor bulkheadInterceptor() {
+        return new BulkheadInterceptor(properties.getExecution());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "storage.rate-limit", name = "enabled", havingValue = "true")
+    public RateLimitInterceptor rateLimitInterceptor() {
+        return new RateLimitInterceptor(properties.getRateLimit(), meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+    }
+
+    /**
+     * The rate limit wraps the streams of every request, only the ones of the transfers admitted by its interceptor are paced.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "storage.rate-limit", name = "enabled", havingValue = "true")
+    public FilterRegistrationBean<RateLimitInterceptor> rateLimitFilter(RateLimitInterceptor rateLimitInterceptor) {
+        return new FilterRegistrationBean<>(rateLimitInterceptor);
+    }
+
+    /**
+     * The rate limit comes first, a request held back or turned away by it does not take the place of another one
+     * in the bulkheads meanwhile.
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        rateLimit.ifAvailable(registry::addInterceptor);
+        registry.addInterceptor(bulkheadInterceptor());
+    }
+
+    /**
+     * In the virtual mode Tomcat hands every request to a new virtual thread instead of its pool,
+     * the number of requests in progress is bounded by the bulkheads and the connection limit only.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> executionModeCustomizer() {
+        return protocolHandler -> {
+            if (properties.getExecution().getMode() != ExecutionMode.VIRTUAL) {
+                return;
+            }
+            Optional<ExecutorService> executor = VirtualThreads.newPerTaskExecutor("http-virtual-");
+            if (executor.isPresent()) {
+                protocolHandler.setExecutor(executor.get());
+            }
+            else {
+                log.warn("Virtual threads need Java 21, the requests run on the platform thread pool.");
+            }
+        };
+    }
+}
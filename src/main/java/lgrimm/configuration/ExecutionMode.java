@@ -0,0 +1,16 @@
+package lgrimm.configuration;
+
+/**
+ * Which threads the requests and the blocking file operations run on.
+ */
+public enum ExecutionMode {
+    /**
+     * The pool of the web server and the fixed pools of the storage, a waiting operation holds a thread of the pool.
+     */
+    PLATFORM,
+    /**
+     * A virtual thread for each request and for each storage worker, a waiting operation does not hold a carrier thread.
+     * Needs Java 21, the platform threads are kept on older runtimes.
+     */
+    VIRTUAL
+}
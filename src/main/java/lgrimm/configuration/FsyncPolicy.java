@@ -0,0 +1,19 @@
+package lgrimm.configuration;
+
+/**
+ * When the written files are forced to the disk.
+ */
+public enum FsyncPolicy {
+    /**
+     * Left to the operating system, a crash may lose the files saved shortly before it.
+     */
+    NONE,
+    /**
+     * Every file and its directory entry are forced before the save returns.
+     */
+    FILE,
+    /**
+     * Like FILE, with the forces requested by concurrent writers batched together.
+     */
+    GROUP
+}
@@ -0,0 +1,15 @@
+package lgrimm.configuration;
+
+/**
+ * How the stored files are arranged in the storage folder.
+ */
+public enum LayoutMode {
+    /**
+     * All in the storage folder itself.
+     */
+    FLAT,
+    /**
+     * Spread over levels of subfolders named after the hash of the file name.
+     */
+    SHARDED
+}
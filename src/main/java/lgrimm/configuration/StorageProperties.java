@@ -0,0 +1,810 @@
+package lgrimm.configuration;
+
+import org.springframework.boot.context.properties.*;
+import org.springframework.util.unit.*;
+
+import java.time.*;
+import java.util.*;
+
+@ConfigurationProperties(prefix = "storage")
+public class StorageProperties {
+
+    private final Download download = new Download();
+    private final Upload upload = new Upload();
+    private final Deduplication deduplication = new Deduplication();
+    private final Async async = new Async();
+    private final Write write = new Write();
+    private final Lock lock = new Lock();
+    private final Cache cache = new Cache();
+    private final Compression compression = new Compression();
+    private final Layout layout = new Layout();
+    private final Metadata metadata = new Metadata();
+    private final Deletion deletion = new Deletion();
+    private final Archive archive = new Archive();
+    private final Execution execution = new Execution();
+    private final RateLimit rateLimit = new RateLimit();
+    private final Quota quota = new Quota();
+
+    public Download getDownload() {
+        return download;
+    }
+
+    public Upload getUpload() {
+        return upload;
+    }
+
+    public Deduplication getDeduplication() {
+        return deduplication;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Write getWrite() {
+        return write;
+    }
+
+    public Lock getLock() {
+        return lock;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public Deletion getDeletion() {
+        return deletion;
+    }
+
+    public Archive getArchive() {
+        return archive;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    public static class Download {
+
+        /**
+         * Files at least this large are handed over to the container's sendfile support
+         * (when there is one) instead of being copied through the application.
+         */
+        private DataSize sendfileThreshold = DataSize.ofKilobytes(48);
+
+        /**
+         * A file handed over to sendfile is sent from a hard link to its content of the moment, the link is deleted
+         * after this time; the container opens the file right after the request, an open file keeps its content.
+         */
+        private Duration snapshotRetention = Duration.ofMinutes(1);
+
+        public DataSize getSendfileThreshold() {
+            return sendfileThreshold;
+        }
+
+        public void setSendfileThreshold(DataSize sendfileThreshold) {
+            this.sendfileThreshold = sendfileThreshold;
+        }
+
+        public Duration getSnapshotRetention() {
+            return snapshotRetention;
+        }
+
+        public void setSnapshotRetention(Duration snapshotRetention) {
+            this.snapshotRetention = snapshotRetention;
+        }
+    }
+
+    public static class Upload {
+
+        /**
+         * Number of files of a multi-file upload written at the same time.
+         */
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Resumable upload sessions nothing has been received for during this time are cancelled.
+         */
+        private Duration sessionExpiry = Duration.ofHours(24);
+
+        /**
+         * Memory the entries of the archive uploads may take while they are waiting to be written,
+         * reading the archive stops when it is used up.
+         */
+        private DataSize archiveBuffer = DataSize.ofMegabytes(16);
+
+        /**
+         * Largest archive entry held in memory until it is written, a larger one is spilled into an incoming file.
+         */
+        private DataSize archiveEntryInMemory = DataSize.ofKilobytes(256);
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public Duration getSessionExpiry() {
+            return sessionExpiry;
+        }
+
+        public void setSessionExpiry(Duration sessionExpiry) {
+            this.sessionExpiry = sessionExpiry;
+        }
+
+        public DataSize getArchiveBuffer() {
+            return archiveBuffer;
+        }
+
+        public void setArchiveBuffer(DataSize archiveBuffer) {
+            this.archiveBuffer = archiveBuffer;
+        }
+
+        public DataSize getArchiveEntryInMemory() {
+            return archiveEntryInMemory;
+        }
+
+        public void setArchiveEntryInMemory(DataSize archiveEntryInMemory) {
+            this.archiveEntryInMemory = archiveEntryInMemory;
+        }
+    }
+
+    public static class Deduplication {
+
+        /**
+         * Stores every distinct content once, file names become hard links to the shared copy.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How often the contents no file name refers to any more are removed.
+         */
+        private Duration collectInterval = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getCollectInterval() {
+            return collectInterval;
+        }
+
+        public void setCollectInterval(Duration collectInterval) {
+            this.collectInterval = collectInterval;
+        }
+    }
+
+    public static class Async {
+
+        /**
+         * Size of the buffer a non-blocking transfer moves the content through, one per transfer.
+         */
+        private DataSize bufferSize = DataSize.ofKilobytes(64);
+
+        /**
+         * How long a non-blocking transfer may take before it is abandoned.
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+
+        public DataSize getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(DataSize bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Write {
+
+        /**
+         * When the saved files are forced to the disk before they are renamed into place.
+         */
+        private FsyncPolicy fsync = FsyncPolicy.NONE;
+
+        /**
+         * How long a group commit waits for further writers to join the batch,
+         * zero batches the writers arriving while the previous batch is being forced.
+         */
+        private Duration groupCommitDelay = Duration.ZERO;
+
+        /**
+         * Whether the compressible files (see the compression settings) are stored compressed.
+         */
+        private AtRestCompression compression = AtRestCompression.NONE;
+
+        public FsyncPolicy getFsync() {
+            return fsync;
+        }
+
+        public void setFsync(FsyncPolicy fsync) {
+            this.fsync = fsync;
+        }
+
+        public Duration getGroupCommitDelay() {
+            return groupCommitDelay;
+        }
+
+        public void setGroupCommitDelay(Duration groupCommitDelay) {
+            this.groupCommitDelay = groupCommitDelay;
+        }
+
+        public AtRestCompression getCompression() {
+            return compression;
+        }
+
+        public void setCompression(AtRestCompression compression) {
+            this.compression = compression;
+        }
+    }
+
+    public static class Lock {
+
+        /**
+         * Number of lock stripes the file names are spread over (rounded up to a power of two).
+         */
+        private int stripes = 64;
+
+        /**
+         * How long an operation waits for the lock of a file before it fails.
+         */
+        private Duration timeout = Duration.ofSeconds(30);
+
+        public int getStripes() {
+            return stripes;
+        }
+
+        public void setStripes(int stripes) {
+            this.stripes = stripes;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * Whether the contents of the downloaded files are kept in memory.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Memory the cached contents may take, the least recently used ones are evicted beyond it.
+         */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        /**
+         * Size of the largest file kept in memory, larger files are always read from the disk.
+         */
+        private DataSize maxFileSize = DataSize.ofMegabytes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public void setMaxFileSize(DataSize maxFileSize) {
+            this.maxFileSize = maxFileSize;
+        }
+    }
+
+    public static class Compression {
+
+        /**
+         * Whether downloads are sent gzip-compressed to the clients accepting it.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Size of the smallest file worth compressing.
+         */
+        private DataSize minSize = DataSize.ofKilobytes(1);
+
+        /**
+         * Content types of the compressible files, a type ending with "/*" stands for all its subtypes.
+         */
+        private List<String> mimeTypes = new ArrayList<>(List.of(
+                "text/*",
+                "application/json",
+                "application/xml",
+                "application/javascript",
+                "application/x-javascript",
+                "image/svg+xml"));
+
+        /**
+         * Number of threads making the compressed copies in the background.
+         */
+        private int variantWorkers = 2;
+
+        /**
+         * Number of compressed copies waiting to be made, further requests are dropped until there is room.
+         */
+        private int variantQueue = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMinSize() {
+            return minSize;
+        }
+
+        public void setMinSize(DataSize minSize) {
+            this.minSize = minSize;
+        }
+
+        public List<String> getMimeTypes() {
+            return mimeTypes;
+        }
+
+        public void setMimeTypes(List<String> mimeTypes) {
+            this.mimeTypes = mimeTypes;
+        }
+
+        public int getVariantWorkers() {
+            return variantWorkers;
+        }
+
+        public void setVariantWorkers(int variantWorkers) {
+            this.variantWorkers = variantWorkers;
+        }
+
+        public int getVariantQueue() {
+            return variantQueue;
+        }
+
+        public void setVariantQueue(int variantQueue) {
+            this.variantQueue = variantQueue;
+        }
+    }
+
+    public static class Layout {
+
+        /**
+         * How the files are arranged in the storage folder.
+         */
+        private LayoutMode mode = LayoutMode.FLAT;
+
+        /**
+         * Levels of subfolders of the sharded layout (1 to 4), each level divides the files of a folder by 256.
+         */
+        private int depth = 2;
+
+        /**
+         * Whether the files left in the storage folder by the flat layout are moved into the sharded one
+         * in the background at startup.
+         */
+        private boolean migrateOnStart = true;
+
+        public LayoutMode getMode() {
+            return mode;
+        }
+
+        public void setMode(LayoutMode mode) {
+            this.mode = mode;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public boolean isMigrateOnStart() {
+            return migrateOnStart;
+        }
+
+        public void setMigrateOnStart(boolean migrateOnStart) {
+            this.migrateOnStart = migrateOnStart;
+        }
+    }
+
+    public static class Metadata {
+
+        /**
+         * Keeps the metadata of the stored files in a snapshot and a log, a start loads them instead of scanning the files.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Whether the loaded metadata is checked against the files in the background after the start,
+         * for the changes made while the application was not running.
+         */
+        private boolean verifyOnStart = true;
+
+        /**
+         * Number of log records after which the log is compacted into a new snapshot.
+         */
+        private int compactAfter = 10000;
+
+        /**
+         * How often the log size is checked.
+         */
+        private Duration compactInterval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isVerifyOnStart() {
+            return verifyOnStart;
+        }
+
+        public void setVerifyOnStart(boolean verifyOnStart) {
+            this.verifyOnStart = verifyOnStart;
+        }
+
+        public int getCompactAfter() {
+            return compactAfter;
+        }
+
+        public void setCompactAfter(int compactAfter) {
+            this.compactAfter = compactAfter;
+        }
+
+        public Duration getCompactInterval() {
+            return compactInterval;
+        }
+
+        public void setCompactInterval(Duration compactInterval) {
+            this.compactInterval = compactInterval;
+        }
+    }
+
+    public static class Deletion {
+
+        /**
+         * Number of files deleted at the same time by the bulk deletions, shared by the running jobs.
+         */
+        private int parallelism = 4;
+
+        /**
+         * How long the result of a finished bulk deletion can be read.
+         */
+        private Duration retention = Duration.ofHours(1);
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+    }
+
+    public static class Archive {
+
+        /**
+         * Size of the buffer an archive entry is copied through, a file fitting into it is read once and stored
+         * without compression when its type is listed among the stored types.
+         */
+        private DataSize bufferSize = DataSize.ofKilobytes(64);
+
+        /**
+         * Content types of the files compressed already, they are put into the archives without compressing them again.
+         * A type ending with "/*" stands for all its subtypes.
+         */
+        private List<String> storedTypes = new ArrayList<>(List.of(
+                "image/jpeg",
+                "image/png",
+                "image/gif",
+                "image/webp",
+                "audio/*",
+                "video/*",
+                "application/zip",
+                "application/gzip",
+                "application/x-gzip",
+                "application/x-bzip2",
+                "application/x-xz",
+                "application/x-7z-compressed",
+                "application/vnd.rar",
+                "application/zstd"));
+
+        public DataSize getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(DataSize bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public List<String> getStoredTypes() {
+            return storedTypes;
+        }
+
+        public void setStoredTypes(List<String> storedTypes) {
+            this.storedTypes = storedTypes;
+        }
+    }
+
+    public static class Execution {
+
+        /**
+         * Platform or virtual threads for the requests and the storage workers.
+         */
+        private ExecutionMode mode = ExecutionMode.PLATFORM;
+
+        /**
+         * Number of uploads handled at the same time, the others wait for a free place.
+         */
+        private int maxUploads = 64;
+
+        /**
+         * Number of downloads handled at the same time, the others wait for a free place.
+         */
+        private int maxDownloads = 256;
+
+        /**
+         * Number of deletions handled at the same time, the others wait for a free place.
+         */
+        private int maxDeletions = 16;
+
+        /**
+         * How long a request waits for a free place before it is turned away as busy.
+         */
+        private Duration maxWait = Duration.ofSeconds(5);
+
+        public ExecutionMode getMode() {
+            return mode;
+        }
+
+        public void setMode(ExecutionMode mode) {
+            this.mode = mode;
+        }
+
+        public int getMaxUploads() {
+            return maxUploads;
+        }
+
+        public void setMaxUploads(int maxUploads) {
+            this.maxUploads = maxUploads;
+        }
+
+        public int getMaxDownloads() {
+            return maxDownloads;
+        }
+
+        public void setMaxDownloads(int maxDownloads) {
+            this.maxDownloads = maxDownloads;
+        }
+
+        public int getMaxDeletions() {
+            return maxDeletions;
+        }
+
+        public void setMaxDeletions(int maxDeletions) {
+            this.maxDeletions = maxDeletions;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
+    public static class RateLimit {
+
+        /**
+         * Whether the uploads and downloads of the clients are limited.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Bytes a client may move in a second, uploads and downloads together.
+         */
+        private DataSize clientBandwidth = DataSize.ofMegabytes(20);
+
+        /**
+         * Bytes all the clients together may move in a second.
+         */
+        private DataSize globalBandwidth = DataSize.ofMegabytes(200);
+
+        /**
+         * How much of the bandwidth an idle client may save up and spend at once.
+         */
+        private Duration burst = Duration.ofSeconds(1);
+
+        /**
+         * Number of uploads and downloads a client may have in progress at the same time.
+         */
+        private int clientConcurrency = 8;
+
+        /**
+         * How long a request over the bandwidth may be held back, a longer wait is answered with 429.
+         */
+        private Duration maxDelay = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getClientBandwidth() {
+            return clientBandwidth;
+        }
+
+        public void setClientBandwidth(DataSize clientBandwidth) {
+            this.clientBandwidth = clientBandwidth;
+        }
+
+        public DataSize getGlobalBandwidth() {
+            return globalBandwidth;
+        }
+
+        public void setGlobalBandwidth(DataSize globalBandwidth) {
+            this.globalBandwidth = globalBandwidth;
+        }
+
+        public Duration getBurst() {
+            return burst;
+        }
+
+        public void setBurst(Duration burst) {
+            this.burst = burst;
+        }
+
+        public int getClientConcurrency() {
+            return clientConcurrency;
+        }
+
+        public void setClientConcurrency(int clientConcurrency) {
+            this.clientConcurrency = clientConcurrency;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+    }
+
+    public static class Quota {
+
+        /**
+         * Whether the limits are enforced on the new files.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Total size of the stored files, 0 for no limit.
+         */
+        private DataSize maxTotalSize = DataSize.ofGigabytes(10);
+
+        /**
+         * Number of the stored files, 0 for no limit.
+         */
+        private long maxFiles = 100_000;
+
+        /**
+         * Size of a single file, 0 for no limit.
+         */
+        private DataSize maxFileSize = DataSize.ofGigabytes(1);
+
+        /**
+         * How often the usage counters are checked against the files on the disk.
+         */
+        private Duration verifyInterval = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxTotalSize() {
+            return maxTotalSize;
+        }
+
+        public void setMaxTotalSize(DataSize maxTotalSize) {
+            this.maxTotalSize = maxTotalSize;
+        }
+
+        public long getMaxFiles() {
+            return maxFiles;
+        }
+
+        public void setMaxFiles(long maxFiles) {
+            this.maxFiles = maxFiles;
+        }
+
+        public DataSize getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public void setMaxFileSize(DataSize maxFileSize) {
+            this.maxFileSize = maxFileSize;
+        }
+
+        public Duration getVerifyInterval() {
+            return verifyInterval;
+        }
+
+        public void setVerifyInterval(Duration verifyInterval) {
+            this.verifyInterval = verifyInterval;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package lgrimm.configuration;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Virtual threads of Java 21, reached by reflection so the application still builds and runs on Java 17.
+ * On a runtime without them every method returns empty, the callers keep their platform threads then.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param prefix beginning of the thread names, followed by a running number
+     * @return factory of virtual threads, empty if the runtime has none
+     */
+    public static Optional<ThreadFactory> factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return Optional.of((ThreadFactory) builderType.getMethod("factory").invoke(builder));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return executor starting a new virtual thread for each task, empty if the runtime has none
+     */
+    public static Optional<ExecutorService> newPerTaskExecutor(String prefix) {
+        return factory(prefix).flatMap(factory -> {
+            try {
+                Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return Optional.of((ExecutorService) newExecutor.invoke(null, factory));
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                return Optional.empty();
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+package lgrimm.controller;
+
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import lgrimm.service.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Downloads many files in one response: a ZIP archive of the files matching the filters,
+ * or of the files listed in the request body, streamed while it is being made.
+ * Uploads many files in one request: the entries of a ZIP archive are stored while the archive is arriving.
+ */
+@RestController
+@RequestMapping("/api/archive")
+public class ArchiveController {
+
+    static final String APPLICATION_ZIP = "application/zip";
+
+    private final FileInFolderService service;
+    private final ZipArchiveWriter writer;
+
+    @Autowired
+    public ArchiveController(FileInFolderService service, StorageProperties properties) {
+        this.service = service;
+        this.writer = new ZipArchiveWriter(properties.getArchive());
+    }
+
+    @Bulkhead(Bulkhead.Type.DOWNLOAD)
+    @GetMapping(produces = APPLICATION_ZIP)
+    public void getArchive(@RequestParam(value = "prefix", required = false) String prefix,
+                           @RequestParam(value = "glob", required = false) String glob,
+                           HttpServletResponse response) throws IOException {
+        send(service.findFilenames(prefix, glob), response);
+    }
+
+    /**
+     * For the selections too long for a query string: the body is a JSON array of names.
+     */
+    @Bulkhead(Bulkhead.Type.DOWNLOAD)
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = APPLICATION_ZIP)
+    public void getArchive(@RequestBody List<String> filenames,
+                           HttpServletResponse response) throws IOException {
+        send(filenames, response);
+    }
+
+    /**
+     * The body is the archive itself, not a multipart form, so it is read once as it arrives.
+     *
+     * @return result of each file entry, in the order of the archive
+     */
+    @Bulkhead(Bulkhead.Type.UPLOAD)
+    @PostMapping(value = "/upload", consumes = APPLICATION_ZIP, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<OperationResult> uploadArchive(HttpServletRequest request) throws IOException {
+        return service.saveArchive(request.getInputStream());
+    }
+
+    private void send(List<String> filenames, HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_ZIP);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"");
+        long bytes = writer.write(filenames, service, response.getOutputStream());
+        service.recordDownload(bytes);
+    }
+}
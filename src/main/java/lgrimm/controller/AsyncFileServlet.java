@@ -0,0 +1,740 @@
+package lgrimm.controller;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Non-blocking variant of the upload and the download of a single file.
+ * The body is moved between servlet non-blocking I/O and an AsynchronousFileChannel through one buffer,
+ * the next piece is only read when the previous one has been written (backpressure in both directions),
+ * so a slow client holds a buffer for the whole transfer, not a thread.
+ * <p>
+ * PUT /async/files/{filename} stores the request body under the name,
+ * GET /async/files/{filename} sends the stored file back.
+ * <p>
+ * The uploads and downloads take their places in the same bulkheads as the ones of the controllers,
+ * held until the asynchronous transfer is complete. The rate limit of the controllers does not apply here.
+ */
+public class AsyncFileServlet extends HttpServlet {
+
+    public static final String PATH = "/async/files/*";
+    private static final String PLACE = AsyncFileServlet.class.getName() + ".place";
+
+    private final FileInFolderRepository repository;
+    private final StorageProperties.Async properties;
+    private final BulkheadInterceptor bulkheads;
+
+    public AsyncFileServlet(FileInFolderRepository repository, StorageProperties properties, BulkheadInterceptor bulkheads) {
+        this.repository = repository;
+        this.properties = properties.getAsync();
+        this.bulkheads = bulkheads;
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Bulkhead.Type type = switch (request.getMethod()) {
+            case "PUT" -> Bulkhead.Type.UPLOAD;
+            case "GET" -> Bulkhead.Type.DOWNLOAD;
+            default -> null;
+        };
+        if (type == null) {
+            super.service(request, response);
+            return;
+        }
+        try {
+            if (!bulkheads.enter(type, response)) {
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        Place place = new Place(type);
+        request.setAttribute(PLACE, place);
+        try {
+            super.service(request, response);
+        }
+        finally {
+            if (!request.isAsyncStarted()) {
+                place.leave();
+            }
+        }
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<String> filename = filename(request);
+        if (filename.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No file was given.");
+            return;
+        }
+        if (repository.findMetadataByFilename(filename.get()).isPresent()) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, filename.get() + " file already exists!");
+            return;
+        }
+        // the room of a declared length is taken before the body is read, a body of unknown length is counted on the way
+        long length = request.getContentLengthLong();
+        StorageQuota.Reservation reservation = null;
+        if (length >= 0) {
+            reservation = repository.reserveRoom(length).orElse(null);
+        }
+        long limit = length >= 0 ? length : repository.roomForFile();
+        if ((length >= 0 && reservation == null) || limit < 0) {
+            response.sendError(HttpStatus.INSUFFICIENT_STORAGE.value(), "The storage quota has been reached.");
+            return;
+        }
+        Optional<Path> incoming = repository.createIncoming();
+        if (incoming.isEmpty()) {
+            closeQuietly(reservation);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not upload the file: " + filename.get());
+            return;
+        }
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(incoming.get(), StandardOpenOption.WRITE);
+        }
+        catch (IOException e) {
+            repository.discardIncoming(incoming.get());
+            closeQuietly(reservation);
+            throw e;
+        }
+        String contentType = request.getContentType() == null ?
+                MediaTypeFactory.getMediaType(filename.get()).orElse(MediaType.APPLICATION_OCTET_STREAM).toString() :
+                request.getContentType();
+        Upload upload = new Upload(startAsync(request), request.getInputStream(), channel,
+                incoming.get(), filename.get(), contentType, limit, reservation);
+        upload.context.addListener(upload);
+        upload.input.setReadListener(upload);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<FileMetadata> metadata = prepareDownload(request, response);
+        if (metadata.isEmpty()) {
+            return;
+        }
+        if (!sendsStoredBytes(request, metadata.get().getName())) {
+            sendDecoded(metadata.get().getName(), response);
+            return;
+        }
+        Optional<FileLocks.Lease> lease = repository.lockForReading(metadata.get().getName());
+        if (lease.isEmpty()) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, metadata.get().getName() + " file is busy.");
+            return;
+        }
+        Optional<Path> path = repository.findLocationByFilename(metadata.get().getName());
+        AsynchronousFileChannel channel;
+        try {
+            if (path.isEmpty()) {
+                throw new NoSuchFileException(metadata.get().getName());
+            }
+            channel = AsynchronousFileChannel.open(path.get(), StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, metadata.get().getName() + " file does not exist!");
+            return;
+        }
+        finally {
+            lease.get().close();
+        }
+        Download download;
+        try {
+            download = new Download(startAsync(request), response.getOutputStream(), channel);
+        }
+        catch (IOException | RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+        download.context.addListener(download);
+        download.output.setWriteListener(download);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        prepareDownload(request, response);
+    }
+
+    /**
+     * Writes the headers of the download, or the error response when there is nothing to download.
+     */
+    private Optional<FileMetadata> prepareDownload(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<String> filename = filename(request);
+        if (filename.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No file was given.");
+            return Optional.empty();
+        }
+        Optional<FileMetadata> metadata = repository.findMetadataByFilename(filename.get());
+        if (metadata.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, filename.get() + " file does not exist!");
+            return Optional.empty();
+        }
+        response.setContentType(metadata.get().getContentType());
+        response.setContentLengthLong(metadata.get().getSize());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename.get() + "\"");
+        response.setHeader(HttpHeaders.ETAG, DownloadHandler.eTag(metadata.get()));
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, metadata.get().getLastModified());
+        if (repository.isStoredCompressed(filename.get())) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (sendsStoredBytes(request, filename.get())) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, DownloadHandler.CONTENT_ENCODING_GZIP);
+                response.setHeader(HttpHeaders.ETAG, DownloadHandler.eTag(metadata.get(), DownloadHandler.CONTENT_ENCODING_GZIP));
+                response.setContentLengthLong(storedSize(filename.get()));
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * @return whether the stored bytes of the file can be sent as they are: the file is not stored compressed,
+     * or the client accepts its encoding
+     */
+    private boolean sendsStoredBytes(HttpServletRequest request, String filename) {
+        return !repository.isStoredCompressed(filename) ||
+                DownloadHandler.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    private long storedSize(String filename) {
+        try {
+            Optional<Path> path = repository.findLocationByFilename(filename);
+            return path.isPresent() ? Files.size(path.get()) : -1;
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends a file stored compressed to a client not accepting its encoding, decompressing it with blocking I/O.
+     */
+    private void sendDecoded(String filename, HttpServletResponse response) throws IOException {
+        Optional<Resource> resource = repository.getByFilename(filename);
+        if (resource.isEmpty()) {
+            response.reset();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, filename + " file does not exist!");
+            return;
+        }
+        try (InputStream in = resource.get().getInputStream()) {
+            in.transferTo(response.getOutputStream());
+        }
+    }
+
+    private AsyncContext startAsync(HttpServletRequest request) {
+        AsyncContext context = request.startAsync();
+        context.setTimeout(properties.getTimeout().toMillis());
+        if (request.getAttribute(PLACE) instanceof Place place) {
+            context.addListener(place);
+        }
+        return context;
+    }
+
+    private int bufferSize() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, properties.getBufferSize().toBytes()));
+    }
+
+    private static Optional<String> filename(HttpServletRequest request) {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || pathInfo.length() <= 1) {
+            return Optional.empty();
+        }
+        String filename = pathInfo.substring(1);
+        if (filename.isBlank() || filename.contains("/") || filename.contains("\\") ||
+                filename.equals(".") || filename.equals("..")) {
+            return Optional.empty();
+        }
+        return Optional.of(filename);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private static void closeQuietly(StorageQuota.Reservation reservation) {
+        if (reservation != null) {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Place of a transfer in its bulkhead, given back once when the request is complete.
+     */
+    private class Place implements AsyncListener {
+
+        private final Bulkhead.Type type;
+        private final AtomicBoolean left = new AtomicBoolean();
+
+        Place(Bulkhead.Type type) {
+            this.type = type;
+        }
+
+        void leave() {
+            if (left.compareAndSet(false, true)) {
+                bulkheads.leave(type);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            leave();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Reads the request body while it can be read without blocking, writes each piece to the incoming file
+     * and goes on reading when the write has completed. The file is published on the writer pool
+     * once the whole body is written, and the response is sent when it is done. A body going beyond the limit
+     * (its declared length, or the room left in the storage quota) is abandoned with 507.
+     * The monitor guards the state only, the servlet streams are not called while it is held:
+     * the container holds its own lock of the request while it calls the listener.
+     * The buffer has one owner at a time, claimed before a read and kept until the write of the piece has completed;
+     * a signal of the container arriving meanwhile makes the owner read again before it lets the buffer go.
+     */
+    private class Upload implements ReadListener, AsyncListener, CompletionHandler<Integer, ByteBuffer> {
+
+        private final AsyncContext context;
+        private final ServletInputStream input;
+        private final AsynchronousFileChannel channel;
+        private final Path incoming;
+        private final String filename;
+        private final String contentType;
+        private final long limit;
+        private final StorageQuota.Reservation reservation;
+        private final byte[] bytes = new byte[bufferSize()];
+        private long received;
+        private long position;
+        private boolean claimed;
+        private boolean signalled;
+        private boolean allRead;
+        private boolean done;
+
+        Upload(AsyncContext context,
+               ServletInputStream input,
+               AsynchronousFileChannel channel,
+               Path incoming,
+               String filename,
+               String contentType,
+               long limit,
+               StorageQuota.Reservation reservation) {
+            this.context = context;
+            this.input = input;
+            this.channel = channel;
+            this.incoming = incoming;
+            this.filename = filename;
+            this.contentType = contentType;
+            this.limit = limit;
+            this.reservation = reservation;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            readNext();
+        }
+
+        /**
+         * Called by the container when data has become available, and by the completed write.
+         * Only the thread having claimed the buffer reads, the other one leaves a signal.
+         */
+        private void readNext() throws IOException {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (claimed) {
+                    signalled = true;
+                    return;
+                }
+                claimed = true;
+                signalled = false;
+            }
+            while (true) {
+                if (input.isReady()) {
+                    int read = input.read(bytes);
+                    if (read < 0) {
+                        // the container does not tell the end of the body read off its own threads
+                        synchronized (this) {
+                            allRead = true;
+                        }
+                        release();
+                        return;
+                    }
+                    received += read;
+                    if (received > limit) {
+                        abort(HttpStatus.INSUFFICIENT_STORAGE.value());
+                        return;
+                    }
+                    if (read > 0) {
+                        // the buffer stays claimed until the write has completed
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+                        channel.write(buffer, writePosition(), buffer, this);
+                        return;
+                    }
+                }
+                else if (!keepClaim()) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized long writePosition() {
+            return position;
+        }
+
+        /**
+         * Called when no data can be read now: the buffer is let go unless the container has signalled meanwhile.
+         *
+         * @return whether the caller is to read again
+         */
+        private boolean keepClaim() {
+            synchronized (this) {
+                if (signalled && !done) {
+                    signalled = false;
+                    return true;
+                }
+            }
+            release();
+            return false;
+        }
+
+        /**
+         * Lets the buffer go, and publishes the file if the whole body has been read meanwhile.
+         */
+        private void release() {
+            boolean complete;
+            synchronized (this) {
+                claimed = false;
+                complete = allRead;
+            }
+            if (complete) {
+                publish();
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            synchronized (this) {
+                allRead = true;
+                if (claimed) {
+                    return;
+                }
+            }
+            publish();
+        }
+
+        @Override
+        public void completed(Integer written, ByteBuffer buffer) {
+            synchronized (this) {
+                position += written;
+            }
+            if (buffer.hasRemaining()) {
+                channel.write(buffer, writePosition(), buffer, this);
+                return;
+            }
+            boolean complete;
+            synchronized (this) {
+                claimed = false;
+                complete = allRead;
+            }
+            if (complete) {
+                publish();
+                return;
+            }
+            try {
+                readNext();
+            }
+            catch (IOException e) {
+                abort(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer buffer) {
+            abort(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            abort(HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            abort(HttpServletResponse.SC_REQUEST_TIMEOUT);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            abort(HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * @return whether the upload has been finished now, false if it had been finished before
+         */
+        private synchronized boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        private void publish() {
+            if (!finish()) {
+                return;
+            }
+            closeQuietly(channel);
+            repository.publishAsync(incoming, filename, contentType, reservation).whenComplete((published, e) -> {
+                if (published == null) {
+                    respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not upload the file: " + filename);
+                }
+                else if (published.isPresent()) {
+                    respond(HttpServletResponse.SC_CREATED, published.get() + " file has been successfully uploaded.");
+                }
+                else if (repository.findMetadataByFilename(filename).isPresent()) {
+                    respond(HttpServletResponse.SC_CONFLICT, "Could not upload the file: " + filename);
+                }
+                else if (reservation == null && repository.exceedsQuota(received)) {
+                    respond(HttpStatus.INSUFFICIENT_STORAGE.value(), "The storage quota has been reached.");
+                }
+                else {
+                    respond(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Could not upload the file: " + filename);
+                }
+            });
+        }
+
+        private void abort(int status) {
+            if (!finish()) {
+                return;
+            }
+            closeQuietly(channel);
+            repository.discardIncoming(incoming);
+            closeQuietly(reservation);
+            respond(status, "Could not upload the file: " + filename);
+        }
+
+        private void respond(int status, String message) {
+            try {
+                HttpServletResponse response = (HttpServletResponse) context.getResponse();
+                if (!response.isCommitted()) {
+                    response.setStatus(status);
+                    response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+                    response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+                    response.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            catch (Exception ignored) {
+            }
+            finally {
+                try {
+                    context.complete();
+                }
+                catch (IllegalStateException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next piece of the file when the previous one has been written to the response,
+     * and writes it while the response can be written without blocking.
+     * The file has been opened under its shared lock, the open channel keeps its content until the transfer is finished.
+     * As in the upload, the monitor guards the state only and the buffer has one owner at a time:
+     * the thread writing to the response, or the pending read of the file.
+     */
+    private class Download implements WriteListener, AsyncListener, CompletionHandler<Integer, ByteBuffer> {
+
+        private final AsyncContext context;
+        private final ServletOutputStream output;
+        private final AsynchronousFileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize());
+        private final long length;
+        private long position;
+        private boolean claimed;
+        private boolean signalled;
+        private boolean filled;
+        private boolean done;
+
+        Download(AsyncContext context,
+                 ServletOutputStream output,
+                 AsynchronousFileChannel channel) throws IOException {
+            this.context = context;
+            this.output = output;
+            this.channel = channel;
+            this.length = channel.size();
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            writeNext();
+        }
+
+        /**
+         * Called by the container when the response can be written, and by the completed read.
+         * Only the thread having claimed the buffer writes, the other one leaves a signal.
+         */
+        private void writeNext() throws IOException {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (claimed) {
+                    signalled = true;
+                    return;
+                }
+                claimed = true;
+                signalled = false;
+            }
+            while (true) {
+                if (!output.isReady()) {
+                    if (keepClaim()) {
+                        continue;
+                    }
+                    return;
+                }
+                boolean write;
+                long readPosition;
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    write = filled;
+                    readPosition = position;
+                }
+                if (write) {
+                    output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    buffer.clear();
+                    synchronized (this) {
+                        filled = false;
+                    }
+                }
+                else if (readPosition >= length) {
+                    finish();
+                    return;
+                }
+                else {
+                    // the buffer stays claimed until the read has completed
+                    buffer.limit((int) Math.min(buffer.capacity(), length - readPosition));
+                    channel.read(buffer, readPosition, buffer, this);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Called when the response cannot be written now: the buffer is let go unless the container has signalled meanwhile.
+         *
+         * @return whether the caller is to try again
+         */
+        private synchronized boolean keepClaim() {
+            if (signalled && !done) {
+                signalled = false;
+                return true;
+            }
+            claimed = false;
+            return false;
+        }
+
+        @Override
+        public void completed(Integer read, ByteBuffer buffer) {
+            if (read < 0) {
+                // the file got shorter since the transfer started, the announced length can not be kept
+                finish();
+                return;
+            }
+            synchronized (this) {
+                position += read;
+                buffer.flip();
+                filled = true;
+                claimed = false;
+            }
+            try {
+                writeNext();
+            }
+            catch (IOException e) {
+                finish();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer buffer) {
+            finish();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void finish() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+            }
+            closeQuietly(channel);
+            try {
+                context.complete();
+            }
+            catch (IllegalStateException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package lgrimm.controller;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a handler whose requests count against the concurrency limit of an operation type,
+ * see {@link BulkheadInterceptor}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Bulkhead {
+
+    Type value();
+
+    enum Type {
+        UPLOAD,
+        DOWNLOAD,
+        DELETION
+    }
+}
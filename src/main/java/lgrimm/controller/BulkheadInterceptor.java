@@ -0,0 +1,80 @@
+package lgrimm.controller;
+
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import org.springframework.http.*;
+import org.springframework.web.method.*;
+import org.springframework.web.servlet.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Limits the number of requests handled at the same time for each operation type, so a burst of slow uploads
+ * cannot take the places of the downloads, and the other way round. A request over the limit waits for a free place
+ * up to the maximum wait, then it is answered with 503 and a Retry-After header.
+ * The place is given back when the response has been written.
+ */
+public class BulkheadInterceptor implements HandlerInterceptor {
+
+    private static final String PERMIT = BulkheadInterceptor.class.getName() + ".permit";
+
+    private final Map<Bulkhead.Type, Semaphore> limits = new EnumMap<>(Bulkhead.Type.class);
+    private final Duration maxWait;
+
+    public BulkheadInterceptor(StorageProperties.Execution properties) {
+        limits.put(Bulkhead.Type.UPLOAD, new Semaphore(Math.max(1, properties.getMaxUploads())));
+        limits.put(Bulkhead.Type.DOWNLOAD, new Semaphore(Math.max(1, properties.getMaxDownloads())));
+        limits.put(Bulkhead.Type.DELETION, new Semaphore(Math.max(1, properties.getMaxDeletions())));
+        this.maxWait = properties.getMaxWait();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod method) || !method.hasMethodAnnotation(Bulkhead.class)) {
+            return true;
+        }
+        Bulkhead.Type type = method.getMethodAnnotation(Bulkhead.class).value();
+        if (!enter(type, response)) {
+            return false;
+        }
+        request.setAttribute(PERMIT, type);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(PERMIT) instanceof Bulkhead.Type type) {
+            request.removeAttribute(PERMIT);
+            leave(type);
+        }
+    }
+
+    /**
+     * Takes a place of the operation type, for the handlers outside of the dispatcher, waiting for it up to the maximum wait.
+     * The place is to be given back by {@link #leave(Bulkhead.Type)}.
+     *
+     * @return whether a place has been taken, the response has been answered with 503 if not
+     */
+    public boolean enter(Bulkhead.Type type, HttpServletResponse response) throws IOException, InterruptedException {
+        if (limits.get(type).tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, maxWait.toSeconds())));
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+        return false;
+    }
+
+    public void leave(Bulkhead.Type type) {
+        limits.get(type).release();
+    }
+
+    /**
+     * @return number of free places of the operation type
+     */
+    public int available(Bulkhead.Type type) {
+        return limits.get(type).availablePermits();
+    }
+}
@@ -0,0 +1,275 @@
+package lgrimm.controller;
+
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
+import org.springframework.core.io.*;
+import org.springframework.core.io.support.*;
+import org.springframework.http.*;
+import org.springframework.web.context.request.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Builds the response of a file download: conditional requests (ETag, Last-Modified),
+ * byte ranges (single and multiple), gzip content encoding and the hand-over of large bodies to sendfile.
+ */
+class DownloadHandler {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    static final String CONTENT_ENCODING_GZIP = "gzip";
+
+    private final StorageProperties properties;
+    private final CompressionPolicy compressionPolicy;
+
+    DownloadHandler(StorageProperties properties) {
+        this.properties = properties;
+        this.compressionPolicy = new CompressionPolicy(properties.getCompression());
+    }
+
+    ResponseEntity<?> download(Resource resource,
+                               FileMetadata metadata,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        String eTag = eTag(metadata);
+        // also writes the ETag and Last-Modified headers of the response
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, metadata.getLastModified())) {
+            return ResponseEntity
+                    .status(response.getStatus())
+                    .build();
+        }
+        long length = resource.contentLength();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentType(contentType(metadata));
+        if (isCompressible(metadata)) {
+            headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity
+                .ok()
+                .headers(headers);
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range == null) {
+            return sendfile(resource, 0, length, request)
+                    .map(sent -> builder.contentLength(length).build())
+                    .orElseGet(() -> builder.body(resource));
+        }
+        if (!isRangeApplicable(request.getHeader(HttpHeaders.IF_RANGE), eTag, metadata.getLastModified())) {
+            // the representation has changed since the client's partial copy: send it whole,
+            // as an InputStreamResource so that Spring does not apply the Range header on its own
+            return sendfile(resource, 0, length, request)
+                    .map(sent -> builder.contentLength(length).build())
+                    .orElseGet(() -> builder.contentLength(length).body(inputStreamResource(resource)));
+        }
+
+        List<ResourceRegion> regions;
+        try {
+            regions = HttpRange.toResourceRegions(HttpRange.parseRanges(range), resource);
+        }
+        catch (IllegalArgumentException e) {
+            return ResponseEntity
+                    .status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                    .build();
+        }
+        if (regions.size() == 1) {
+            long start = regions.get(0).getPosition();
+            long end = start + regions.get(0).getCount();
+            Optional<Long> sent = sendfile(resource, start, end, request);
+            if (sent.isPresent()) {
+                return ResponseEntity
+                        .status(HttpStatus.PARTIAL_CONTENT)
+                        .headers(headers)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length)
+                        .contentLength(sent.get())
+                        .build();
+            }
+        }
+        // the ranges are valid, Spring writes the 206 response (multipart/byteranges for several ranges)
+        return builder.body(resource);
+    }
+
+    /**
+     * @return whether the download is sent gzip-compressed: the file is of a compressible type and size,
+     * the client accepts gzip and does not ask for byte ranges (those are served from the stored bytes)
+     */
+    boolean isCompressed(FileMetadata metadata, HttpServletRequest request) {
+        return isCompressible(metadata) &&
+                request.getHeader(HttpHeaders.RANGE) == null &&
+                acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Sends the gzip-compressed representation of the file: the precompressed variant if there is one,
+     * otherwise the file compressed while it is being sent.
+     *
+     * @param variant the precompressed variant, null if there is none yet
+     */
+    ResponseEntity<?> downloadCompressed(Resource resource,
+                                         Resource variant,
+                                         FileMetadata metadata,
+                                         HttpServletRequest request,
+                                         HttpServletResponse response) throws IOException {
+        String eTag = eTag(metadata, CONTENT_ENCODING_GZIP);
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, metadata.getLastModified())) {
+            return ResponseEntity
+                    .status(response.getStatus())
+                    .build();
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + resource.getFilename() + "\"");
+        headers.set(HttpHeaders.CONTENT_ENCODING, CONTENT_ENCODING_GZIP);
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        headers.setContentType(contentType(metadata));
+        ResponseEntity.BodyBuilder builder = ResponseEntity
+                .ok()
+                .headers(headers);
+
+        if (variant != null) {
+            long length = variant.contentLength();
+            return sendfile(variant, 0, length, request)
+                    .map(sent -> builder.contentLength(length).build())
+                    .orElseGet(() -> builder.contentLength(length).body(variant));
+        }
+        if (HttpMethod.HEAD.matches(request.getMethod())) {
+            return builder.build();
+        }
+        return builder.body(new InputStreamResource(new GzipEncodingInputStream(resource.getInputStream())));
+    }
+
+    private boolean isCompressible(FileMetadata metadata) {
+        return properties.getCompression().isEnabled() &&
+                compressionPolicy.isCompressible(metadata.getContentType(), metadata.getSize());
+    }
+
+    /**
+     * Reads gzip acceptance out of an Accept-Encoding header: an explicit gzip entry decides, otherwise a wildcard does.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return false;
+        }
+        Optional<Boolean> wildcard = Optional.empty();
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = quality(parts) > 0;
+            if (name.equals(CONTENT_ENCODING_GZIP) || name.equals("x-gzip")) {
+                return accepted;
+            }
+            if (name.equals("*")) {
+                wildcard = Optional.of(accepted);
+            }
+        }
+        return wildcard.orElse(false);
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                }
+                catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Strong validator of the stored content, derived from the repository metadata only,
+     * so that revalidation does not have to read the file.
+     */
+    static String eTag(FileMetadata metadata) {
+        return "\"" + Long.toHexString(metadata.getSize()) + "-" + Long.toHexString(metadata.getLastModified()) + "\"";
+    }
+
+    /**
+     * Validator of an encoded representation, it differs from the one of the stored bytes.
+     */
+    static String eTag(FileMetadata metadata, String contentEncoding) {
+        String eTag = eTag(metadata);
+        return eTag.substring(0, eTag.length() - 1) + "-" + contentEncoding + "\"";
+    }
+
+    private boolean isRangeApplicable(String ifRange, String eTag, long lastModified) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.IF_RANGE, ifRange);
+            return headers.getFirstDate(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private MediaType contentType(FileMetadata metadata) {
+        try {
+            return MediaType.parseMediaType(metadata.getContentType());
+        }
+        catch (Exception e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+
+    private Resource inputStreamResource(Resource resource) {
+        try {
+            return new InputStreamResource(resource.getInputStream());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Hands large bodies over to the container's sendfile support, so their content goes
+     * from the page cache to the socket without passing through the application.
+     * A download under the rate limit is written the usual way, its bytes are paced by the response stream.
+     * The container opens the file after the locks of the repository have been let go, it is given a snapshot
+     * of the stored file, so a concurrent delete or overwrite does not change the bytes on their way.
+     *
+     * @param start first byte to send
+     * @param end position after the last byte to send
+     * @return the number of bytes the container is going to send, empty if the body
+     * has to be written the usual way
+     */
+    private Optional<Long> sendfile(Resource resource, long start, long end, HttpServletRequest request) {
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) ||
+                HttpMethod.HEAD.matches(request.getMethod()) ||
+                RateLimitInterceptor.isPaced(request) ||
+                !(resource instanceof Snapshottable snapshottable) ||
+                end - start < properties.getDownload().getSendfileThreshold().toBytes()) {
+            return Optional.empty();
+        }
+        Optional<File> snapshot = snapshottable.snapshot();
+        // a shorter file has been stored under the name since the headers were made
+        if (snapshot.isEmpty() || snapshot.get().length() < end) {
+            return Optional.empty();
+        }
+        try {
+            request.setAttribute(SENDFILE_FILENAME, snapshot.get().getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return Optional.of(end - start);
+        }
+        catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package lgrimm.controller;
+
+import lgrimm.datamodel.*;
+import lgrimm.service.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.*;
+import org.springframework.web.servlet.support.*;
+
+import java.util.*;
+
+import static lgrimm.controller.RequestBinder.*;
+
+/**
+ * Machine-oriented counterpart of the view-based endpoints. Every operation answers with its own compact
+ * JSON result, the stored files are only listed when they are asked for.
+ */
+@RestController
+@RequestMapping(value = "/api/files", produces = MediaType.APPLICATION_JSON_VALUE)
+public class FileApiController {
+
+    private final FileInFolderService service;
+
+    @Autowired
+    public FileApiController(FileInFolderService service) {
+        this.service = service;
+    }
+
+    @GetMapping
+    public FilePage getFiles(@RequestParam(value = "prefix", required = false) String prefix,
+                             @RequestParam(value = "glob", required = false) String glob,
+                             @RequestParam(value = "sort", required = false) String sort,
+                             @RequestParam(value = "order", required = false) String order,
+                             @RequestParam(value = "after", required = false) String after,
+                             @RequestParam(value = "limit", defaultValue = "0") int limit) {
+        return service.getFilePage(bindFileQuery(prefix, glob, sort, order, after, limit));
+    }
+
+    @GetMapping("/{filename:.+}")
+    public ResponseEntity<FileMetadata> getFileMetadata(@PathVariable("filename") String filename) {
+        return Optional.ofNullable(service.getFileMetadata(filename))
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @Bulkhead(Bulkhead.Type.UPLOAD)
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<OperationResult> uploadFile(@RequestParam("file") MultipartFile file) {
+        OperationResult result = service.saveFile(bindMultipartFileToMultipart(file));
+        HttpStatus status;
+        if (result.isSuccess()) {
+            status = HttpStatus.CREATED;
+        }
+        else if (result.getFilename() == null) {
+            status = HttpStatus.BAD_REQUEST;
+        }
+        else if (service.getFileMetadata(result.getFilename()) != null) {
+            status = HttpStatus.CONFLICT;
+        }
+        else if (service.exceedsQuota(file.getSize())) {
+            status = HttpStatus.INSUFFICIENT_STORAGE;
+        }
+        else {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return ResponseEntity
+                .status(status)
+                .body(result);
+    }
+
+    @Bulkhead(Bulkhead.Type.UPLOAD)
+    @PostMapping(value = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public List<OperationResult> uploadFiles(@RequestParam("files") MultipartFile[] files) {
+        return service.saveFiles(bindMultipartFileArrayToMultipartList(files));
+    }
+
+    @Bulkhead(Bulkhead.Type.DELETION)
+    @DeleteMapping("/{filename:.+}")
+    public ResponseEntity<OperationResult> deleteFile(@PathVariable("filename") String filename) {
+        OperationResult result = service.removeFile(filename);
+        return ResponseEntity
+                .status(result.isSuccess() ? HttpStatus.OK : HttpStatus.NOT_FOUND)
+                .body(result);
+    }
+
+    @Bulkhead(Bulkhead.Type.DELETION)
+    @DeleteMapping
+    public DeletionSummary deleteAllFiles() {
+        return service.removeAllFiles();
+    }
+
+    /**
+     * Starts a bulk deletion of the files listed in the body (a JSON array of names),
+     * or of the files matching the filters when there is no body. The job runs in the background,
+     * it can be polled and cancelled at the returned location. A request with neither is refused,
+     * all the files are deleted by DELETE /api/files only.
+     */
+    @PostMapping("/deletions")
+    public ResponseEntity<DeletionJob> startDeletion(@RequestParam(value = "prefix", required = false) String prefix,
+                                                     @RequestParam(value = "glob", required = false) String glob,
+                                                     @RequestBody(required = false) List<String> filenames) {
+        DeletionJob job = service.startDeletion(filenames, prefix, glob);
+        if (job == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity
+                .accepted()
+                .location(ServletUriComponentsBuilder
+                        .fromCurrentRequestUri()
+                        .path("/{id}")
+                        .buildAndExpand(job.getId())
+                        .toUri())
+                .body(job);
+    }
+
+    @GetMapping("/deletions/{id}")
+    public ResponseEntity<DeletionJob> getDeletion(@PathVariable("id") String id) {
+        DeletionJob job = service.getDeletion(id);
+        return job == null ?
+                ResponseEntity.notFound().build() :
+                ResponseEntity.ok(job);
+    }
+
+    @DeleteMapping("/deletions/{id}")
+    public ResponseEntity<DeletionJob> cancelDeletion(@PathVariable("id") String id) {
+        DeletionJob job = service.cancelDeletion(id);
+        return job == null ?
+                ResponseEntity.notFound().build() :
+                ResponseEntity.ok(job);
+    }
+
+    @PostMapping("/layout")
+    public MigrationSummary migrateLayout() {
+        return service.migrateLayout();
+    }
+
+    /**
+     * Needs the multipart request to be resolved lazily (spring.servlet.multipart.resolve-lazily),
+     * otherwise the limit is exceeded before the handler is chosen and the view-based handler answers.
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<OperationResult> handleMaxSizeException(MaxUploadSizeExceededException e) {
+        return ResponseEntity
+                .status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(service.rejectTooLarge());
+    }
+}
@@ -1,30 +1,33 @@
 package lgrimm.controller;
 
 import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
 import lgrimm.datamodel.*;
 import lgrimm.service.*;
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.core.io.*;
 import org.springframework.http.*;
 import org.springframework.ui.*;
-import org.springframework.util.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.*;
 import org.springframework.web.servlet.*;
-import org.springframework.web.servlet.support.*;
 
+import java.io.*;
 import java.util.*;
-import java.util.stream.*;
+
+import static lgrimm.controller.RequestBinder.*;
 
 @RestController
 @ControllerAdvice
 public class FileInFolderController {
 
     private final FileInFolderService service;
+    private final DownloadHandler downloadHandler;
 
     @Autowired
-    public FileInFolderController(FileInFolderService service) {
+    public FileInFolderController(FileInFolderService service, StorageProperties properties) {
         this.service = service;
+        this.downloadHandler = new DownloadHandler(properties);
     }
 
     @GetMapping("/files/new")
@@ -39,6 +42,7 @@ public class FileInFolderController {
         return new ModelAndView("upload_custom", "payload", service.newFile());
     }
 
+    @Bulkhead(Bulkhead.Type.UPLOAD)
     @PostMapping("/files/upload/single")
     public ModelAndView uploadFile(@RequestParam("file") MultipartFile file,
                                    HttpServletRequest request,
@@ -48,6 +52,7 @@ public class FileInFolderController {
         return new ModelAndView("file_list", "payload", payload);
     }
 
+    @Bulkhead(Bulkhead.Type.UPLOAD)
     @PostMapping("/files/upload/multiple")
     public ModelAndView uploadFiles(@RequestParam("files") MultipartFile[] files,
                                     HttpServletRequest request,
@@ -58,27 +63,56 @@ public class FileInFolderController {
     }
 
     @GetMapping({"/", "/files"})
-    public ModelAndView getListFiles(HttpServletRequest request, Model model) {
+    public ModelAndView getListFiles(@RequestParam(value = "prefix", required = false) String prefix,
+                                     @RequestParam(value = "glob", required = false) String glob,
+                                     @RequestParam(value = "sort", required = false) String sort,
+                                     @RequestParam(value = "order", required = false) String order,
+                                     @RequestParam(value = "after", required = false) String after,
+                                     @RequestParam(value = "limit", defaultValue = "0") int limit,
+                                     HttpServletRequest request,
+                                     Model model) {
         model.asMap().clear();
-        Payload payload = service.getFileList(detectBaseUrl(request));
+        FileQuery query = bindFileQuery(prefix, glob, sort, order, after, limit);
+        Payload payload = service.getFileList(query, detectBaseUrl(request));
         return new ModelAndView("file_list", "payload", payload);
     }
 
+    @Bulkhead(Bulkhead.Type.DOWNLOAD)
     @GetMapping("/files/{filename:.+}")
-    public ResponseEntity<Resource> getFile(@PathVariable("filename") String filename) {
+    public ResponseEntity<?> getFile(@PathVariable("filename") String filename,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
         Resource resource = service.getFile(filename);
-        return resource == null ?
-                ResponseEntity
-                        .badRequest()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "")
-                        .body(null) :
-                ResponseEntity
-                        .ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION,
-                                "attachment; filename=\"" + resource.getFilename() + "\"")
-                        .body(resource);
+        if (resource == null) {
+            return ResponseEntity
+                    .badRequest()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "")
+                    .body(null);
+        }
+        FileMetadata metadata = service.getFileMetadata(filename);
+        if (metadata == null) {
+            metadata = new FileMetadata(
+                    filename,
+                    resource.contentLength(),
+                    resource.lastModified(),
+                    MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        }
+        ResponseEntity<?> entity = downloadHandler.isCompressed(metadata, request) ?
+                downloadHandler.downloadCompressed(resource, service.getCompressedFile(filename), metadata, request, response) :
+                downloadHandler.download(resource, metadata, request, response);
+        if (entity.getStatusCode().is2xxSuccessful() && !HttpMethod.HEAD.matches(request.getMethod())) {
+            long length = entity.getHeaders().getContentLength();
+            if (length < 0 && entity.getStatusCode() == HttpStatus.OK) {
+                length = metadata.getSize();
+            }
+            if (length > 0) {
+                service.recordDownload(length);
+            }
+        }
+        return entity;
     }
 
+    @Bulkhead(Bulkhead.Type.DELETION)
     @PostMapping("/files/delete/{filename:.+}")
     public ModelAndView deleteFile(@PathVariable("filename") String filename,
                                    HttpServletRequest request,
@@ -88,6 +122,7 @@ public class FileInFolderController {
         return new ModelAndView("file_list", "payload", payload);
     }
 
+    @Bulkhead(Bulkhead.Type.DELETION)
     @PostMapping("/files/empty")
     public ModelAndView deleteAllFiles(HttpServletRequest request, Model model) {
         model.asMap().clear();
@@ -103,33 +138,4 @@ public class FileInFolderController {
         Payload payload = service.handleMaxSizeException(detectBaseUrl(request));
         return new ModelAndView("file_list", "payload", payload);
     }
-
-    private Multipart bindMultipartFileToMultipart(MultipartFile file) {
-        try {
-            return new Multipart(file.getName(),
-                    StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename())),
-                    Objects.requireNonNull(file.getContentType()),
-                    file.getBytes());
-        }
-        catch (Exception e) {
-            return null;
-        }
-    }
-
-    private List<Multipart> bindMultipartFileArrayToMultipartList(MultipartFile[] files) {
-        if (files == null) {
-            return null;
-        }
-        return Arrays.stream(files)
-                .map(this::bindMultipartFileToMultipart)
-                .collect(Collectors.toList());
-    }
-
-    private String detectBaseUrl(HttpServletRequest request) {
-        return ServletUriComponentsBuilder
-                .fromRequestUri(request)
-                .replacePath(null)
-                .build()
-                .toUriString();
-    }
 }
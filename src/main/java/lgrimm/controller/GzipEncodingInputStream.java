@@ -0,0 +1,75 @@
+package lgrimm.controller;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads the gzip encoding of a stream, compressing it piece by piece as the encoded bytes are read,
+ * so that a response body can be compressed on the fly without buffering it.
+ */
+class GzipEncodingInputStream extends SequenceInputStream {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final InputStream source;
+    private final Deflater deflater;
+
+    GzipEncodingInputStream(InputStream source) {
+        this(source, new Deflater(Deflater.DEFAULT_COMPRESSION, true), new CRC32());
+    }
+
+    private GzipEncodingInputStream(InputStream source, Deflater deflater, CRC32 crc) {
+        super(parts(source, deflater, crc));
+        this.source = source;
+        this.deflater = deflater;
+    }
+
+    /**
+     * The header, the compressed content and the trailer, the last one made once the content has been read.
+     */
+    private static Enumeration<InputStream> parts(InputStream source, Deflater deflater, CRC32 crc) {
+        return Collections.enumeration(List.<InputStream>of(
+                new ByteArrayInputStream(HEADER),
+                new DeflaterInputStream(new CheckedInputStream(source, crc), deflater, 8192),
+                new InputStream() {
+                    private InputStream trailer;
+
+                    @Override
+                    public int read() throws IOException {
+                        return trailer().read();
+                    }
+
+                    @Override
+                    public int read(byte[] bytes, int offset, int length) throws IOException {
+                        return trailer().read(bytes, offset, length);
+                    }
+
+                    private InputStream trailer() {
+                        if (trailer == null) {
+                            long size = deflater.getBytesRead();
+                            trailer = new ByteArrayInputStream(new byte[]{
+                                    (byte) crc.getValue(), (byte) (crc.getValue() >> 8),
+                                    (byte) (crc.getValue() >> 16), (byte) (crc.getValue() >> 24),
+                                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+                        }
+                        return trailer;
+                    }
+                }));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        }
+        finally {
+            try {
+                source.close();
+            }
+            finally {
+                deflater.end();
+            }
+        }
+    }
+}
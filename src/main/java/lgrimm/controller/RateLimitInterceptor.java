@@ -0,0 +1,381 @@
+package lgrimm.controller;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import org.springframework.http.*;
+import org.springframework.web.method.*;
+import org.springframework.web.servlet.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Admission control and bandwidth limit of the uploads and downloads ({@link Bulkhead} handlers of these types),
+ * per client (remote address) and for all of them together.
+ * <p>
+ * A client may have a limited number of transfers in progress. A request of a client whose own bandwidth bucket
+ * is in debt is held back until the debt is paid, or answered with 429 and a Retry-After header when that would take
+ * longer than the maximum delay; the debt of the global bucket does not turn anybody away.
+ * <p>
+ * As a filter it wraps the request and the response streams: the bytes of an admitted transfer are charged to its
+ * client's bucket and to the global one piece by piece as they are read or written, and the transfer sleeps off
+ * the debt after each piece. So a transfer moves at the bandwidth whether its length is known or not,
+ * and a client sending too much slows down its own transfers and its share of the global bandwidth only.
+ * A multipart body is read by the container when it is parsed, it is paced by its length at once afterwards.
+ * A paced download is not handed over to sendfile, its bytes have to go through the response stream.
+ */
+public class RateLimitInterceptor implements HandlerInterceptor, Filter {
+
+    private static final String ADMITTED = RateLimitInterceptor.class.getName() + ".client";
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+    private static final int PIECE = 8192;
+
+    private final StorageProperties.RateLimit properties;
+    private final LongSupplier nanoTime;
+    private final Pause pause;
+    private final TokenBucket global;
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastSweep;
+    private final MeterRegistry registry;
+    private final Timer delays;
+
+    public RateLimitInterceptor(StorageProperties.RateLimit properties, MeterRegistry registry) {
+        this(properties, registry, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+    }
+
+    RateLimitInterceptor(StorageProperties.RateLimit properties, MeterRegistry registry, LongSupplier nanoTime, Pause pause) {
+        this.properties = properties;
+        this.nanoTime = nanoTime;
+        this.pause = pause;
+        this.global = bucket(properties.getGlobalBandwidth().toBytes());
+        this.lastSweep = new AtomicLong(nanoTime.getAsLong());
+        this.registry = registry;
+        this.delays = Timer.builder("storage.ratelimit.delay")
+                .description("Time the transfers were held back to keep to the bandwidth")
+                .register(registry);
+        Gauge.builder("storage.ratelimit.clients", clients, Map::size)
+                .description("Clients with transfers in progress or bandwidth debt")
+                .register(registry);
+        Gauge.builder("storage.ratelimit.in.flight", inFlight, AtomicInteger::get)
+                .description("Uploads and downloads in progress")
+                .register(registry);
+        Gauge.builder("storage.ratelimit.tokens", global, TokenBucket::tokens)
+                .description("Bytes all the clients may move at once, negative while the global bandwidth is in debt")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (request instanceof HttpServletRequest httpRequest && response instanceof HttpServletResponse httpResponse) {
+            chain.doFilter(new PacedRequest(httpRequest), new PacedResponse(httpRequest, httpResponse));
+        }
+        else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!isTransfer(handler)) {
+            return true;
+        }
+        sweep();
+        String address = request.getRemoteAddr();
+        Client client = clients.compute(address, (key, existing) -> {
+            Client current = existing == null ? new Client(bucket(properties.getClientBandwidth().toBytes())) : existing;
+            current.inFlight.incrementAndGet();
+            return current;
+        });
+        if (client.inFlight.get() > properties.getClientConcurrency()) {
+            client.inFlight.decrementAndGet();
+            return reject(response, "concurrency", TimeUnit.SECONDS.toNanos(1));
+        }
+        long wait = client.bucket.waitNanos();
+        if (wait > properties.getMaxDelay().toNanos()) {
+            client.inFlight.decrementAndGet();
+            return reject(response, "bandwidth", wait);
+        }
+        if (wait > 0) {
+            try {
+                pause.nanos(wait);
+            }
+            catch (InterruptedException e) {
+                client.inFlight.decrementAndGet();
+                throw e;
+            }
+            delays.record(wait, TimeUnit.NANOSECONDS);
+        }
+        inFlight.incrementAndGet();
+        request.setAttribute(ADMITTED, client);
+        count("admitted", wait > 0 ? "delayed" : "none");
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (!(request.getAttribute(ADMITTED) instanceof Client client)) {
+            return;
+        }
+        request.removeAttribute(ADMITTED);
+        client.inFlight.decrementAndGet();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Charges the bytes moved by a transfer of the client and sleeps until the debt they made is paid back.
+     */
+    private void pace(Client client, long bytes) throws IOException {
+        client.bucket.take(bytes);
+        global.take(bytes);
+        long wait = Math.max(client.bucket.waitNanos(), global.waitNanos());
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            pause.nanos(wait);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The transfer has been interrupted while it was held back.");
+        }
+        delays.record(wait, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean reject(HttpServletResponse response, String reason, long waitNanos) throws Exception {
+        count("rejected", reason);
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        return false;
+    }
+
+    private void count(String result, String reason) {
+        Counter.builder("storage.ratelimit.requests")
+                .description("Uploads and downloads passed through the admission control")
+                .tag("result", result)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Forgets the clients with nothing in progress and no debt, at most once in the sweep interval.
+     */
+    private void sweep() {
+        long now = nanoTime.getAsLong();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        clients.forEach((address, client) -> clients.computeIfPresent(address, (key, current) ->
+                current.inFlight.get() == 0 && current.bucket.isFull() ? null : current));
+    }
+
+    private TokenBucket bucket(long bytesPerSecond) {
+        long capacity = (long) (bytesPerSecond * (properties.getBurst().toMillis() / 1000.0));
+        return new TokenBucket(bytesPerSecond, capacity, nanoTime);
+    }
+
+    private static boolean isTransfer(Object handler) {
+        if (!(handler instanceof HandlerMethod method) || !method.hasMethodAnnotation(Bulkhead.class)) {
+            return false;
+        }
+        return method.getMethodAnnotation(Bulkhead.class).value() != Bulkhead.Type.DELETION;
+    }
+
+    /**
+     * @return the client of the transfer admitted for the request, empty if the request is not an admitted transfer
+     */
+    private static Optional<Client> admitted(ServletRequest request) {
+        return request.getAttribute(ADMITTED) instanceof Client client ? Optional.of(client) : Optional.empty();
+    }
+
+    /**
+     * @return whether the bytes of the request and its response are paced, they must not bypass the streams then
+     */
+    static boolean isPaced(ServletRequest request) {
+        return admitted(request).isPresent();
+    }
+
+    /**
+     * @return number of clients tracked at the moment
+     */
+    public int clients() {
+        return clients.size();
+    }
+
+    @FunctionalInterface
+    interface Pause {
+
+        void nanos(long nanos) throws InterruptedException;
+    }
+
+    private static class Client {
+
+        private final TokenBucket bucket;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Client(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    private class PacedRequest extends HttpServletRequestWrapper {
+
+        private boolean partsPaced;
+
+        PacedRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            ServletInputStream input = super.getInputStream();
+            Optional<Client> client = admitted(this);
+            return client.isPresent() ? new PacedInputStream(input, client.get()) : input;
+        }
+
+        @Override
+        public Collection<Part> getParts() throws IOException, ServletException {
+            Collection<Part> parts = super.getParts();
+            paceParts();
+            return parts;
+        }
+
+        @Override
+        public Part getPart(String name) throws IOException, ServletException {
+            Part part = super.getPart(name);
+            paceParts();
+            return part;
+        }
+
+        private void paceParts() throws IOException {
+            Optional<Client> client = admitted(this);
+            if (!partsPaced && client.isPresent() && getContentLengthLong() > 0) {
+                partsPaced = true;
+                pace(client.get(), getContentLengthLong());
+            }
+        }
+    }
+
+    private class PacedResponse extends HttpServletResponseWrapper {
+
+        private final HttpServletRequest request;
+
+        PacedResponse(HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            ServletOutputStream output = super.getOutputStream();
+            Optional<Client> client = admitted(request);
+            return client.isPresent() ? new PacedOutputStream(output, client.get()) : output;
+        }
+    }
+
+    private class PacedInputStream extends ServletInputStream {
+
+        private final ServletInputStream input;
+        private final Client client;
+
+        PacedInputStream(ServletInputStream input, Client client) {
+            this.input = input;
+            this.client = client;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = input.read();
+            if (read >= 0) {
+                pace(client, 1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int read = input.read(bytes, offset, Math.min(length, PIECE));
+            if (read > 0) {
+                pace(client, read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return input.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return input.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            input.setReadListener(listener);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    private class PacedOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream output;
+        private final Client client;
+
+        PacedOutputStream(ServletOutputStream output, Client client) {
+            this.output = output;
+            this.client = client;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+            pace(client, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            for (int written = 0; written < length; ) {
+                int piece = Math.min(length - written, PIECE);
+                output.write(bytes, offset + written, piece);
+                pace(client, piece);
+                written += piece;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return output.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            output.setWriteListener(listener);
+        }
+    }
+}
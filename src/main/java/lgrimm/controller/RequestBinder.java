@@ -0,0 +1,70 @@
+package lgrimm.controller;
+
+import jakarta.servlet.http.*;
+import lgrimm.datamodel.*;
+import org.springframework.util.*;
+import org.springframework.web.multipart.*;
+import org.springframework.web.servlet.support.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Conversions of the request parameters shared by the view-based and the JSON endpoints.
+ */
+final class RequestBinder {
+
+    private RequestBinder() {
+    }
+
+    static FileQuery bindFileQuery(String prefix, String glob, String sort, String order, String after, int limit) {
+        return new FileQuery(
+                blankToNull(prefix),
+                blankToNull(glob),
+                bindSortKey(sort),
+                "desc".equalsIgnoreCase(order),
+                blankToNull(after),
+                limit);
+    }
+
+    static Multipart bindMultipartFileToMultipart(MultipartFile file) {
+        try {
+            return new Multipart(file.getName(),
+                    StringUtils.cleanPath(Objects.requireNonNull(file.getOriginalFilename())),
+                    Objects.requireNonNull(file.getContentType()),
+                    file.getSize(),
+                    file);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    static List<Multipart> bindMultipartFileArrayToMultipartList(MultipartFile[] files) {
+        if (files == null) {
+            return null;
+        }
+        return Arrays.stream(files)
+                .map(RequestBinder::bindMultipartFileToMultipart)
+                .collect(Collectors.toList());
+    }
+
+    static SortKey bindSortKey(String sort) {
+        return Arrays.stream(SortKey.values())
+                .filter(sortKey -> sortKey.name().equalsIgnoreCase(sort))
+                .findFirst()
+                .orElse(SortKey.NAME);
+    }
+
+    static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    static String detectBaseUrl(HttpServletRequest request) {
+        return ServletUriComponentsBuilder
+                .fromRequestUri(request)
+                .replacePath(null)
+                .build()
+                .toUriString();
+    }
+}
@@ -0,0 +1,64 @@
+package lgrimm.controller;
+
+import java.util.function.*;
+
+/**
+ * Bandwidth limit of a client or of all of them. The tokens are bytes, they flow in at the rate
+ * up to the capacity. A transfer takes its bytes even when there are not enough tokens, the bucket goes into debt then,
+ * so a piece can be charged once it has been moved, and the transfer waits until the debt is paid back.
+ */
+class TokenBucket {
+
+    private final double bytesPerNano;
+    private final double capacity;
+    private final LongSupplier nanoTime;
+    private double tokens;
+    private long updated;
+
+    /**
+     * @param bytesPerSecond rate of the tokens
+     * @param capacity most tokens saved up by an idle bucket
+     */
+    TokenBucket(long bytesPerSecond, long capacity, LongSupplier nanoTime) {
+        this.bytesPerNano = Math.max(1, bytesPerSecond) / 1e9;
+        this.capacity = Math.max(1, capacity);
+        this.nanoTime = nanoTime;
+        this.tokens = this.capacity;
+        this.updated = nanoTime.getAsLong();
+    }
+
+    /**
+     * @return nanoseconds until the debt is paid back, 0 if there is none
+     */
+    synchronized long waitNanos() {
+        refill();
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / bytesPerNano);
+    }
+
+    synchronized void take(long bytes) {
+        refill();
+        tokens -= bytes;
+    }
+
+    /**
+     * @return tokens at the moment, negative while in debt
+     */
+    synchronized double tokens() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * @return whether the bucket is back at its capacity, a full bucket can be forgotten
+     */
+    synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = nanoTime.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - updated) * bytesPerNano);
+        updated = now;
+    }
+}
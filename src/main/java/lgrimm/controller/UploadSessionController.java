@@ -0,0 +1,123 @@
+package lgrimm.controller;
+
+import jakarta.servlet.http.*;
+import lgrimm.datamodel.*;
+import lgrimm.service.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.http.*;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.*;
+
+import java.io.*;
+
+/**
+ * Resumable upload of large files in chunks: a session is created with the name and the size of the file,
+ * the chunks are put at their offsets (in any order, over several connections at the same time),
+ * the progress can be checked at any time and the session is completed when everything has arrived.
+ */
+@RestController
+@RequestMapping(value = "/api/uploads", produces = MediaType.APPLICATION_JSON_VALUE)
+public class UploadSessionController {
+
+    private final FileInFolderService service;
+
+    @Autowired
+    public UploadSessionController(FileInFolderService service) {
+        this.service = service;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSession> createSession(@RequestParam("filename") String filename,
+                                                       @RequestParam("size") long size,
+                                                       @RequestParam(value = "contentType", required = false) String contentType) {
+        UploadSession session = service.createUploadSession(filename, size, contentType);
+        if (session == null) {
+            return ResponseEntity
+                    .status(HttpStatus.CONFLICT)
+                    .build();
+        }
+        return ResponseEntity
+                .created(ServletUriComponentsBuilder
+                        .fromCurrentRequestUri()
+                        .path("/{id}")
+                        .buildAndExpand(session.getId())
+                        .toUri())
+                .body(session);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadSession> getSession(@PathVariable("id") String id) {
+        UploadSession session = service.getUploadSession(id);
+        return session == null ?
+                ResponseEntity.notFound().build() :
+                ResponseEntity.ok(session);
+    }
+
+    /**
+     * Writes the request body at the given offset. A chunk cut off by a dropped connection
+     * keeps what has arrived, the missing ranges of the session tell what to send again.
+     */
+    @Bulkhead(Bulkhead.Type.UPLOAD)
+    @PutMapping(value = "/{id}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadSession> putChunk(@PathVariable("id") String id,
+                                                  @RequestParam("offset") long offset,
+                                                  HttpServletRequest request) throws IOException {
+        UploadSession session = service.getUploadSession(id);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            return ResponseEntity
+                    .status(HttpStatus.LENGTH_REQUIRED)
+                    .body(session);
+        }
+        if (offset < 0 || offset + length > session.getSize()) {
+            return ResponseEntity
+                    .status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .body(session);
+        }
+        UploadSession written = service.writeChunk(id, offset, length, request.getInputStream());
+        if (written == null) {
+            return ResponseEntity
+                    .badRequest()
+                    .body(service.getUploadSession(id));
+        }
+        return ResponseEntity.ok(written);
+    }
+
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<OperationResult> completeSession(@PathVariable("id") String id) {
+        OperationResult result = service.completeUploadSession(id);
+        HttpStatus status;
+        if (result.isSuccess()) {
+            status = HttpStatus.CREATED;
+        }
+        else if (result.getFilename() == null) {
+            status = HttpStatus.NOT_FOUND;
+        }
+        else {
+            // a session which could not be completed is kept with its content, completing it may be retried
+            UploadSession session = service.getUploadSession(id);
+            if (session == null || !session.isComplete() || service.getFileMetadata(result.getFilename()) != null) {
+                status = HttpStatus.CONFLICT;
+            }
+            else if (service.exceedsQuota(session.getSize())) {
+                status = HttpStatus.INSUFFICIENT_STORAGE;
+            }
+            else {
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+            }
+        }
+        return ResponseEntity
+                .status(status)
+                .body(result);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> cancelSession(@PathVariable("id") String id) {
+        return service.cancelUploadSession(id) ?
+                ResponseEntity.noContent().build() :
+                ResponseEntity.notFound().build();
+    }
+}
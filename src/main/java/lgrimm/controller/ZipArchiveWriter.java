@@ -0,0 +1,142 @@
+package lgrimm.controller;
+
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import lgrimm.service.*;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Writes a ZIP archive of stored files straight into a response, entry by entry through one bounded buffer,
+ * without an archive on the disk or in memory. The files of the already compressed types are not compressed again:
+ * the ones fitting into the buffer are read once and stored as they are, the larger ones go through
+ * the deflater without compression (STORED needs the checksum before the content, that would take a second read).
+ * The files gone by the time their turn comes, and the repeated names, are left out.
+ */
+class ZipArchiveWriter {
+
+    private final int bufferSize;
+    private final List<MediaType> storedTypes;
+
+    ZipArchiveWriter(StorageProperties.Archive properties) {
+        this.bufferSize = (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 1, properties.getBufferSize().toBytes()));
+        this.storedTypes = properties.getStoredTypes().stream()
+                .map(ZipArchiveWriter::parseMediaType)
+                .flatMap(Optional::stream)
+                .toList();
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    long write(List<String> filenames, FileInFolderService service, OutputStream out) throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        byte[] buffer = new byte[bufferSize + 1];
+        try (ZipOutputStream zip = new ZipOutputStream(counted)) {
+            for (String filename : new LinkedHashSet<>(filenames)) {
+                FileMetadata metadata = service.getFileMetadata(filename);
+                Resource resource = metadata == null ? null : service.getFile(filename);
+                if (resource == null) {
+                    continue;
+                }
+                InputStream in;
+                try {
+                    in = resource.getInputStream();
+                }
+                catch (FileNotFoundException | NoSuchFileException e) {
+                    continue;
+                }
+                try (in) {
+                    ZipEntry entry = new ZipEntry(filename);
+                    entry.setTime(metadata.getLastModified());
+                    if (isStored(metadata.getContentType())) {
+                        writeUncompressed(zip, entry, in, buffer);
+                    }
+                    else {
+                        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+                        zip.putNextEntry(entry);
+                        copy(in, zip, buffer);
+                    }
+                    zip.closeEntry();
+                }
+            }
+        }
+        return counted.count;
+    }
+
+    private void writeUncompressed(ZipOutputStream zip, ZipEntry entry, InputStream in, byte[] buffer) throws IOException {
+        int read = in.readNBytes(buffer, 0, buffer.length);
+        if (read <= bufferSize) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer, 0, read);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(read);
+            entry.setCompressedSize(read);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(buffer, 0, read);
+        }
+        else {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            zip.putNextEntry(entry);
+            zip.write(buffer, 0, read);
+            copy(in, zip, buffer);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private boolean isStored(String contentType) {
+        Optional<MediaType> type = parseMediaType(contentType);
+        return type.isPresent() && storedTypes.stream()
+                .anyMatch(stored -> stored.includes(type.get()));
+    }
+
+    private static Optional<MediaType> parseMediaType(String type) {
+        try {
+            return Optional.of(MediaType.parseMediaType(type));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Counts the bytes going out. Closing the archive only flushes it, the response stays open.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class DeletionJob {
+
+    private final String id;
+    private final JobState state;
+    private final long total;
+    private final long deleted;
+    private final long failed;
+
+    /**
+     * @param id identifier of the job, used to poll or cancel it
+     * @param state state of the job
+     * @param total number of files there are to delete
+     * @param deleted number of files deleted so far
+     * @param failed number of files not deleted so far (not found any more, or still in use)
+     */
+    public DeletionJob(String id, JobState state, long total, long deleted, long failed) {
+        this.id = id;
+        this.state = state;
+        this.total = total;
+        this.deleted = deleted;
+        this.failed = failed;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public boolean isDone() {
+        return state != JobState.RUNNING;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeletionJob that = (DeletionJob) o;
+        return total == that.total &&
+                deleted == that.deleted &&
+                failed == that.failed &&
+                Objects.equals(id, that.id) &&
+                state == that.state;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, state, total, deleted, failed);
+    }
+
+    @Override
+    public String toString() {
+        return "DeletionJob{" +
+                "id='" + id + '\'' +
+                ", state=" + state +
+                ", total=" + total +
+                ", deleted=" + deleted +
+                ", failed=" + failed +
+                '}';
+    }
+}
@@ -0,0 +1,48 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class DeletionSummary {
+
+    private final long deleted;
+    private final long total;
+
+    /**
+     * @param deleted number of deleted files
+     * @param total number of files there were to delete
+     */
+    public DeletionSummary(long deleted, long total) {
+        this.deleted = deleted;
+        this.total = total;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeletionSummary that = (DeletionSummary) o;
+        return deleted == that.deleted &&
+                total == that.total;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deleted, total);
+    }
+
+    @Override
+    public String toString() {
+        return "DeletionSummary{" +
+                "deleted=" + deleted +
+                ", total=" + total +
+                '}';
+    }
+}
@@ -6,12 +6,21 @@ public class FileInfo {
 
     private String name;
     private String url;
+    private Long size;
+    private Long lastModified;
 
     public FileInfo(String name, String url) {
         this.name = name;
         this.url = url;
     }
 
+    public FileInfo(String name, String url, Long size, Long lastModified) {
+        this.name = name;
+        this.url = url;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
     public String getName() {
         return name;
     }
@@ -28,17 +37,36 @@ public class FileInfo {
         this.url = url;
     }
 
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Long lastModified) {
+        this.lastModified = lastModified;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FileInfo fileInfo = (FileInfo) o;
-        return Objects.equals(name, fileInfo.name) && Objects.equals(url, fileInfo.url);
+        return Objects.equals(name, fileInfo.name) &&
+                Objects.equals(url, fileInfo.url) &&
+                Objects.equals(size, fileInfo.size) &&
+                Objects.equals(lastModified, fileInfo.lastModified);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, url);
+        return Objects.hash(name, url, size, lastModified);
     }
 
     @Override
@@ -46,6 +74,8 @@ public class FileInfo {
         return "FileInfo{" +
                 "name='" + name + '\'' +
                 ", url='" + url + '\'' +
+                ", size=" + size +
+                ", lastModified=" + lastModified +
                 '}';
     }
 }
@@ -0,0 +1,89 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class FileMetadata {
+
+    private final String name;
+    private final long size;
+    private final long created;
+    private final long lastModified;
+    private final String contentType;
+    private final String checksum;
+
+    public FileMetadata(String name, long size, long lastModified, String contentType) {
+        this(name, size, lastModified, lastModified, contentType, null);
+    }
+
+    public FileMetadata(String name, long size, long created, long lastModified, String contentType, String checksum) {
+        this.name = name;
+        this.size = size;
+        this.created = created;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.checksum = checksum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return creation time in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return last modification time in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return hex SHA-256 hash of the content, null if it has not been computed
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileMetadata that = (FileMetadata) o;
+        return size == that.size &&
+                created == that.created &&
+                lastModified == that.lastModified &&
+                Objects.equals(name, that.name) &&
+                Objects.equals(contentType, that.contentType) &&
+                Objects.equals(checksum, that.checksum);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, size, created, lastModified, contentType, checksum);
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetadata{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                ", created=" + created +
+                ", lastModified=" + lastModified +
+                ", contentType='" + contentType + '\'' +
+                ", checksum='" + checksum + '\'' +
+                '}';
+    }
+}
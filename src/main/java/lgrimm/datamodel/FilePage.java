@@ -0,0 +1,57 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class FilePage {
+
+    private final List<FileMetadata> files;
+    private final String nextCursor;
+    private final long totalCount;
+
+    /**
+     * @param files files on the page
+     * @param nextCursor cursor of the next page, null on the last page
+     * @param totalCount number of all files in the storage
+     */
+    public FilePage(List<FileMetadata> files, String nextCursor, long totalCount) {
+        this.files = files;
+        this.nextCursor = nextCursor;
+        this.totalCount = totalCount;
+    }
+
+    public List<FileMetadata> getFiles() {
+        return files;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FilePage filePage = (FilePage) o;
+        return totalCount == filePage.totalCount &&
+                Objects.equals(files, filePage.files) &&
+                Objects.equals(nextCursor, filePage.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(files, nextCursor, totalCount);
+    }
+
+    @Override
+    public String toString() {
+        return "FilePage{" +
+                "files=" + files +
+                ", nextCursor='" + nextCursor + '\'' +
+                ", totalCount=" + totalCount +
+                '}';
+    }
+}
@@ -0,0 +1,88 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class FileQuery {
+
+    private final String prefix;
+    private final String glob;
+    private final SortKey sort;
+    private final boolean descending;
+    private final String after;
+    private final int limit;
+
+    /**
+     * @param prefix only names starting with it are listed, null for no restriction
+     * @param glob only names matching this glob pattern are listed, null for no restriction
+     * @param sort sort key, null means by name
+     * @param descending sort direction
+     * @param after cursor returned as the next cursor of the previous page, null for the first page
+     * @param limit maximum number of files on the page
+     */
+    public FileQuery(String prefix, String glob, SortKey sort, boolean descending, String after, int limit) {
+        this.prefix = prefix;
+        this.glob = glob;
+        this.sort = sort == null ? SortKey.NAME : sort;
+        this.descending = descending;
+        this.after = after;
+        this.limit = limit;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    public SortKey getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public FileQuery withLimit(int limit) {
+        return new FileQuery(prefix, glob, sort, descending, after, limit);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileQuery fileQuery = (FileQuery) o;
+        return descending == fileQuery.descending &&
+                limit == fileQuery.limit &&
+                Objects.equals(prefix, fileQuery.prefix) &&
+                Objects.equals(glob, fileQuery.glob) &&
+                sort == fileQuery.sort &&
+                Objects.equals(after, fileQuery.after);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(prefix, glob, sort, descending, after, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "FileQuery{" +
+                "prefix='" + prefix + '\'' +
+                ", glob='" + glob + '\'' +
+                ", sort=" + sort +
+                ", descending=" + descending +
+                ", after='" + after + '\'' +
+                ", limit=" + limit +
+                '}';
+    }
+}
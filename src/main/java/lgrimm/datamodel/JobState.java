@@ -0,0 +1,7 @@
+package lgrimm.datamodel;
+
+public enum JobState {
+    RUNNING,
+    COMPLETED,
+    CANCELLED
+}
@@ -0,0 +1,48 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class MigrationSummary {
+
+    private final long moved;
+    private final long remaining;
+
+    /**
+     * @param moved number of files moved into the current layout
+     * @param remaining number of files still out of place (conflicting or failed ones)
+     */
+    public MigrationSummary(long moved, long remaining) {
+        this.moved = moved;
+        this.remaining = remaining;
+    }
+
+    public long getMoved() {
+        return moved;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MigrationSummary that = (MigrationSummary) o;
+        return moved == that.moved &&
+                remaining == that.remaining;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(moved, remaining);
+    }
+
+    @Override
+    public String toString() {
+        return "MigrationSummary{" +
+                "moved=" + moved +
+                ", remaining=" + remaining +
+                '}';
+    }
+}
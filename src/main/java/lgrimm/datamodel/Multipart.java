@@ -1,7 +1,9 @@
 package lgrimm.datamodel;
 
+import org.springframework.core.io.*;
 import org.springframework.lang.*;
 
+import java.io.*;
 import java.util.*;
 
 public class Multipart {
@@ -9,15 +11,29 @@ public class Multipart {
     private final String name;
     private final String originalFilename;
     private final String contentType;
-    private final byte[] content;
+    private final long size;
+    private final InputStreamSource content;
 
     public Multipart(@NonNull String name,
                      @NonNull String originalFilename,
                      @NonNull String contentType,
                      @NonNull byte[] content) {
+        this(name, originalFilename, contentType, content.length, new ByteArrayResource(content));
+    }
+
+    /**
+     * Creates a streaming multipart: the content is opened only when it is being stored,
+     * so the whole file never has to be held in memory.
+     */
+    public Multipart(@NonNull String name,
+                     @NonNull String originalFilename,
+                     @NonNull String contentType,
+                     long size,
+                     @NonNull InputStreamSource content) {
         this.name = name;
         this.originalFilename = originalFilename;
         this.contentType = contentType;
+        this.size = size;
         this.content = content;
     }
 
@@ -33,8 +49,12 @@ public class Multipart {
         return contentType;
     }
 
-    public byte[] getContent() {
-        return content;
+    public long getSize() {
+        return size;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return content.getInputStream();
     }
 
     @Override
@@ -42,17 +62,16 @@ public class Multipart {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Multipart multipart = (Multipart) o;
-        return Objects.equals(name, multipart.name) &&
+        return size == multipart.size &&
+                Objects.equals(name, multipart.name) &&
                 Objects.equals(originalFilename, multipart.originalFilename) &&
                 Objects.equals(contentType, multipart.contentType) &&
-                Arrays.equals(content, multipart.content);
+                Objects.equals(content, multipart.content);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(name, originalFilename, contentType);
-        result = 31 * result + Arrays.hashCode(content);
-        return result;
+        return Objects.hash(name, originalFilename, contentType, size, content);
     }
 
     @Override
@@ -61,7 +80,7 @@ public class Multipart {
                 "name='" + name + '\'' +
                 ", originalFilename='" + originalFilename + '\'' +
                 ", contentType='" + contentType + '\'' +
-                ", content=" + Arrays.toString(content) +
+                ", size=" + size +
                 '}';
     }
 }
@@ -0,0 +1,57 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class OperationResult {
+
+    private final String filename;
+    private final boolean success;
+    private final String message;
+
+    /**
+     * @param filename name of the file the operation was done on, null if no file was given
+     * @param success whether the operation has been done
+     * @param message human-readable description of the outcome
+     */
+    public OperationResult(String filename, boolean success, String message) {
+        this.filename = filename;
+        this.success = success;
+        this.message = message;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OperationResult that = (OperationResult) o;
+        return success == that.success &&
+                Objects.equals(filename, that.filename) &&
+                Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(filename, success, message);
+    }
+
+    @Override
+    public String toString() {
+        return "OperationResult{" +
+                "filename='" + filename + '\'' +
+                ", success=" + success +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
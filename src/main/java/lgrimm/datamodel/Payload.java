@@ -6,6 +6,9 @@ public class Payload {
     private String message;
     private List<String> messages;
     private List<FileInfo> fileInfos;
+    private FileQuery query;
+    private String nextCursor;
+    private Long fileCount;
 
     public Payload() {
     }
@@ -16,6 +19,15 @@ public class Payload {
         this.fileInfos = fileInfos;
     }
 
+    public Payload(String message, List<String> messages, FilePage page, FileQuery query, List<FileInfo> fileInfos) {
+        this.message = message;
+        this.messages = messages;
+        this.fileInfos = fileInfos;
+        this.query = query;
+        this.nextCursor = page.getNextCursor();
+        this.fileCount = page.getTotalCount();
+    }
+
     public String getMessage() {
         return message;
     }
@@ -40,6 +52,30 @@ public class Payload {
         this.fileInfos = fileInfos;
     }
 
+    public FileQuery getQuery() {
+        return query;
+    }
+
+    public void setQuery(FileQuery query) {
+        this.query = query;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public Long getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(Long fileCount) {
+        this.fileCount = fileCount;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -47,12 +83,15 @@ public class Payload {
         Payload payload = (Payload) o;
         return Objects.equals(message, payload.message) &&
                 Objects.equals(messages, payload.messages) &&
-                Objects.equals(fileInfos, payload.fileInfos);
+                Objects.equals(fileInfos, payload.fileInfos) &&
+                Objects.equals(query, payload.query) &&
+                Objects.equals(nextCursor, payload.nextCursor) &&
+                Objects.equals(fileCount, payload.fileCount);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(message, messages, fileInfos);
+        return Objects.hash(message, messages, fileInfos, query, nextCursor, fileCount);
     }
 
     @Override
@@ -61,6 +100,9 @@ public class Payload {
                 "message='" + message + '\'' +
                 ", messages=" + messages +
                 ", fileInfos=" + fileInfos +
+                ", query=" + query +
+                ", nextCursor='" + nextCursor + '\'' +
+                ", fileCount=" + fileCount +
                 '}';
     }
 }
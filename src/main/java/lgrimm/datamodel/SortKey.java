@@ -0,0 +1,7 @@
+package lgrimm.datamodel;
+
+public enum SortKey {
+    NAME,
+    SIZE,
+    MODIFIED
+}
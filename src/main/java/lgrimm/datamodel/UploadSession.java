@@ -0,0 +1,88 @@
+package lgrimm.datamodel;
+
+import java.util.*;
+
+public class UploadSession {
+
+    private final String id;
+    private final String filename;
+    private final long size;
+    private final String contentType;
+    private final long received;
+    private final List<String> missing;
+
+    /**
+     * @param id identifier of the session, used in the chunk requests
+     * @param filename name the file is stored under when the session is completed
+     * @param size size of the whole file in bytes
+     * @param contentType content type of the file
+     * @param received number of bytes received so far
+     * @param missing byte ranges not received yet, as inclusive "first-last" pairs in ascending order
+     */
+    public UploadSession(String id, String filename, long size, String contentType, long received, List<String> missing) {
+        this.id = id;
+        this.filename = filename;
+        this.size = size;
+        this.contentType = contentType;
+        this.received = received;
+        this.missing = missing;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public List<String> getMissing() {
+        return missing;
+    }
+
+    public boolean isComplete() {
+        return received == size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadSession that = (UploadSession) o;
+        return size == that.size &&
+                received == that.received &&
+                Objects.equals(id, that.id) &&
+                Objects.equals(filename, that.filename) &&
+                Objects.equals(contentType, that.contentType) &&
+                Objects.equals(missing, that.missing);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, filename, size, contentType, received, missing);
+    }
+
+    @Override
+    public String toString() {
+        return "UploadSession{" +
+                "id='" + id + '\'' +
+                ", filename='" + filename + '\'' +
+                ", size=" + size +
+                ", contentType='" + contentType + '\'' +
+                ", received=" + received +
+                ", missing=" + missing +
+                '}';
+    }
+}
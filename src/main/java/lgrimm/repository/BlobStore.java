@@ -0,0 +1,205 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.stream.*;
+
+/**
+ * Content-addressed store of file contents.
+ * Every distinct content is kept once, under its SHA-256 hash, and the stored file names
+ * are hard links to these blobs. The link count of a blob is its reference count:
+ * deleting a file name releases a reference, and a blob only linked from the store itself
+ * is an orphan, removed by the collector.
+ */
+public class BlobStore {
+
+    private final Path blobDirectory;
+    private final Path tempDirectory;
+    private final ReadWriteLock collectorLock = new ReentrantReadWriteLock();
+    private final Durability durability;
+
+    public BlobStore(Path storageDirectory) {
+        this(storageDirectory, Durability.none());
+    }
+
+    public BlobStore(Path storageDirectory, Durability durability) {
+        this.blobDirectory = storageDirectory.resolve("blobs");
+        this.tempDirectory = storageDirectory.resolve("tmp");
+        this.durability = durability;
+    }
+
+    public static boolean isSupported(Path root) {
+        return root.getFileSystem().supportedFileAttributeViews().contains("unix");
+    }
+
+    public void init() throws IOException {
+        Files.createDirectories(blobDirectory);
+        Files.createDirectories(tempDirectory);
+    }
+
+    /**
+     * Stores the content (hashing it while it is being written) and links it to the target path.
+     *
+     * @return hex SHA-256 hash of the content
+     * @throws FileAlreadyExistsException if the target path already exists
+     */
+    public String store(InputStream content, Path target) throws IOException {
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        try (Staged staged = stage(content)) {
+            return link(staged, target);
+        }
+    }
+
+    /**
+     * Writes the content into a temp file of the store, hashing it meanwhile.
+     * The slow part of storing, done before the target name is touched.
+     */
+    public Staged stage(InputStream content) throws IOException {
+        Path temp = Files.createTempFile(tempDirectory, "blob", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                new DigestInputStream(content, digest).transferTo(out);
+            }
+            return new Staged(temp, HexFormat.of().formatHex(digest.digest()));
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Moves a staged content into its blob (unless the same content is stored already) and links it to the target path.
+     *
+     * @return hex SHA-256 hash of the content
+     * @throws FileAlreadyExistsException if the target path already exists
+     */
+    public String link(Staged staged, Path target) throws IOException {
+        Path blob = blobPath(staged.hash);
+        collectorLock.readLock().lock();
+        try {
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                makeReadOnly(staged.temp);
+                durability.sync(staged.temp);
+                try {
+                    Files.move(staged.temp, blob);
+                    durability.sync(blob.getParent());
+                }
+                catch (FileAlreadyExistsException ignored) {
+                    // stored by a concurrent upload of the same content in the meantime
+                }
+            }
+            Files.createLink(target, blob);
+            durability.sync(target.toAbsolutePath().getParent());
+        }
+        finally {
+            collectorLock.readLock().unlock();
+        }
+        return staged.hash;
+    }
+
+    /**
+     * Removes the blobs no file name refers to any more.
+     *
+     * @return number of removed blobs
+     */
+    public long collectGarbage() {
+        collectorLock.writeLock().lock();
+        try (Stream<Path> walk = Files.walk(blobDirectory, 2)) {
+            return walk
+                    .filter(Files::isRegularFile)
+                    .filter(this::isOrphan)
+                    .filter(this::deleteQuietly)
+                    .count();
+        }
+        catch (Exception e) {
+            return 0;
+        }
+        finally {
+            collectorLock.writeLock().unlock();
+        }
+    }
+
+    public long countBlobs() {
+        try (Stream<Path> walk = Files.walk(blobDirectory, 2)) {
+            return walk
+                    .filter(Files::isRegularFile)
+                    .count();
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return blobDirectory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private boolean isOrphan(Path blob) {
+        try {
+            return ((Number) Files.getAttribute(blob, "unix:nlink")).intValue() <= 1;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Blobs are shared by all the names linked to them, an in-place write through one name
+     * would change the content of the others too.
+     */
+    private void makeReadOnly(Path path) throws IOException {
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("r--r--r--"));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A content written into the store but not linked yet, closing it removes what has not been moved into a blob.
+     */
+    public static class Staged implements Closeable {
+
+        private final Path temp;
+        private final String hash;
+
+        private Staged(Path temp, String hash) {
+            this.temp = temp;
+            this.hash = hash;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Gzip-compressed copies of the stored files, kept in the repository's own folder, so that downloads
+ * accepting gzip do not compress the same content again and again. A variant carries the modification time
+ * of its original, a variant whose time differs belongs to an earlier content and is not served.
+ */
+public class CompressedVariants {
+
+    public static final String ENCODING = "gzip";
+    private static final String SUFFIX = ".gz";
+
+    private final Path directory;
+
+    public CompressedVariants(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the up-to-date variant of the file, empty if there is none (yet)
+     */
+    public Optional<Path> find(String filename, Path original) {
+        try {
+            Path variant = variantPath(filename);
+            FileTime variantTime = Files.getLastModifiedTime(variant);
+            return variantTime.equals(Files.getLastModifiedTime(original)) ?
+                    Optional.of(variant) :
+                    Optional.empty();
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compresses the file into a temp file of the variant folder. The variant is not visible until it is published.
+     *
+     * @return the compressed temp file
+     */
+    public Path compress(Path original) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "variant", ".tmp");
+        try (InputStream in = Files.newInputStream(original);
+             OutputStream out = new BestGzipOutputStream(Files.newOutputStream(temp))) {
+            in.transferTo(out);
+            return temp;
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a compressed temp file the variant of a file with the given modification time.
+     */
+    public void publish(String filename, Path compressed, FileTime originalTime) throws IOException {
+        try {
+            Files.setLastModifiedTime(compressed, originalTime);
+            Files.move(compressed, variantPath(filename), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(compressed);
+        }
+    }
+
+    public void invalidate(String filename) {
+        try {
+            Files.deleteIfExists(variantPath(filename));
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+    private Path variantPath(String filename) {
+        return directory.resolve(filename + SUFFIX);
+    }
+
+    /**
+     * Variants are compressed once and sent many times, they are worth the slowest level.
+     */
+    private static class BestGzipOutputStream extends GZIPOutputStream {
+
+        private BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 8192);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Contents of the frequently downloaded small files, kept in direct buffers outside the heap.
+ * The cache holds at most the given number of bytes, the least recently used contents are evicted
+ * to make room for a new one. The entries are invalidated when their files are saved, deleted or changed.
+ */
+public class ContentCache {
+
+    private final long capacity;
+    private final long maxEntrySize;
+    private final LinkedHashMap<String, Content> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long size;
+
+    /**
+     * @param capacity number of bytes the cache may hold, zero disables the cache
+     * @param maxEntrySize size of the largest file kept in the cache
+     */
+    public ContentCache(long capacity, long maxEntrySize) {
+        this.capacity = Math.max(0, capacity);
+        this.maxEntrySize = Math.min(this.capacity, Math.min(Integer.MAX_VALUE, maxEntrySize));
+    }
+
+    public static ContentCache disabled() {
+        return new ContentCache(0, 0);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    public boolean isCacheable(long contentSize) {
+        return isEnabled() && contentSize <= maxEntrySize;
+    }
+
+    /**
+     * Looks up a content, counting it as a hit or a miss.
+     */
+    public synchronized Optional<Content> get(String filename) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        Content content = entries.get(filename);
+        (content == null ? misses : hits).incrementAndGet();
+        return Optional.ofNullable(content);
+    }
+
+    /**
+     * Keeps the content of a file, evicting the least recently used contents if it does not fit otherwise.
+     *
+     * @param buffer the content between its position and limit
+     * @return the kept content, or a content wrapping the buffer if it is too large for the cache
+     */
+    public synchronized Content put(String filename, ByteBuffer buffer, long lastModified) {
+        Content content = new Content(buffer.asReadOnlyBuffer(), lastModified);
+        if (!isCacheable(content.size())) {
+            return content;
+        }
+        remove(filename);
+        Iterator<Content> eldest = entries.values().iterator();
+        while (size + content.size() > capacity && eldest.hasNext()) {
+            size -= eldest.next().size();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        entries.put(filename, content);
+        size += content.size();
+        return content;
+    }
+
+    public synchronized void invalidate(String filename) {
+        remove(filename);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void remove(String filename) {
+        Content removed = entries.remove(filename);
+        if (removed != null) {
+            size -= removed.size();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of bytes held
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /**
+     * A cached content. It is never changed, an invalidated content stays readable for the downloads still sending it.
+     */
+    public static class Content {
+
+        private final ByteBuffer buffer;
+        private final long lastModified;
+
+        private Content(ByteBuffer buffer, long lastModified) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+        }
+
+        public long size() {
+            return buffer.remaining();
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public InputStream newInputStream() {
+            ByteBuffer view = buffer.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    Objects.checkFromIndexSize(offset, length, bytes.length);
+                    if (length == 0) {
+                        return 0;
+                    }
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int read = Math.min(length, view.remaining());
+                    view.get(bytes, offset, read);
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) {
+                    int skipped = (int) Math.max(0, Math.min(n, view.remaining()));
+                    view.position(view.position() + skipped);
+                    return skipped;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        }
+    }
+}
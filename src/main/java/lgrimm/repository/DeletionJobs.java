@@ -0,0 +1,189 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Deletes lists of files in the background. The workers of a job take the next name of the list one by one,
+ * a job runs on at most as many threads as the shared pool has, and the jobs running at the same time share them.
+ * The progress of a job can be polled while it runs, a cancelled job stops before its next name.
+ * A finished job is kept until it expires, so its result can be read afterwards.
+ */
+public class DeletionJobs {
+
+    private final ExecutorService workers;
+    private final int parallelism;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public DeletionJobs(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "storage-deleter-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts deleting the files of the list.
+     *
+     * @param delete deletes a file, tells whether it has been deleted
+     */
+    public DeletionJob start(List<String> names, Predicate<String> delete) {
+        return submit(names, delete).view();
+    }
+
+    /**
+     * Deletes the files of the list and waits for the end.
+     */
+    public DeletionJob run(List<String> names, Predicate<String> delete) throws InterruptedException {
+        Job job = submit(names, delete);
+        job.finished.await();
+        return job.view();
+    }
+
+    private Job submit(List<String> names, Predicate<String> delete) {
+        Job job = new Job(UUID.randomUUID().toString(), List.copyOf(names), delete);
+        jobs.put(job.id, job);
+        int count = Math.min(parallelism, job.names.size());
+        job.active.set(count);
+        if (count == 0) {
+            job.finish();
+        }
+        for (int i = 0; i < count; i++) {
+            try {
+                workers.execute(job::work);
+            }
+            catch (RejectedExecutionException e) {
+                job.cancelled = true;
+                job.leave();
+            }
+        }
+        return job;
+    }
+
+    public Optional<DeletionJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id))
+                .map(Job::view);
+    }
+
+    /**
+     * Waits for the end of a job.
+     *
+     * @return the job at its end, or as it is at the timeout if it is still running; empty if there is no such job
+     */
+    public Optional<DeletionJob> await(String id, Duration timeout) throws InterruptedException {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.finished.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return Optional.of(job.view());
+    }
+
+    /**
+     * Stops a job before its next name, the files deleted so far stay deleted.
+     *
+     * @return the job as it is at the moment, empty if there is no such job
+     */
+    public Optional<DeletionJob> cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.cancelled = true;
+        return Optional.of(job.view());
+    }
+
+    /**
+     * Forgets the jobs finished longer ago than the retention.
+     *
+     * @return number of forgotten jobs
+     */
+    public long expire(Duration retention) {
+        long limit = System.currentTimeMillis() - retention.toMillis();
+        List<String> expired = jobs.values().stream()
+                .filter(job -> job.finishedAt > 0 && job.finishedAt < limit)
+                .map(job -> job.id)
+                .toList();
+        expired.forEach(jobs::remove);
+        return expired.size();
+    }
+
+    public void cancelAll() {
+        jobs.values().forEach(job -> job.cancelled = true);
+    }
+
+    /**
+     * Cancels the running jobs and stops the workers.
+     */
+    public void close() {
+        cancelAll();
+        workers.shutdown();
+    }
+
+    private static class Job {
+
+        private final String id;
+        private final List<String> names;
+        private final Predicate<String> delete;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile JobState state = JobState.RUNNING;
+        private volatile long finishedAt;
+
+        private Job(String id, List<String> names, Predicate<String> delete) {
+            this.id = id;
+            this.names = names;
+            this.delete = delete;
+        }
+
+        private void work() {
+            try {
+                int index;
+                while (!cancelled && (index = next.getAndIncrement()) < names.size()) {
+                    if (delete.test(names.get(index))) {
+                        deleted.incrementAndGet();
+                    }
+                    else {
+                        failed.incrementAndGet();
+                    }
+                }
+            }
+            finally {
+                leave();
+            }
+        }
+
+        /**
+         * The last worker leaving finishes the job.
+         */
+        private void leave() {
+            if (active.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            state = cancelled && deleted.get() + failed.get() < names.size() ?
+                    JobState.CANCELLED :
+                    JobState.COMPLETED;
+            finishedAt = System.currentTimeMillis();
+            finished.countDown();
+        }
+
+        private DeletionJob view() {
+            return new DeletionJob(id, state, names.size(), deleted.get(), failed.get());
+        }
+    }
+}
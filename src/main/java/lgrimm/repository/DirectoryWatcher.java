@@ -0,0 +1,59 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.function.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a single folder on a daemon thread and reports changes made to it,
+ * including the ones made outside the application.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public DirectoryWatcher(Path directory, Consumer<String> onChange, Runnable onOverflow) throws IOException {
+        this.watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        }
+        catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        this.thread = new Thread(() -> watch(onChange, onOverflow), "storage-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void watch(Consumer<String> onChange, Runnable onOverflow) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        onOverflow.run();
+                    }
+                    else {
+                        onChange.accept(event.context().toString());
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+}
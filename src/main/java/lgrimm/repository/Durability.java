@@ -0,0 +1,144 @@
+package lgrimm.repository;
+
+import lgrimm.configuration.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Forces written files and directory entries to the disk according to the fsync policy.
+ * With group commit the requests of concurrent writers are collected by a single committer thread,
+ * every distinct path of a batch is forced once (the directory of a hundred small files is forced once,
+ * not a hundred times) and all the writers of the batch are released together.
+ */
+public class Durability implements Closeable {
+
+    private final FsyncPolicy policy;
+    private final long groupCommitDelayMillis;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread committer;
+
+    public Durability(FsyncPolicy policy, Duration groupCommitDelay) {
+        this.policy = policy == null ? FsyncPolicy.NONE : policy;
+        this.groupCommitDelayMillis = groupCommitDelay == null ? 0 : Math.max(0, groupCommitDelay.toMillis());
+        if (this.policy == FsyncPolicy.GROUP) {
+            this.committer = new Thread(this::commit, "storage-fsync");
+            this.committer.setDaemon(true);
+            this.committer.start();
+        }
+        else {
+            this.committer = null;
+        }
+    }
+
+    public static Durability none() {
+        return new Durability(FsyncPolicy.NONE, Duration.ZERO);
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns when the content of the file, or the entries of the directory, are on the disk
+     * (immediately with the NONE policy).
+     */
+    public void sync(Path path) throws IOException {
+        switch (policy) {
+            case NONE -> {
+            }
+            case FILE -> force(path);
+            case GROUP -> {
+                Request request = new Request(path);
+                requests.add(request);
+                if (!committer.isAlive() && requests.remove(request)) {
+                    throw new IOException("The storage is closed.");
+                }
+                try {
+                    request.done.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the group commit.");
+                }
+                catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ioException ?
+                            ioException :
+                            new IOException(e.getCause());
+                }
+            }
+        }
+    }
+
+    private void commit() {
+        try {
+            while (true) {
+                List<Request> batch = new ArrayList<>();
+                batch.add(requests.take());
+                if (groupCommitDelayMillis > 0) {
+                    Thread.sleep(groupCommitDelayMillis);
+                }
+                requests.drainTo(batch);
+                Map<Path, Optional<IOException>> results = new HashMap<>();
+                for (Request request : batch) {
+                    Optional<IOException> result = results.computeIfAbsent(request.path, this::forceQuietly);
+                    if (result.isPresent()) {
+                        request.done.completeExceptionally(result.get());
+                    }
+                    else {
+                        request.done.complete(null);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            List<Request> pending = new ArrayList<>();
+            requests.drainTo(pending);
+            pending.forEach(request -> request.done.completeExceptionally(new IOException("The storage is closed.")));
+        }
+    }
+
+    private Optional<IOException> forceQuietly(Path path) {
+        try {
+            force(path);
+            return Optional.empty();
+        }
+        catch (IOException e) {
+            return Optional.of(e);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        boolean directory = Files.isDirectory(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // not every platform can open (and force) a directory, the file contents are forced anyway
+            if (!directory) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (committer != null) {
+            committer.interrupt();
+        }
+    }
+
+    private static class Request {
+
+        private final Path path;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Request(Path path) {
+            this.path = path;
+        }
+    }
+}
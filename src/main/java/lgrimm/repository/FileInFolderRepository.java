@@ -1,27 +1,194 @@
 package lgrimm.repository;
 
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.*;
+import jakarta.annotation.PreDestroy;
+import lgrimm.configuration.*;
 import lgrimm.datamodel.*;
+import org.springframework.beans.factory.annotation.*;
 import org.springframework.core.io.*;
+import org.springframework.http.*;
 import org.springframework.stereotype.*;
 import org.springframework.util.*;
 
 import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
+import java.util.zip.*;
 
 @Repository
 public class FileInFolderRepository {
 
+    /**
+     * Folder of the repository's own files inside the storage root, it is not listed as a stored file.
+     */
+    public static final String STORAGE_DIRECTORY = ".storage";
+    /**
+     * Name prefix of the files being written, they are renamed to their final names when they are complete.
+     */
+    public static final String TEMP_PREFIX = ".incoming-";
+    private static final String COMPRESSED_MARK = "compressed";
+
+    private final FileIndex index = new FileIndex(name -> !name.startsWith(TEMP_PREFIX));
+    private final StorageProperties properties;
+    private final MeterRegistry registry;
+    private final Durability durability;
+    private final FileLocks locks;
+    private final ContentCache cache;
+    private final CompressionPolicy compressionPolicy;
+    private final StorageQuota quota;
+    private final ExecutorService writers;
+    private final DeletionJobs deletions;
+    /**
+     * Bytes of the archive entries held in memory until they are written, shared by the archive uploads.
+     */
+    private final Semaphore archiveBuffer;
+    private final int archiveEntryInMemory;
+    private final ScheduledExecutorService maintenance;
+    /**
+     * Makes the compressed variants, apart from the maintenance so a burst of them does not hold back the scheduled tasks.
+     * Its queue is bounded, a request not fitting is dropped and made again by a later download.
+     */
+    private final ExecutorService variantMakers;
+    private final List<ScheduledFuture<?>> maintenanceTasks = new ArrayList<>();
     private Path root;
+    private StorageLayout layout;
+    /**
+     * Whether files of the flat layout may still be in the root of a sharded storage, they are looked up there too.
+     */
+    private volatile boolean legacyFiles;
+    /**
+     * Whether files may be stored compressed, compression at rest is on or has been on.
+     */
+    private volatile boolean storedCompressed;
+    private DirectoryWatcher watcher;
+    private BlobStore blobStore;
+    private UploadSessionStore uploadSessions;
+    private final Map<String, StorageQuota.Reservation> sessionRooms = new ConcurrentHashMap<>();
+    private CompressedVariants variants;
+    private SendfileSnapshots snapshots;
+    private MetadataStore metadataStore;
+    private final Set<String> pendingVariants = ConcurrentHashMap.newKeySet();
+
+    public FileInFolderRepository() {
+        this(new StorageProperties());
+    }
+
+    public FileInFolderRepository(StorageProperties properties) {
+        this(properties, new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public FileInFolderRepository(StorageProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+        this.durability = new Durability(
+                properties.getWrite().getFsync(),
+                properties.getWrite().getGroupCommitDelay());
+        this.locks = new FileLocks(
+                properties.getLock().getStripes(),
+                properties.getLock().getTimeout());
+        StorageProperties.Cache cacheProperties = properties.getCache();
+        this.cache = cacheProperties.isEnabled() ?
+                new ContentCache(cacheProperties.getMaxSize().toBytes(), cacheProperties.getMaxFileSize().toBytes()) :
+                ContentCache.disabled();
+        this.compressionPolicy = new CompressionPolicy(properties.getCompression());
+        StorageProperties.Quota quotaProperties = properties.getQuota();
+        this.quota = quotaProperties.isEnabled() ?
+                new StorageQuota(
+                        quotaProperties.getMaxTotalSize().toBytes(),
+                        quotaProperties.getMaxFiles(),
+                        quotaProperties.getMaxFileSize().toBytes(),
+                        index::totalSize,
+                        index::size) :
+                StorageQuota.unlimited();
+        this.deletions = new DeletionJobs(properties.getDeletion().getParallelism());
+        int archiveBufferSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, properties.getUpload().getArchiveBuffer().toBytes()));
+        this.archiveBuffer = new Semaphore(archiveBufferSize);
+        this.archiveEntryInMemory = (int) Math.max(0, Math.min(archiveBufferSize, properties.getUpload().getArchiveEntryInMemory().toBytes()));
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger variantThreadNumber = new AtomicInteger();
+        int variantWorkers = Math.max(1, properties.getCompression().getVariantWorkers());
+        this.variantMakers = new ThreadPoolExecutor(
+                variantWorkers, variantWorkers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getCompression().getVariantQueue())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-variant-" + variantThreadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory platformWriters = runnable -> {
+            Thread thread = new Thread(runnable, "storage-writer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        Optional<ThreadFactory> virtualWriters = properties.getExecution().getMode() == ExecutionMode.VIRTUAL ?
+                VirtualThreads.factory("storage-writer-") :
+                Optional.empty();
+        // with virtual threads the pool only bounds the number of files written at the same time
+        this.writers = Executors.newFixedThreadPool(
+                Math.max(1, properties.getUpload().getParallelism()),
+                virtualWriters.orElse(platformWriters));
+    }
 
     public boolean init(String repositoryPath, boolean deleteAllFromStorage) {
         try {
+            stopWatcher();
+            cancelMaintenanceTasks();
+            deletions.cancelAll();
+            closeMetadataStore();
             this.root = Paths.get(repositoryPath);
             if (deleteAllFromStorage) {
                 FileSystemUtils.deleteRecursively(root.toFile());
             }
             Files.createDirectories(root);
+            deleteTempFiles();
+            initLayout();
+            initBlobStore();
+            checkAtRestCompression();
+            initUploadSessions();
+            scheduleDeletionExpiry();
+            scheduleUsageVerification();
+            variants = new CompressedVariants(root.resolve(STORAGE_DIRECTORY).resolve("variants"));
+            initSnapshots();
+            cache.clear();
+            loadIndex();
+            reserveSessionRooms();
+            if (legacyFiles && properties.getLayout().isMigrateOnStart()) {
+                maintenanceTasks.add(maintenance.schedule(this::migrateLayout, 0, TimeUnit.MILLISECONDS));
+            }
+            startWatcher();
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rescans the storage folder and brings the in-memory index in line with it.
+     * Changes made outside the application are picked up by the folder watcher anyway,
+     * this is for the cases when the watcher is not available or lags behind.
+     */
+    public boolean reconcile() {
+        try {
+            cache.clear();
+            index.rebuild(layout.directories());
             return true;
         }
         catch (Exception e) {
@@ -29,10 +196,382 @@ public class FileInFolderRepository {
         }
     }
 
+    @PreDestroy
+    public void close() {
+        stopWatcher();
+        cancelMaintenanceTasks();
+        writers.shutdown();
+        deletions.close();
+        maintenance.shutdown();
+        variantMakers.shutdown();
+        closeMetadataStore();
+        durability.close();
+    }
+
+    /**
+     * Removes the files left half-written by a crash.
+     */
+    private void deleteTempFiles() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, TEMP_PREFIX + "*")) {
+            for (Path temp : stream) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private void initLayout() throws IOException {
+        StorageProperties.Layout settings = properties.getLayout();
+        layout = settings.getMode() == LayoutMode.SHARDED ?
+                StorageLayout.sharded(root, settings.getDepth()) :
+                StorageLayout.flat(root);
+        legacyFiles = layout.isSharded() && countLegacyFiles() > 0;
+    }
+
+    /**
+     * @return number of files in the root of a sharded storage, left there by the flat layout
+     */
+    private long countLegacyFiles() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().startsWith(TEMP_PREFIX) && Files.isRegularFile(path)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Moves the files left in the root by the flat layout into their shard folders one by one.
+     * The exclusive lock of a name is held only while its file is moved, the storage stays available meanwhile
+     * and the files not moved yet are found in the root.
+     */
+    public MigrationSummary migrateLayout() {
+        long moved = 0;
+        try {
+            if (!layout.isSharded()) {
+                return new MigrationSummary(0, 0);
+            }
+            List<String> filenames = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (Path path : stream) {
+                    filenames.add(path.getFileName().toString());
+                }
+            }
+            for (String filename : filenames) {
+                if (!filename.startsWith(TEMP_PREFIX) && migrate(filename)) {
+                    moved++;
+                }
+            }
+            long remaining = countLegacyFiles();
+            legacyFiles = remaining > 0;
+            return new MigrationSummary(moved, remaining);
+        }
+        catch (Exception e) {
+            return new MigrationSummary(moved, -1);
+        }
+    }
+
+    private boolean migrate(String filename) {
+        try (FileLocks.Lease lease = locks.acquireExclusive(filename)) {
+            Path legacy = root.resolve(filename);
+            Path path = layout.resolve(filename);
+            if (!Files.isRegularFile(legacy) || Files.exists(path)) {
+                return false;
+            }
+            Files.createDirectories(path.getParent());
+            Files.move(legacy, path, StandardCopyOption.ATOMIC_MOVE);
+            durability.sync(path.getParent());
+            durability.sync(root);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the place of a stored file: its place in the layout, or the root while files of the flat layout remain there
+     */
+    private Path locate(String filename) {
+        Path path = layout.resolve(filename);
+        if (legacyFiles && !Files.exists(path)) {
+            Path legacy = root.resolve(filename);
+            if (Files.isRegularFile(legacy)) {
+                return legacy;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Fills the index from the metadata store, or by scanning the files when nothing has been stored yet.
+     * The loaded metadata is verified against the files in the background, the index is usable meanwhile.
+     */
+    private void loadIndex() throws IOException {
+        index.clear();
+        StorageProperties.Metadata settings = properties.getMetadata();
+        if (!settings.isEnabled()) {
+            index.rebuild(layout.directories());
+            return;
+        }
+        metadataStore = new MetadataStore(root.resolve(STORAGE_DIRECTORY).resolve("metadata"), durability);
+        boolean loaded;
+        try {
+            loaded = metadataStore.load(index::put, index::remove);
+        }
+        catch (IOException e) {
+            index.clear();
+            loaded = false;
+        }
+        if (!loaded) {
+            index.rebuild(layout.directories());
+            metadataStore.compact(index::values);
+        }
+        index.listen(metadataStore);
+        MetadataStore compacted = metadataStore;
+        long interval = settings.getCompactInterval().toMillis();
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(
+                () -> compactMetadata(compacted, settings.getCompactAfter()), interval, interval, TimeUnit.MILLISECONDS));
+        if (loaded && settings.isVerifyOnStart()) {
+            maintenanceTasks.add(maintenance.schedule(this::reconcile, 0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void compactMetadata(MetadataStore store, long threshold) {
+        try {
+            if (store.records() >= threshold) {
+                store.compact(index::values);
+            }
+        }
+        catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * Leaves a compacted snapshot behind, the next start reads that alone.
+     */
+    private void closeMetadataStore() {
+        index.listen(null);
+        if (metadataStore != null) {
+            compactMetadata(metadataStore, 1);
+            metadataStore.close();
+            metadataStore = null;
+        }
+    }
+
+    private void initBlobStore() throws IOException {
+        blobStore = null;
+        StorageProperties.Deduplication deduplication = properties.getDeduplication();
+        if (!deduplication.isEnabled()) {
+            return;
+        }
+        if (!BlobStore.isSupported(root)) {
+            throw new IOException("Deduplication needs hard links with link counts, not supported here.");
+        }
+        blobStore = new BlobStore(root.resolve(STORAGE_DIRECTORY), durability);
+        blobStore.init();
+        long interval = deduplication.getCollectInterval().toMillis();
+        BlobStore collected = blobStore;
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(
+                collected::collectGarbage, interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Once compression at rest has been on, a mark is left in the storage directory: the files compressed then
+     * keep being decoded after it is turned off. Without the mark no file is compressed,
+     * the marks of the single files are not read at all.
+     */
+    private void checkAtRestCompression() throws IOException {
+        Path mark = root.resolve(STORAGE_DIRECTORY).resolve(COMPRESSED_MARK);
+        if (properties.getWrite().getCompression() == AtRestCompression.GZIP) {
+            if (!StoredEncoding.isSupported(root)) {
+                throw new IOException("Compression at rest needs user-defined file attributes, not supported here.");
+            }
+            Files.createDirectories(mark.getParent());
+            if (!Files.exists(mark)) {
+                Files.createFile(mark);
+            }
+        }
+        storedCompressed = Files.exists(mark);
+        index.readStoredEncoding(storedCompressed);
+    }
+
+    /**
+     * @return size of the original content of a file stored compressed, empty if it is stored as it is
+     */
+    private Optional<Long> decodedSize(Path path) {
+        return storedCompressed ? StoredEncoding.decodedSize(path) : Optional.empty();
+    }
+
+    private void initUploadSessions() throws IOException {
+        sessionRooms.keySet().forEach(this::releaseSessionRoom);
+        uploadSessions = new UploadSessionStore(root.resolve(STORAGE_DIRECTORY).resolve("uploads"), durability);
+        uploadSessions.init();
+        Duration expiry = properties.getUpload().getSessionExpiry();
+        long interval = Math.min(expiry.toMillis(), Duration.ofHours(1).toMillis());
+        UploadSessionStore expired = uploadSessions;
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(() -> {
+            expired.expire(expiry);
+            releaseEndedSessionRooms();
+        }, interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The file of an upload session has its full size from the start, so the session holds the room of the file
+     * in the storage quota until it is completed or cancelled. The sessions left behind by a previous run take
+     * their room again once the index is loaded; one not fitting any more takes it when it is completed.
+     */
+    private void reserveSessionRooms() {
+        for (UploadSession session : uploadSessions.findAll()) {
+            quota.reserve(session.getSize()).ifPresent(room -> sessionRooms.put(session.getId(), room));
+        }
+    }
+
+    private void releaseSessionRoom(String id) {
+        StorageQuota.Reservation room = sessionRooms.remove(id);
+        if (room != null) {
+            room.close();
+        }
+    }
+
+    private void releaseEndedSessionRooms() {
+        sessionRooms.keySet().stream()
+                .filter(id -> uploadSessions.find(id).isEmpty())
+                .toList()
+                .forEach(this::releaseSessionRoom);
+    }
+
+    private void scheduleDeletionExpiry() {
+        Duration retention = properties.getDeletion().getRetention();
+        long interval = Math.max(1000, Math.min(retention.toMillis(), Duration.ofMinutes(10).toMillis()));
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(
+                () -> deletions.expire(retention), interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    private void initSnapshots() throws IOException {
+        snapshots = new SendfileSnapshots(root.resolve(STORAGE_DIRECTORY).resolve("snapshots"));
+        snapshots.clear();
+        Duration retention = properties.getDownload().getSnapshotRetention();
+        long interval = Math.max(1000, retention.toMillis());
+        SendfileSnapshots expired = snapshots;
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(
+                () -> expired.expire(retention), interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    private void scheduleUsageVerification() {
+        if (!properties.getQuota().isEnabled()) {
+            return;
+        }
+        long interval = Math.max(1000, properties.getQuota().getVerifyInterval().toMillis());
+        maintenanceTasks.add(maintenance.scheduleWithFixedDelay(
+                this::verifyUsage, interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Checks the usage counters the quota is enforced by against the files on the disk, and brings the index
+     * in line with the files where they differ.
+     *
+     * @return whether the counters were right
+     */
+    public boolean verifyUsage() {
+        try {
+            long files = index.size();
+            long bytes = index.totalSize();
+            index.rebuild(layout.directories());
+            return files == index.size() && bytes == index.totalSize();
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether a new file of the size would go beyond the storage quota at the moment
+     */
+    public boolean exceedsQuota(long size) {
+        return !quota.hasRoomFor(size);
+    }
+
+    /**
+     * Takes the room of a new file in the storage quota before its content is received,
+     * for the writers handing the file over to {@link #publishAsync(Path, String, String, StorageQuota.Reservation)}.
+     *
+     * @return the reservation, empty if the file does not fit
+     */
+    public Optional<StorageQuota.Reservation> reserveRoom(long size) {
+        return quota.reserve(size);
+    }
+
+    /**
+     * @return most bytes a new file of an unknown size may have at the moment, negative if no new file fits
+     * @see StorageQuota#allowance()
+     */
+    public long roomForFile() {
+        return quota.allowance();
+    }
+
+    private void cancelMaintenanceTasks() {
+        maintenanceTasks.forEach(task -> task.cancel(false));
+        maintenanceTasks.clear();
+    }
+
+    /**
+     * Removes the stored contents no file name refers to any more (deduplicating mode only).
+     *
+     * @return number of removed contents
+     */
+    public long collectGarbage() {
+        return blobStore == null ? 0 : blobStore.collectGarbage();
+    }
+
+    private void stopWatcher() {
+        try {
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+        catch (IOException ignored) {
+        }
+        watcher = null;
+    }
+
+    /**
+     * The events of the repository's own saves and deletes find the index up to date already,
+     * only a file changed from outside invalidates its cached content and compressed variant.
+     */
+    private void startWatcher() {
+        try {
+            watcher = new DirectoryWatcher(
+                    root,
+                    filename -> {
+                        Optional<FileMetadata> before = index.get(filename);
+                        if (!index.reconcile(locate(filename).getParent(), filename).equals(before)) {
+                            cache.invalidate(filename);
+                            variants.invalidate(filename);
+                        }
+                    },
+                    this::reconcile);
+        }
+        catch (IOException e) {
+            watcher = null;
+        }
+    }
+
     public Optional<Resource> getByFilename(String filename) {
         try {
-            Path path = root.resolve(filename);
-            Resource resource = new UrlResource(path.toUri());
+            if (filename.startsWith(TEMP_PREFIX)) {
+                return Optional.empty();
+            }
+            Path path = locate(filename);
+            if (cache.isEnabled()) {
+                Optional<Resource> cached = getCached(filename, path);
+                if (cached.isPresent()) {
+                    return cached;
+                }
+            }
+            Resource resource = new LockedResource(path, filename, decodedSize(path).orElse(-1L));
             if (resource.exists() || resource.isReadable()) {
                 return Optional.of(resource);
             }
@@ -45,27 +584,144 @@ public class FileInFolderRepository {
         }
     }
 
-    public List<Resource> getAll() {
-        try (Stream<Path> walk = Files.walk(this.root, 1)) {
-            return walk
-                    .filter(path -> !path.equals(this.root))
-                    .map(this.root::relativize)
-                    .map(path -> path.toFile().getName())
-                    .map(this::getByFilename)
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .toList();
+    /**
+     * Serves a file from the content cache, reading it into the cache on a miss if it is small enough.
+     * The content is read holding the shared lock of the name, so a concurrent save or delete
+     * either invalidates it after it has been cached or waits until then.
+     *
+     * @return empty if the file is not cacheable, to be read from the disk
+     */
+    private Optional<Resource> getCached(String filename, Path path) throws IOException {
+        Optional<ContentCache.Content> cached = cache.get(filename);
+        if (cached.isPresent()) {
+            return Optional.of(new CachedResource(filename, cached.get()));
+        }
+        try (FileLocks.Lease lease = locks.acquireShared(filename);
+             FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Optional<Long> decodedSize = decodedSize(path);
+            long size = decodedSize.orElse(channel.size());
+            if (!cache.isCacheable(size)) {
+                return Optional.empty();
+            }
+            ReadableByteChannel content = decodedSize.isPresent() ?
+                    Channels.newChannel(StoredEncoding.decode(Channels.newInputStream(channel))) :
+                    channel;
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (content.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            return Optional.of(new CachedResource(filename, cache.put(filename, buffer, lastModified)));
+        }
+        catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Takes the shared lock of a stored file, for the readers opening it on their own:
+     * the file is not deleted or replaced until the lock is released. It is to be released as soon as the file is open,
+     * the open file keeps its content afterwards.
+     *
+     * @return the held lock, empty if it could not be taken in time
+     */
+    public Optional<FileLocks.Lease> lockForReading(String filename) {
+        try {
+            return Optional.of(locks.acquireShared(filename));
         }
         catch (Exception e) {
-            return new ArrayList<>();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the gzip-compressed copy of a stored file (the stored bytes themselves if the file is stored compressed),
+     * empty if it has not been made (yet)
+     */
+    public Optional<Resource> findCompressedVariant(String filename) {
+        try {
+            if (filename.startsWith(TEMP_PREFIX) || !isValidFilename(filename)) {
+                return Optional.empty();
+            }
+            Path path = locate(filename);
+            if (decodedSize(path).isPresent()) {
+                return Optional.of(new LockedResource(path, filename));
+            }
+            Optional<Path> variant = variants.find(filename, path);
+            if (variant.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(new LockedResource(variant.get(), filename));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Makes the gzip-compressed copy of a stored file in the background, unless it is being made already
+     * or too many copies are waiting.
+     */
+    public void requestCompressedVariant(String filename) {
+        if (!pendingVariants.add(filename)) {
+            return;
+        }
+        CompressedVariants requested = variants;
+        try {
+            variantMakers.execute(() -> {
+                try {
+                    makeCompressedVariant(requested, filename);
+                }
+                finally {
+                    pendingVariants.remove(filename);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            pendingVariants.remove(filename);
         }
     }
 
+    /**
+     * Compresses without holding any lock, and publishes the variant holding the shared lock of the name
+     * only if the file has not changed meanwhile: a save or delete afterwards invalidates it under the exclusive lock.
+     */
+    private void makeCompressedVariant(CompressedVariants variants, String filename) {
+        try {
+            Path original = locate(filename);
+            BasicFileAttributes before = Files.readAttributes(original, BasicFileAttributes.class);
+            Path compressed = variants.compress(original);
+            try (FileLocks.Lease lease = locks.acquireShared(filename)) {
+                BasicFileAttributes after = Files.readAttributes(original, BasicFileAttributes.class);
+                if (after.size() == before.size() && after.lastModifiedTime().equals(before.lastModifiedTime())) {
+                    variants.publish(filename, compressed, after.lastModifiedTime());
+                }
+            }
+            finally {
+                Files.deleteIfExists(compressed);
+            }
+        }
+        catch (Exception ignored) {
+            // the file is sent compressed on the fly until a later attempt succeeds
+        }
+    }
+
+    public List<Resource> getAll() {
+        return index.names().stream()
+                .map(this::getByFilename)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .toList();
+    }
+
     public Optional<Path> findByFilename(String filename) {
         try {
-            Path path = this.root.resolve(filename);
+            Path path = locate(filename);
             if (path.toFile().exists() || path.toFile().isFile()) {
-                return Optional.of(root.relativize(path));
+                return Optional.of(path.getParent().relativize(path));
             }
             return Optional.empty();
         }
@@ -75,67 +731,794 @@ public class FileInFolderRepository {
     }
 
     public List<Path> findAll() {
-        try (Stream<Path> walk = Files.walk(this.root, 1)) {
-            return walk
-                    .filter(path -> !path.equals(this.root))
-                    .map(this.root::relativize)
-                    .toList();
+        return index.names().stream()
+                .map(Paths::get)
+                .toList();
+    }
+
+    /**
+     * @param prefix beginning of the names, null or empty for any
+     * @param glob glob pattern of the names, null or blank for any
+     * @return names of the files matching both, in ascending order
+     */
+    public List<String> findNames(String prefix, String glob) {
+        return index.names(prefix, glob);
+    }
+
+    /**
+     * @return location of a stored file, for the readers opening it on their own
+     */
+    public Optional<Path> findLocationByFilename(String filename) {
+        return index.get(filename)
+                .map(metadata -> locate(metadata.getName()));
+    }
+
+    /**
+     * @return whether the file is stored gzip-compressed, its location holds the compressed bytes then
+     */
+    public boolean isStoredCompressed(String filename) {
+        return findLocationByFilename(filename)
+                .flatMap(this::decodedSize)
+                .isPresent();
+    }
+
+    public FilePage findPage(FileQuery query) {
+        try {
+            return index.page(query);
         }
         catch (Exception e) {
-            return new ArrayList<>();
+            return new FilePage(new ArrayList<>(), null, index.size());
         }
     }
 
+    public Optional<FileMetadata> findMetadataByFilename(String filename) {
+        return index.get(filename);
+    }
+
     public Optional<String> save(Multipart file) {
+        Timer.Sample sample = Timer.start(registry);
+        boolean saved = false;
         try {
-            Path path = this.root.resolve(file.getOriginalFilename());
-            Files.copy(new ByteArrayInputStream(file.getContent()), path);
+            String filename = file.getOriginalFilename();
+            if (!isStorableFilename(filename)) {
+                return Optional.empty();
+            }
+            Path path = locate(filename);
+            if (Files.exists(path)) {
+                throw new FileAlreadyExistsException(path.toString());
+            }
+            try (StorageQuota.Reservation reservation = reserve(file.getSize());
+                 InputStream content = file.getInputStream()) {
+                if (blobStore != null) {
+                    try (BlobStore.Staged staged = blobStore.stage(content)) {
+                        link(staged, filename, file.getContentType());
+                    }
+                }
+                else {
+                    write(content, filename, file.getContentType(), file.getSize());
+                }
+            }
+            saved = true;
             return Optional.of(file.getOriginalFilename());
         }
         catch (Exception e) {
             return Optional.empty();
         }
+        finally {
+            sample.stop(registry.timer("storage.repository.write",
+                    "mode", blobStore == null ? "copy" : "deduplicated",
+                    "outcome", saved ? "success" : "failure"));
+        }
+    }
+
+    /**
+     * Writes the content into a temp file next to its final path and renames it into place when it is complete,
+     * so readers (and a restart after a crash) never see a half-written file under the final name.
+     * A compressible content is compressed on the way when the files are stored compressed.
+     *
+     * @param size expected size of the content
+     */
+    private void write(InputStream content, String filename, String contentType, long size) throws IOException {
+        Path temp = Files.createFile(root.resolve(TEMP_PREFIX + UUID.randomUUID()));
+        try {
+            boolean compressed = isCompressedAtRest(contentType, size);
+            MessageDigest digest = sha256();
+            long written;
+            try (OutputStream out = compressed ?
+                    StoredEncoding.encode(Files.newOutputStream(temp)) :
+                    Files.newOutputStream(temp)) {
+                written = new DigestInputStream(content, digest).transferTo(out);
+            }
+            if (compressed) {
+                StoredEncoding.mark(temp, written);
+            }
+            durability.sync(temp);
+            move(temp, filename, contentType, HexFormat.of().formatHex(digest.digest()));
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Renames a complete file to its final name and indexes it. Only this step holds the exclusive lock of the name,
+     * the slow write of the content is done before, so readers of other names of the stripe wait for a rename only.
+     */
+    private void move(Path source, String filename, String contentType, String checksum) throws IOException {
+        try (FileLocks.Lease lease = locks.acquireExclusive(filename)) {
+            Path path = prepareTarget(filename);
+            moveIntoPlace(source, path);
+            cache.invalidate(filename);
+            variants.invalidate(filename);
+            index(path, filename, contentType, checksum);
+        }
+    }
+
+    /**
+     * Links a staged content to its final name and indexes it, holding the exclusive lock of the name.
+     */
+    private void link(BlobStore.Staged staged, String filename, String contentType) throws IOException {
+        try (FileLocks.Lease lease = locks.acquireExclusive(filename)) {
+            Path path = prepareTarget(filename);
+            String checksum = blobStore.link(staged, path);
+            cache.invalidate(filename);
+            variants.invalidate(filename);
+            index(path, filename, contentType, checksum);
+        }
+    }
+
+    /**
+     * @return the place of a new file in the layout, with its folder created
+     * @throws FileAlreadyExistsException if a file of the flat layout has the name
+     */
+    private Path prepareTarget(String filename) throws IOException {
+        if (legacyFiles && Files.isRegularFile(root.resolve(filename))) {
+            throw new FileAlreadyExistsException(root.resolve(filename).toString());
+        }
+        Path path = layout.resolve(filename);
+        if (layout.isSharded()) {
+            Files.createDirectories(path.getParent());
+        }
+        return path;
+    }
+
+    private boolean isCompressedAtRest(String contentType, long size) {
+        return blobStore == null &&
+                properties.getWrite().getCompression() == AtRestCompression.GZIP &&
+                compressionPolicy.isCompressible(contentType, size);
+    }
+
+    /**
+     * @param checksum hex SHA-256 hash of the content, null if it has not been computed while the content was written
+     */
+    private void index(Path path, String filename, String contentType, String checksum) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        index.put(new FileMetadata(
+                filename,
+                decodedSize(path).orElse(attributes.size()),
+                attributes.creationTime().toMillis(),
+                attributes.lastModifiedTime().toMillis(),
+                contentType,
+                checksum));
+        if (metadataStore != null) {
+            metadataStore.sync();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gives a complete file its final name. A new link fails atomically when the name is taken,
+     * a rename would silently replace a file saved concurrently under the same name.
+     */
+    private void moveIntoPlace(Path source, Path path) throws IOException {
+        try {
+            Files.createLink(path, source);
+        }
+        catch (FileAlreadyExistsException e) {
+            throw e;
+        }
+        catch (UnsupportedOperationException | FileSystemException e) {
+            Files.move(source, path);
+        }
+        durability.sync(path.getParent());
+    }
+
+    /**
+     * Creates an empty file for a content arriving in pieces. It is kept in the repository's own folder,
+     * so it is not listed until it is published.
+     */
+    public Optional<Path> createIncoming() {
+        try {
+            Path incoming = root.resolve(STORAGE_DIRECTORY).resolve("incoming");
+            Files.createDirectories(incoming);
+            return Optional.of(Files.createTempFile(incoming, "upload", ".tmp"));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a completely written incoming file under the given name. The incoming file is gone afterwards,
+     * whether it was published or not.
+     *
+     * @return name of the stored file, empty if the name is invalid or already taken
+     */
+    public Optional<String> publish(Path incoming, String filename, String contentType) {
+        return publish(incoming, filename, contentType, null);
+    }
+
+    /**
+     * @param reservation room of the file taken before it was written, closed afterwards; null to take it now
+     */
+    private Optional<String> publish(Path incoming, String filename, String contentType, StorageQuota.Reservation reservation) {
+        try {
+            return tryPublish(incoming, filename, contentType, reservation);
+        }
+        finally {
+            discardIncoming(incoming);
+            if (reservation != null) {
+                reservation.close();
+            }
+        }
+    }
+
+    /**
+     * Stores a completely written file under the given name, the file is left where it is if it cannot be stored.
+     *
+     * @param reservation room of the file taken before it was written, kept open; null to take it now
+     * @return name of the stored file, empty if the name is invalid or already taken, or the file could not be stored
+     */
+    private Optional<String> tryPublish(Path incoming, String filename, String contentType, StorageQuota.Reservation reservation) {
+        try {
+            if (!isStorableFilename(filename)) {
+                return Optional.empty();
+            }
+            if (Files.exists(locate(filename))) {
+                return Optional.empty();
+            }
+            if (reservation != null) {
+                publishReserved(incoming, filename, contentType);
+            }
+            else {
+                try (StorageQuota.Reservation taken = reserve(Files.size(incoming))) {
+                    publishReserved(incoming, filename, contentType);
+                }
+            }
+            return Optional.of(filename);
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Publishes an incoming file on the writer pool, for the callers which must not block, like the non-blocking I/O callbacks.
+     *
+     * @see #publish(Path, String, String)
+     */
+    public CompletableFuture<Optional<String>> publishAsync(Path incoming, String filename, String contentType) {
+        return publishAsync(incoming, filename, contentType, null);
+    }
+
+    /**
+     * Publishes an incoming file written within the room reserved for it, the reservation is closed once it is done.
+     *
+     * @param reservation room taken by {@link #reserveRoom(long)}, null to take it when the file is published
+     */
+    public CompletableFuture<Optional<String>> publishAsync(Path incoming, String filename, String contentType,
+                                                            StorageQuota.Reservation reservation) {
+        try {
+            return CompletableFuture.supplyAsync(() -> publish(incoming, filename, contentType, reservation), writers);
+        }
+        catch (RejectedExecutionException e) {
+            discardIncoming(incoming);
+            if (reservation != null) {
+                reservation.close();
+            }
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    }
+
+    private void publishReserved(Path incoming, String filename, String contentType) throws IOException {
+        if (blobStore != null) {
+            try (InputStream content = Files.newInputStream(incoming);
+                 BlobStore.Staged staged = blobStore.stage(content)) {
+                link(staged, filename, contentType);
+            }
+        }
+        else if (isCompressedAtRest(contentType, Files.size(incoming))) {
+            try (InputStream content = Files.newInputStream(incoming)) {
+                write(content, filename, contentType, Files.size(incoming));
+            }
+        }
+        else {
+            durability.sync(incoming);
+            move(incoming, filename, contentType, null);
+        }
+    }
+
+    /**
+     * @throws IOException if a new file of the size does not fit into the storage quota
+     */
+    private StorageQuota.Reservation reserve(long size) throws IOException {
+        return quota.reserve(size)
+                .orElseThrow(() -> new IOException("The storage quota has been reached."));
+    }
+
+    private boolean isValidFilename(String filename) {
+        try {
+            return root.normalize().equals(root.resolve(filename).normalize().getParent());
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * The name is checked against the root before a layout places the file, a sharded layout would hide
+     * a name leaving the root (or a temp name) in its own folders.
+     *
+     * @return whether a new file may be stored under the name: a plain name in the root, and not one of a temp file
+     */
+    private boolean isStorableFilename(String filename) {
+        return filename != null && isValidFilename(filename) && !filename.startsWith(TEMP_PREFIX);
+    }
+
+    /**
+     * Creates a session with a file of the full size, holding the room of the file in the storage quota.
+     */
+    public Optional<UploadSession> createUploadSession(String filename, long size, String contentType) {
+        StorageQuota.Reservation room = null;
+        try {
+            if (size < 0 || !isStorableFilename(filename) || index.get(filename).isPresent()) {
+                return Optional.empty();
+            }
+            room = quota.reserve(size).orElse(null);
+            if (room == null) {
+                return Optional.empty();
+            }
+            UploadSession session = uploadSessions.create(filename, size, contentType);
+            sessionRooms.put(session.getId(), room);
+            return Optional.of(session);
+        }
+        catch (Exception e) {
+            if (room != null) {
+                room.close();
+            }
+            return Optional.empty();
+        }
+    }
+
+    public Optional<UploadSession> findUploadSession(String id) {
+        return uploadSessions.find(id);
+    }
+
+    /**
+     * @return the session after the chunk has been written, empty if the chunk could not be written completely
+     */
+    public Optional<UploadSession> writeChunk(String id, long offset, long length, InputStream content) {
+        try {
+            return uploadSessions.write(id, offset, length, content);
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the content of a completely received upload session under its file name.
+     * The session is removed only when the file has been stored, otherwise it is kept with its content for a retry.
+     *
+     * @return name of the stored file, empty if the session is not complete, the name has been taken meanwhile
+     * or the file could not be stored
+     */
+    public Optional<String> completeUploadSession(String id) {
+        try {
+            Optional<UploadSession> session = uploadSessions.find(id);
+            if (session.isEmpty()) {
+                return Optional.empty();
+            }
+            StorageQuota.Reservation room = sessionRooms.get(id);
+            Optional<String> stored = uploadSessions.complete(id,
+                    data -> tryPublish(data, session.get().getFilename(), session.get().getContentType(), room));
+            if (stored.isPresent()) {
+                releaseSessionRoom(id);
+            }
+            return stored;
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
     }
 
+    public boolean cancelUploadSession(String id) {
+        boolean cancelled = uploadSessions.cancel(id);
+        if (cancelled) {
+            releaseSessionRoom(id);
+        }
+        return cancelled;
+    }
+
+    public void discardIncoming(Path incoming) {
+        try {
+            Files.deleteIfExists(incoming);
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Saves the files concurrently on the writer pool, so a slow write does not hold back the others.
+     *
+     * @return names of the saved files, in the order of the given files
+     */
     public Stream<String> saveAll(List<Multipart> files) {
-        return files.stream()
-                .map(this::save)
+        if (files.size() <= 1) {
+            return files.stream()
+                    .map(this::save)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get);
+        }
+        List<CompletableFuture<Optional<String>>> results = files.stream()
+                .map(file -> CompletableFuture.supplyAsync(() -> save(file), writers))
+                .toList();
+        return results.stream()
+                .map(CompletableFuture::join)
                 .filter(Optional::isPresent)
                 .map(Optional::get);
     }
 
-    public boolean delete(String filename) {
+    /**
+     * Stores the files of a ZIP archive arriving as a stream, the archive is read once, entry by entry.
+     * Small entries are read into memory and written by the writer threads while the next entries are being read,
+     * larger ones are spilled into incoming files first. The memory of the waiting entries is limited,
+     * the reading stops until the writers catch up. Folder entries are skipped, entries in folders fail:
+     * the files are stored under the names of the entries.
+     *
+     * @return name and outcome of each file entry, in the order of the archive; the entries after a damaged part are missing
+     */
+    public List<Map.Entry<String, Boolean>> saveArchive(InputStream archive) {
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<Optional<String>>> results = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String filename = entry.getName();
+                names.add(filename);
+                if (!isStorableFilename(filename)) {
+                    results.add(CompletableFuture.completedFuture(Optional.empty()));
+                    continue;
+                }
+                String contentType = MediaTypeFactory.getMediaType(filename)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                        .toString();
+                try {
+                    results.add(saveEntry(zip, filename, contentType, entry.getSize()));
+                }
+                catch (Exception e) {
+                    results.add(CompletableFuture.completedFuture(Optional.empty()));
+                    break;
+                }
+            }
+        }
+        catch (Exception ignored) {
+        }
+        List<Map.Entry<String, Boolean>> outcomes = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            boolean saved;
+            try {
+                saved = results.get(i).join().isPresent();
+            }
+            catch (Exception e) {
+                saved = false;
+            }
+            outcomes.add(Map.entry(names.get(i), saved));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Reads the current entry of the archive and hands it over to a writer thread. An entry to be spilled takes its room
+     * in the storage quota before it is written when the archive gives its size, otherwise its bytes are counted
+     * on the way and the spill is abandoned as soon as it goes beyond the size a new file may have.
+     * An entry not fitting fails, the archive goes on with the next one.
+     *
+     * @param size size of the entry given by the archive, negative if it is not known
+     */
+    private CompletableFuture<Optional<String>> saveEntry(InputStream content, String filename, String contentType, long size)
+            throws IOException, InterruptedException {
+        if (size >= 0 && !quota.hasRoomFor(size)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        archiveBuffer.acquire(archiveEntryInMemory);
+        byte[] head;
+        try {
+            head = content.readNBytes(archiveEntryInMemory + 1);
+        }
+        catch (IOException | RuntimeException e) {
+            archiveBuffer.release(archiveEntryInMemory);
+            throw e;
+        }
+        if (head.length <= archiveEntryInMemory) {
+            archiveBuffer.release(archiveEntryInMemory - head.length);
+            Multipart file = new Multipart("file", filename, contentType, head);
+            try {
+                return CompletableFuture.supplyAsync(() -> save(file), writers)
+                        .whenComplete((saved, e) -> archiveBuffer.release(head.length));
+            }
+            catch (RejectedExecutionException e) {
+                archiveBuffer.release(head.length);
+                throw e;
+            }
+        }
+        StorageQuota.Reservation reservation = null;
+        Path incoming = null;
         try {
-            Path file = root.resolve(filename);
-            return Files.deleteIfExists(file);
+            long limit = size >= 0 ? size : quota.allowance();
+            if (size >= 0) {
+                reservation = quota.reserve(size).orElse(null);
+            }
+            boolean fits = (size < 0 || reservation != null) && head.length <= limit;
+            if (fits) {
+                incoming = createIncoming().orElseThrow(() -> new IOException("Could not create an incoming file."));
+                try (OutputStream out = Files.newOutputStream(incoming)) {
+                    out.write(head);
+                    fits = copyAtMost(content, out, limit - head.length);
+                }
+            }
+            if (!fits) {
+                abandon(incoming, reservation);
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            abandon(incoming, reservation);
+            throw e;
+        }
+        finally {
+            archiveBuffer.release(archiveEntryInMemory);
+        }
+        return publishAsync(incoming, filename, contentType, reservation);
+    }
+
+    /**
+     * @return whether the content has been copied completely, false if it is longer than the limit
+     */
+    private static boolean copyAtMost(InputStream content, OutputStream out, long limit) throws IOException {
+        byte[] buffer = new byte[8192];
+        long copied = 0;
+        int read;
+        while ((read = content.read(buffer)) >= 0) {
+            copied += read;
+            if (copied > limit) {
+                return false;
+            }
+            out.write(buffer, 0, read);
+        }
+        return true;
+    }
+
+    private void abandon(Path incoming, StorageQuota.Reservation reservation) {
+        if (incoming != null) {
+            discardIncoming(incoming);
+        }
+        if (reservation != null) {
+            reservation.close();
+        }
+    }
+
+    /**
+     * Deletes a file holding the exclusive lock of its name, so it is not removed while a download is opening it.
+     * The downloads having opened it already go on with its content.
+     */
+    public boolean delete(String filename) {
+        try (FileLocks.Lease lease = locks.acquireExclusive(filename)) {
+            Path file = locate(filename);
+            boolean existed = Files.deleteIfExists(file);
+            cache.invalidate(filename);
+            variants.invalidate(filename);
+            index.remove(filename);
+            return existed;
         }
         catch (Exception e) {
             return false;
         }
     }
 
+    /**
+     * Deletes every file in parallel, and waits for the end.
+     *
+     * @return number of deleted files
+     */
     public long deleteAll() {
-        try (Stream<Path> walk = Files.walk(this.root, 1)) {
-            return walk
-                    .filter(path -> !path.equals(this.root))
-                    .map(Path::toFile)
-                    .map(File::delete)
-                    .filter(success -> success)
-                    .count();
+        try {
+            return deletions.run(index.names(), this::delete).getDeleted();
         }
-        catch (Exception e) {
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return 0;
         }
     }
 
+    /**
+     * Starts deleting the listed files in the background.
+     */
+    public DeletionJob startDeletion(List<String> filenames) {
+        return deletions.start(filenames, this::delete);
+    }
+
+    /**
+     * Starts deleting the files matching the filters in the background, all files without filters.
+     *
+     * @param prefix beginning of the names, null or empty for any
+     * @param glob glob pattern of the names, null or blank for any
+     */
+    public DeletionJob startDeletion(String prefix, String glob) {
+        return deletions.start(findNames(prefix, glob), this::delete);
+    }
+
+    public Optional<DeletionJob> findDeletion(String id) {
+        return deletions.find(id);
+    }
+
+    /**
+     * @return the background deletions, for the tests waiting for the end of a job
+     */
+    DeletionJobs deletions() {
+        return deletions;
+    }
+
+    public Optional<DeletionJob> cancelDeletion(String id) {
+        return deletions.cancel(id);
+    }
+
     public long count() {
-        try (Stream<Path> walk = Files.walk(this.root, 1)) {
-            return walk
-                    .filter(path -> !path.equals(this.root))
-                    .count();
+        return index.size();
+    }
+
+    public long totalSize() {
+        return index.totalSize();
+    }
+
+    public ContentCache getContentCache() {
+        return cache;
+    }
+
+    /**
+     * A stored file whose content streams hold the shared lock of its name while they are open.
+     * A file stored compressed is decompressed while it is read, unless its stored bytes are asked for.
+     */
+    private class LockedResource extends UrlResource implements Snapshottable {
+
+        private final String filename;
+        private final long decodedSize;
+
+        /**
+         * The stored bytes of the file.
+         */
+        private LockedResource(Path path, String filename) throws MalformedURLException {
+            this(path, filename, -1);
         }
-        catch (Exception e) {
-            return -1;
+
+        /**
+         * @param decodedSize size of the original content of a file stored compressed, -1 if it is stored as it is
+         */
+        private LockedResource(Path path, String filename, long decodedSize) throws MalformedURLException {
+            super(path.toUri());
+            this.filename = filename;
+            this.decodedSize = decodedSize;
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return decodedSize < 0 ? super.contentLength() : decodedSize;
+        }
+
+        /**
+         * The decompressed content is not in the file, it can not be sent by the file.
+         */
+        @Override
+        public boolean isFile() {
+            return decodedSize < 0 && super.isFile();
+        }
+
+        /**
+         * The link is made under the shared lock of the name, it pins a complete content, not one being replaced.
+         */
+        @Override
+        public Optional<File> snapshot() {
+            if (!isFile()) {
+                return Optional.empty();
+            }
+            try (FileLocks.Lease lease = locks.acquireShared(filename)) {
+                return Optional.of(snapshots.link(getFile().toPath()).toFile());
+            }
+            catch (Exception e) {
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public ReadableByteChannel readableChannel() throws IOException {
+            return Channels.newChannel(getInputStream());
+        }
+
+        /**
+         * The shared lock of the name is held while the file is opened only: an open file keeps its content
+         * when the name is deleted or replaced meanwhile, the transfer does not hold back the writers of the stripe.
+         */
+        @Override
+        public InputStream getInputStream() throws IOException {
+            InputStream in;
+            try (FileLocks.Lease lease = locks.acquireShared(filename)) {
+                in = super.getInputStream();
+            }
+            if (decodedSize >= 0) {
+                try {
+                    in = StoredEncoding.decode(in);
+                }
+                catch (IOException | RuntimeException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+            return in;
+        }
+    }
+
+    /**
+     * A stored file served from the content cache.
+     */
+    private static class CachedResource extends AbstractResource {
+
+        private final String filename;
+        private final ContentCache.Content content;
+
+        private CachedResource(String filename, ContentCache.Content content) {
+            this.filename = filename;
+            this.content = content;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return content.size();
+        }
+
+        @Override
+        public long lastModified() {
+            return content.getLastModified();
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public String getDescription() {
+            return "cached file [" + filename + "]";
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return content.newInputStream();
         }
     }
 }
@@ -0,0 +1,324 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+import org.springframework.http.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Concurrent in-memory view of the storage folder.
+ * Lookups, listing and counting are served from memory, the folder is only read
+ * when the whole index is rebuilt or a single entry is reconciled.
+ */
+public class FileIndex {
+
+    private static final Comparator<FileMetadata> BY_NAME =
+            Comparator.comparing(FileMetadata::getName);
+    private static final Comparator<FileMetadata> BY_SIZE =
+            Comparator.comparingLong(FileMetadata::getSize).thenComparing(BY_NAME);
+    private static final Comparator<FileMetadata> BY_MODIFIED =
+            Comparator.comparingLong(FileMetadata::getLastModified).thenComparing(BY_NAME);
+
+    private final Map<String, FileMetadata> entries = new ConcurrentHashMap<>();
+    private final NavigableSet<FileMetadata> byName = new ConcurrentSkipListSet<>(BY_NAME);
+    private final NavigableSet<FileMetadata> bySize = new ConcurrentSkipListSet<>(BY_SIZE);
+    private final NavigableSet<FileMetadata> byModified = new ConcurrentSkipListSet<>(BY_MODIFIED);
+    private final AtomicLong totalSize = new AtomicLong();
+    private final Predicate<String> included;
+    private volatile Listener listener;
+    private volatile boolean storedEncoding;
+
+    public FileIndex() {
+        this(name -> true);
+    }
+
+    /**
+     * @param included tells the names of the stored files from the other files of the folder
+     */
+    public FileIndex(Predicate<String> included) {
+        this.included = included;
+    }
+
+    /**
+     * Sets the listener told about every change of the entries, null for none.
+     */
+    public void listen(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets whether the files may be stored compressed, so their size is to be read from their marks.
+     * Off by default, the folder is scanned without reading the attributes of every file then.
+     */
+    public void readStoredEncoding(boolean storedEncoding) {
+        this.storedEncoding = storedEncoding;
+    }
+
+    public void rebuild(Path root) throws IOException {
+        rebuild(List.of(root));
+    }
+
+    /**
+     * Rebuilds the index from the files of several folders, for the layouts spreading the files over subfolders.
+     * Only the entries present before the scan are removed when their files are not found,
+     * the ones put concurrently during the scan are kept.
+     */
+    public void rebuild(List<Path> directories) throws IOException {
+        Set<String> before = new HashSet<>(entries.keySet());
+        Set<String> found = new HashSet<>();
+        for (Path directory : directories) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    read(path, name).ifPresent(metadata -> {
+                        found.add(name);
+                        putScanned(metadata);
+                    });
+                }
+            }
+        }
+        before.stream()
+                .filter(name -> !found.contains(name))
+                .forEach(this::remove);
+    }
+
+    public Optional<FileMetadata> reconcile(Path root, String name) {
+        Optional<FileMetadata> metadata = read(root.resolve(name), name);
+        metadata.ifPresentOrElse(this::putScanned, () -> remove(name));
+        return metadata.flatMap(scanned -> get(name));
+    }
+
+    public void put(FileMetadata metadata) {
+        put(metadata.getName(), previous -> metadata);
+    }
+
+    /**
+     * Puts the metadata read from a file. The entry keeps its content type, and its checksum
+     * as long as the size and the modification time of the file are the same.
+     * The entry is merged while it is being updated, so a file read before a concurrent save
+     * does not overwrite what the save has recorded.
+     */
+    private void putScanned(FileMetadata scanned) {
+        put(scanned.getName(), previous -> {
+            if (previous == null) {
+                return scanned;
+            }
+            boolean unchanged = previous.getSize() == scanned.getSize() &&
+                    previous.getLastModified() == scanned.getLastModified();
+            return new FileMetadata(
+                    scanned.getName(),
+                    scanned.getSize(),
+                    unchanged ? previous.getCreated() : scanned.getCreated(),
+                    scanned.getLastModified(),
+                    previous.getContentType(),
+                    unchanged ? previous.getChecksum() : null);
+        });
+    }
+
+    /**
+     * The listener is told inside the update of the entry, so it sees the changes of a name in their order.
+     */
+    private void put(String key, UnaryOperator<FileMetadata> update) {
+        entries.compute(key, (name, previous) -> {
+            FileMetadata metadata = update.apply(previous);
+            if (metadata.equals(previous)) {
+                return previous;
+            }
+            if (previous != null) {
+                unlink(previous);
+            }
+            byName.add(metadata);
+            bySize.add(metadata);
+            byModified.add(metadata);
+            totalSize.addAndGet(metadata.getSize());
+            Listener current = listener;
+            if (current != null) {
+                current.put(metadata);
+            }
+            return metadata;
+        });
+    }
+
+    public void remove(String name) {
+        entries.computeIfPresent(name, (key, previous) -> {
+            unlink(previous);
+            Listener current = listener;
+            if (current != null) {
+                current.removed(name);
+            }
+            return null;
+        });
+    }
+
+    private void unlink(FileMetadata metadata) {
+        byName.remove(metadata);
+        bySize.remove(metadata);
+        byModified.remove(metadata);
+        totalSize.addAndGet(-metadata.getSize());
+    }
+
+    public Optional<FileMetadata> get(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+
+    public List<String> names() {
+        return byName.stream()
+                .map(FileMetadata::getName)
+                .toList();
+    }
+
+    /**
+     * @param prefix beginning of the names, null or empty for any
+     * @param glob glob pattern of the names, null or blank for any
+     * @return the names matching both, in ascending order
+     */
+    public List<String> names(String prefix, String glob) {
+        String start = prefix == null ? "" : prefix;
+        PathMatcher matcher = glob == null || glob.isBlank() ?
+                null :
+                FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        NavigableSet<FileMetadata> view = start.isEmpty() ?
+                byName :
+                byName.subSet(probe(start, 0), true, probe(start + Character.MAX_VALUE, 0), false);
+        return view.stream()
+                .map(FileMetadata::getName)
+                .filter(name -> name.startsWith(start))
+                .filter(name -> matcher == null || matcher.matches(Paths.get(name)))
+                .toList();
+    }
+
+    public List<FileMetadata> values() {
+        return List.copyOf(byName);
+    }
+
+    /**
+     * Returns one page of the files in the requested order.
+     * Only the entries of the page (and the ones skipped by the filters) are visited,
+     * the cursor points into the sorted set directly.
+     * A limit of 0 or less gives an empty page without a next cursor, only the total count is told.
+     */
+    public FilePage page(FileQuery query) {
+        if (query.getLimit() <= 0) {
+            return new FilePage(new ArrayList<>(), null, size());
+        }
+        String prefix = query.getPrefix() == null ? "" : query.getPrefix();
+        PathMatcher matcher = query.getGlob() == null || query.getGlob().isBlank() ?
+                null :
+                FileSystems.getDefault().getPathMatcher("glob:" + query.getGlob());
+        NavigableSet<FileMetadata> view = switch (query.getSort()) {
+            case NAME -> prefix.isEmpty() ?
+                    byName :
+                    byName.subSet(probe(prefix, 0), true, probe(prefix + Character.MAX_VALUE, 0), false);
+            case SIZE -> bySize;
+            case MODIFIED -> byModified;
+        };
+        if (query.isDescending()) {
+            view = view.descendingSet();
+        }
+        Optional<FileMetadata> cursor = decodeCursor(query.getAfter());
+        if (cursor.isPresent()) {
+            view = view.tailSet(cursor.get(), false);
+        }
+        List<FileMetadata> files = new ArrayList<>();
+        String nextCursor = null;
+        for (FileMetadata metadata : view) {
+            if (!metadata.getName().startsWith(prefix) ||
+                    matcher != null && !matcher.matches(Paths.get(metadata.getName()))) {
+                continue;
+            }
+            if (files.size() == query.getLimit()) {
+                nextCursor = encodeCursor(files.get(files.size() - 1), query.getSort());
+                break;
+            }
+            files.add(metadata);
+        }
+        return new FilePage(files, nextCursor, size());
+    }
+
+    private static FileMetadata probe(String name, long key) {
+        return new FileMetadata(name, key, key, null);
+    }
+
+    private static String encodeCursor(FileMetadata metadata, SortKey sort) {
+        long key = switch (sort) {
+            case NAME -> 0;
+            case SIZE -> metadata.getSize();
+            case MODIFIED -> metadata.getLastModified();
+        };
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((key + ":" + metadata.getName()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Optional<FileMetadata> decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            return Optional.of(probe(
+                    decoded.substring(separator + 1),
+                    Long.parseLong(decoded.substring(0, separator))));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of the indexed files in bytes
+     */
+    public long totalSize() {
+        return totalSize.get();
+    }
+
+    public void clear() {
+        names().forEach(this::remove);
+    }
+
+    private Optional<FileMetadata> read(Path path, String name) {
+        if (!included.test(name)) {
+            return Optional.empty();
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return Optional.empty();
+            }
+            return Optional.of(new FileMetadata(
+                    name,
+                    (storedEncoding ? StoredEncoding.decodedSize(path) : Optional.<Long>empty())
+                            .orElse(attributes.size()),
+                    attributes.creationTime().toMillis(),
+                    attributes.lastModifiedTime().toMillis(),
+                    MediaTypeFactory.getMediaType(name)
+                            .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                            .toString(),
+                    null));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Told about the changes of the entries.
+     */
+    public interface Listener {
+
+        void put(FileMetadata metadata);
+
+        void removed(String name);
+    }
+}
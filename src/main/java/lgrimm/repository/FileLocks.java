@@ -0,0 +1,88 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Striped read-write locks keyed by file name: opening a file for reading takes its stripe shared,
+ * saving and deleting take it exclusively, names of different stripes never contend.
+ * A reader holds the lock until the file is open only, the open file keeps its content when the name is
+ * deleted or replaced afterwards, so a long transfer does not hold back the other names of the stripe.
+ * The stripes are StampedLocks, so a lease is not owned by a thread. The locks are not reentrant.
+ */
+public class FileLocks {
+
+    private final StampedLock[] stripes;
+    private final long timeoutMillis;
+
+    /**
+     * @param stripes number of stripes, rounded up to a power of two
+     * @param timeout how long an acquisition waits before it gives up
+     */
+    public FileLocks(int stripes, Duration timeout) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new StampedLock[count];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new StampedLock();
+        }
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    public Lease acquireShared(String filename) throws IOException {
+        StampedLock stripe = stripeOf(filename);
+        long stamp = await(() -> stripe.tryReadLock(timeoutMillis, TimeUnit.MILLISECONDS), filename);
+        return new Lease(() -> stripe.unlockRead(stamp));
+    }
+
+    public Lease acquireExclusive(String filename) throws IOException {
+        StampedLock stripe = stripeOf(filename);
+        long stamp = await(() -> stripe.tryWriteLock(timeoutMillis, TimeUnit.MILLISECONDS), filename);
+        return new Lease(() -> stripe.unlockWrite(stamp));
+    }
+
+    private StampedLock stripeOf(String filename) {
+        int hash = filename.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static long await(StampSupplier acquisition, String filename) throws IOException {
+        try {
+            long stamp = acquisition.get();
+            if (stamp == 0) {
+                throw new IOException("Timed out waiting for the lock of " + filename);
+            }
+            return stamp;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lock of " + filename);
+        }
+    }
+
+    private interface StampSupplier {
+        long get() throws InterruptedException;
+    }
+
+    /**
+     * A held lock, released once, by whichever thread closes it first.
+     */
+    public static class Lease implements Closeable {
+
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+}
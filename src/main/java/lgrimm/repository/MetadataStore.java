@@ -0,0 +1,335 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+/**
+ * Keeps the metadata of the stored files across restarts, so a start does not have to read the attributes
+ * of every file. The state is a snapshot plus an append-only log of the changes made since the snapshot.
+ * Compaction sets the log aside and starts a new one, writes the new snapshot meanwhile, and drops the log set aside
+ * once the snapshot is in place; the changes go on being logged while the snapshot is written.
+ * Every log record carries its length and checksum, a record torn by a crash ends the log at the last whole record.
+ */
+public class MetadataStore implements FileIndex.Listener {
+
+    private static final int SNAPSHOT_MAGIC = 0x4d455441;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG = "log";
+    /**
+     * Log set aside by a compaction, its changes are in the snapshot being written.
+     */
+    private static final String COMPACTED_LOG = "log.compacting";
+
+    private final Path directory;
+    private final Durability durability;
+    /**
+     * Held by a compaction from start to end, the monitor of the store only while the log is set aside.
+     */
+    private final Object compaction = new Object();
+    private FileChannel log;
+    private long records;
+
+    public MetadataStore(Path directory, Durability durability) {
+        this.directory = directory;
+        this.durability = durability;
+    }
+
+    /**
+     * Reads the snapshot and replays the logs over it: the one set aside by an interrupted compaction, then the current one.
+     *
+     * @return false if there is nothing stored yet, the files have to be scanned then
+     */
+    public synchronized boolean load(Consumer<FileMetadata> put, Consumer<String> remove) throws IOException {
+        closeLog();
+        Path snapshot = directory.resolve(SNAPSHOT);
+        Path compactedLog = directory.resolve(COMPACTED_LOG);
+        Path logPath = directory.resolve(LOG);
+        if (!Files.exists(snapshot) && !Files.exists(compactedLog) && !Files.exists(logPath)) {
+            return false;
+        }
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 65536))) {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Unknown metadata snapshot format: " + snapshot);
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    put.accept(readMetadata(in));
+                }
+            }
+        }
+        replay(compactedLog, put, remove);
+        records = replay(logPath, put, remove);
+        return true;
+    }
+
+    /**
+     * Replays a log and cuts it at its last whole record.
+     *
+     * @return number of records replayed
+     */
+    private static long replay(Path logPath, Consumer<FileMetadata> put, Consumer<String> remove) throws IOException {
+        if (!Files.exists(logPath)) {
+            return 0;
+        }
+        long count = 0;
+        long end = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath), 65536))) {
+            while (true) {
+                Optional<byte[]> record = readRecord(in);
+                if (record.isEmpty()) {
+                    break;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record.get()));
+                if (fields.readByte() == PUT) {
+                    put.accept(readMetadata(fields));
+                }
+                else {
+                    remove.accept(fields.readUTF());
+                }
+                end += Integer.BYTES + record.get().length + Long.BYTES;
+                count++;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+        }
+        return count;
+    }
+
+    @Override
+    public void put(FileMetadata metadata) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(PUT);
+            writeMetadata(out, metadata);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    @Override
+    public void removed(String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(REMOVE);
+            out.writeUTF(name);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Appends a record. It is handed over to the operating system only, {@link #sync()} puts it on the disk.
+     * A failed append leaves the log as it was, the state is fixed by the next scan of the files.
+     */
+    private synchronized void append(byte[] record) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length + Long.BYTES)
+                    .putInt(record.length)
+                    .put(record)
+                    .putLong(crc.getValue())
+                    .flip();
+            FileChannel channel = log();
+            long position = channel.size();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            catch (IOException e) {
+                channel.truncate(position);
+                throw e;
+            }
+            records++;
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Returns when the appended records are on the disk, according to the fsync policy.
+     */
+    public void sync() throws IOException {
+        Path logPath = directory.resolve(LOG);
+        try {
+            if (Files.exists(logPath)) {
+                durability.sync(logPath);
+            }
+        }
+        catch (NoSuchFileException e) {
+            // set aside by a compaction meanwhile, it has been forced to the disk before
+        }
+    }
+
+    /**
+     * @return number of records in the log since the last compaction
+     */
+    public synchronized long records() {
+        return records;
+    }
+
+    /**
+     * Writes the current state into a new snapshot and empties the log.
+     * The state is taken while no record is being appended, and every change made afterwards goes into the new log,
+     * so no change is lost between the two. The appends wait for taking the state only, not for writing it.
+     * Nothing is written for an empty state when nothing has been stored yet.
+     *
+     * @param state current state, called once
+     */
+    public void compact(Supplier<? extends Collection<FileMetadata>> state) throws IOException {
+        synchronized (compaction) {
+            Collection<FileMetadata> current;
+            synchronized (this) {
+                current = state.get();
+                if (current.isEmpty() && !Files.exists(directory)) {
+                    return;
+                }
+                setLogAside();
+            }
+            writeSnapshot(current);
+            Files.deleteIfExists(directory.resolve(COMPACTED_LOG));
+        }
+    }
+
+    /**
+     * Moves the log aside and starts a new one. The log of an interrupted compaction, set aside already,
+     * is extended with the current one, its changes are older.
+     */
+    private void setLogAside() throws IOException {
+        if (log != null && log.isOpen()) {
+            log.force(true);
+        }
+        closeLog();
+        Files.createDirectories(directory);
+        Path logPath = directory.resolve(LOG);
+        Path compactedLog = directory.resolve(COMPACTED_LOG);
+        if (Files.exists(logPath)) {
+            if (Files.exists(compactedLog)) {
+                try (FileChannel source = FileChannel.open(logPath, StandardOpenOption.READ);
+                     FileChannel target = FileChannel.open(compactedLog, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    long position = 0;
+                    while (position < source.size()) {
+                        position += source.transferTo(position, source.size() - position, target);
+                    }
+                    target.force(true);
+                }
+                Files.delete(logPath);
+            }
+            else {
+                Files.move(logPath, compactedLog, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        log();
+        records = 0;
+    }
+
+    private void writeSnapshot(Collection<FileMetadata> state) throws IOException {
+        Path temp = Files.createTempFile(directory, SNAPSHOT, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(state.size());
+                for (FileMetadata metadata : state) {
+                    writeMetadata(out, metadata);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            durability.sync(directory);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public synchronized void close() {
+        closeLog();
+    }
+
+    private FileChannel log() throws IOException {
+        if (log == null || !log.isOpen()) {
+            Files.createDirectories(directory);
+            log = FileChannel.open(directory.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return log;
+    }
+
+    private void closeLog() {
+        try {
+            if (log != null) {
+                log.close();
+            }
+        }
+        catch (IOException ignored) {
+        }
+        log = null;
+    }
+
+    /**
+     * @return the payload of the next whole record, empty at the end of the log or at a torn or damaged record
+     */
+    private static Optional<byte[]> readRecord(DataInputStream in) {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > 1 << 20) {
+                return Optional.empty();
+            }
+            byte[] record = in.readNBytes(length);
+            if (record.length < length) {
+                return Optional.empty();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return in.readLong() == crc.getValue() ?
+                    Optional.of(record) :
+                    Optional.empty();
+        }
+        catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void writeMetadata(DataOutputStream out, FileMetadata metadata) throws IOException {
+        out.writeUTF(metadata.getName());
+        out.writeLong(metadata.getSize());
+        out.writeLong(metadata.getCreated());
+        out.writeLong(metadata.getLastModified());
+        out.writeUTF(metadata.getContentType() == null ? "" : metadata.getContentType());
+        out.writeUTF(metadata.getChecksum() == null ? "" : metadata.getChecksum());
+    }
+
+    private static FileMetadata readMetadata(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        long size = in.readLong();
+        long created = in.readLong();
+        long lastModified = in.readLong();
+        String contentType = in.readUTF();
+        String checksum = in.readUTF();
+        return new FileMetadata(
+                name,
+                size,
+                created,
+                lastModified,
+                contentType.isEmpty() ? null : contentType,
+                checksum.isEmpty() ? null : checksum);
+    }
+}
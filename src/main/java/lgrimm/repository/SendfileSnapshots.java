@@ -0,0 +1,72 @@
+package lgrimm.repository;
+
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Hard links pinning the content of the files handed over to the container's sendfile support.
+ * The container opens the file by its name after the request has been handled, when the lock of the name
+ * is not held any more: a file deleted or replaced meanwhile would be sent with other bytes than the headers tell.
+ * A link keeps the content of the moment under a name nobody else writes. An opened file keeps its content
+ * when its link is deleted, so a link is kept only as long as the container may take to open it.
+ */
+public class SendfileSnapshots {
+
+    private final Path directory;
+
+    public SendfileSnapshots(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Deletes the links left behind by a previous run.
+     */
+    public void clear() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    /**
+     * @return a new link to the file, named after the time it has been made
+     */
+    public Path link(Path file) throws IOException {
+        Files.createDirectories(directory);
+        return Files.createLink(directory.resolve(System.currentTimeMillis() + "-" + UUID.randomUUID()), file);
+    }
+
+    /**
+     * Deletes the links made longer ago than the retention.
+     *
+     * @return number of deleted links
+     */
+    public long expire(Duration retention) {
+        long limit = System.currentTimeMillis() - retention.toMillis();
+        long deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path link : stream) {
+                if (madeAt(link) < limit && Files.deleteIfExists(link)) {
+                    deleted++;
+                }
+            }
+        }
+        catch (IOException ignored) {
+        }
+        return deleted;
+    }
+
+    /**
+     * @return time the link has been made, 0 for a file not named like a link
+     */
+    private static long madeAt(Path link) {
+        String name = link.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('-')));
+        }
+        catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
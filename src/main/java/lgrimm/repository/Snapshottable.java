@@ -0,0 +1,16 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A stored file which can be handed over to a sender opening it by its name later, like the container's sendfile support.
+ */
+public interface Snapshottable {
+
+    /**
+     * @return a link to the content of the file as it is now, the same bytes even if the file is deleted or replaced
+     * afterwards; kept for a short time only, it is to be opened right away. Empty if it cannot be made.
+     */
+    Optional<File> snapshot();
+}
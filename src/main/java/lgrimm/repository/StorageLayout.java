@@ -0,0 +1,98 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+import java.util.stream.*;
+
+/**
+ * Where the stored files are kept inside the storage root. The flat layout keeps them all in the root,
+ * the sharded one fans them out into a fixed number of levels of subfolders named after bytes of the hash
+ * of the file name (ab/cd/name), so no folder grows beyond a small fraction of the files.
+ */
+public class StorageLayout {
+
+    public static final int MAX_DEPTH = 4;
+    private static final Pattern SHARD_NAME = Pattern.compile("[0-9a-f]{2}");
+
+    private final Path root;
+    private final int depth;
+
+    private StorageLayout(Path root, int depth) {
+        this.root = root;
+        this.depth = depth;
+    }
+
+    public static StorageLayout flat(Path root) {
+        return new StorageLayout(root, 0);
+    }
+
+    /**
+     * @param depth levels of subfolders, 256 folders each, between 1 and 4
+     */
+    public static StorageLayout sharded(Path root, int depth) {
+        return new StorageLayout(root, Math.max(1, Math.min(MAX_DEPTH, depth)));
+    }
+
+    public boolean isSharded() {
+        return depth > 0;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the place of the file in this layout, whether it exists or not
+     */
+    public Path resolve(String filename) {
+        Path directory = root;
+        int hash = mix(filename.hashCode());
+        for (int level = 0; level < depth; level++) {
+            directory = directory.resolve(String.format("%02x", (hash >>> (24 - 8 * level)) & 0xff));
+        }
+        return directory.resolve(filename);
+    }
+
+    /**
+     * @return the folders holding the stored files: the root and the existing shard folders of the last level
+     */
+    public List<Path> directories() throws IOException {
+        List<Path> directories = new ArrayList<>();
+        directories.add(root);
+        if (!isSharded()) {
+            return directories;
+        }
+        try (Stream<Path> walk = Files.walk(root, depth)) {
+            walk
+                    .filter(path -> root.relativize(path).getNameCount() == depth)
+                    .filter(this::isShardPath)
+                    .filter(Files::isDirectory)
+                    .forEach(directories::add);
+        }
+        return directories;
+    }
+
+    private boolean isShardPath(Path path) {
+        for (Path name : root.relativize(path)) {
+            if (!SHARD_NAME.matcher(name.toString()).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of the name's hash code, which is the same on every JVM, so similar names
+     * end up in different shards.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,106 @@
+package lgrimm.repository;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Limits of the storage: total size, number of files and size of a single file. The usage is read from counters
+ * kept up to date by the index, a check costs no scan of the folders. A file being written holds a reservation
+ * of its size until it is in the index, so concurrent saves cannot overshoot the limits together.
+ */
+public class StorageQuota {
+
+    private final long maxTotalSize;
+    private final long maxFiles;
+    private final long maxFileSize;
+    private final LongSupplier usedBytes;
+    private final LongSupplier usedFiles;
+    private long reservedBytes;
+    private long reservedFiles;
+
+    /**
+     * @param maxTotalSize most bytes stored, 0 or less for no limit
+     * @param maxFiles most files stored, 0 or less for no limit
+     * @param maxFileSize largest file, 0 or less for no limit
+     */
+    public StorageQuota(long maxTotalSize, long maxFiles, long maxFileSize, LongSupplier usedBytes, LongSupplier usedFiles) {
+        this.maxTotalSize = maxTotalSize;
+        this.maxFiles = maxFiles;
+        this.maxFileSize = maxFileSize;
+        this.usedBytes = usedBytes;
+        this.usedFiles = usedFiles;
+    }
+
+    public static StorageQuota unlimited() {
+        return new StorageQuota(0, 0, 0, () -> 0, () -> 0);
+    }
+
+    /**
+     * @param size size of the file, negative if it is not known; such a file fits only when the sizes are not limited
+     * @return whether a new file of the size fits into the limits at the moment
+     */
+    public synchronized boolean hasRoomFor(long size) {
+        if (size < 0) {
+            return maxFileSize <= 0 && maxTotalSize <= 0 &&
+                    (maxFiles <= 0 || usedFiles.getAsLong() + reservedFiles + 1 <= maxFiles);
+        }
+        return (maxFileSize <= 0 || size <= maxFileSize) &&
+                (maxTotalSize <= 0 || usedBytes.getAsLong() + reservedBytes + size <= maxTotalSize) &&
+                (maxFiles <= 0 || usedFiles.getAsLong() + reservedFiles + 1 <= maxFiles);
+    }
+
+    /**
+     * Size a new file of an unknown size may reach at the moment, for the writers counting its bytes on the way.
+     *
+     * @return most bytes of a new file, Long.MAX_VALUE if the sizes are not limited; negative if no new file fits
+     */
+    public synchronized long allowance() {
+        if (maxFiles > 0 && usedFiles.getAsLong() + reservedFiles + 1 > maxFiles) {
+            return -1;
+        }
+        long allowance = maxFileSize > 0 ? maxFileSize : Long.MAX_VALUE;
+        if (maxTotalSize > 0) {
+            allowance = Math.min(allowance, maxTotalSize - usedBytes.getAsLong() - reservedBytes);
+        }
+        return allowance;
+    }
+
+    /**
+     * Takes the room of a new file. The reservation is to be closed once the file is in the index, or has failed.
+     *
+     * @return the reservation, empty if the file does not fit
+     */
+    public synchronized Optional<Reservation> reserve(long size) {
+        if (!hasRoomFor(size)) {
+            return Optional.empty();
+        }
+        reservedBytes += Math.max(0, size);
+        reservedFiles++;
+        return Optional.of(new Reservation(Math.max(0, size)));
+    }
+
+    private synchronized void release(long size) {
+        reservedBytes -= size;
+        reservedFiles--;
+    }
+
+    public class Reservation implements AutoCloseable {
+
+        private final long size;
+        private boolean released;
+
+        private Reservation(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public void close() {
+            synchronized (StorageQuota.this) {
+                if (!released) {
+                    released = true;
+                    release(size);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package lgrimm.repository;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Marks of the files stored gzip-compressed. The mark is kept in user-defined attributes of the file itself
+ * (the encoding and the size of the original content), so it goes along with renames and links,
+ * and a file without it is stored as it was uploaded.
+ */
+final class StoredEncoding {
+
+    static final String GZIP = "gzip";
+    private static final String ENCODING_ATTRIBUTE = "storage.encoding";
+    private static final String SIZE_ATTRIBUTE = "storage.size";
+
+    private StoredEncoding() {
+    }
+
+    static boolean isSupported(Path root) {
+        try {
+            return Files.getFileStore(root).supportsFileAttributeView(UserDefinedFileAttributeView.class);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    static OutputStream encode(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192);
+    }
+
+    static InputStream decode(InputStream in) throws IOException {
+        return new GZIPInputStream(in, 8192);
+    }
+
+    /**
+     * Marks a file as gzip-compressed.
+     *
+     * @param size size of the original content
+     */
+    static void mark(Path path, long size) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+        if (view == null) {
+            throw new IOException("User-defined file attributes are not supported here.");
+        }
+        view.write(SIZE_ATTRIBUTE, StandardCharsets.US_ASCII.encode(Long.toString(size)));
+        view.write(ENCODING_ATTRIBUTE, StandardCharsets.US_ASCII.encode(GZIP));
+    }
+
+    /**
+     * @return size of the original content of a file stored compressed, empty if the file is stored as it is
+     */
+    static Optional<Long> decodedSize(Path path) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view == null || !view.list().contains(ENCODING_ATTRIBUTE)) {
+                return Optional.empty();
+            }
+            ByteBuffer size = ByteBuffer.allocate(view.size(SIZE_ATTRIBUTE));
+            view.read(SIZE_ATTRIBUTE, size);
+            return Optional.of(Long.parseLong(StandardCharsets.US_ASCII.decode(size.flip()).toString()));
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+}
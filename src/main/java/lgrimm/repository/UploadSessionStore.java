@@ -0,0 +1,318 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * Sessions of the resumable uploads.
+ * The content of a session goes into a file allocated with the final size, every chunk is written
+ * at its own offset, so chunks may arrive in any order and over several connections at the same time.
+ * The received ranges are kept next to the content, a session outlives dropped connections and restarts.
+ * A range is recorded only once its bytes have been forced to the disk by the fsync policy,
+ * so a crash does not leave a range recorded over bytes that never reached the disk.
+ */
+public class UploadSessionStore {
+
+    private static final String DATA_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".properties";
+
+    private final Path directory;
+    private final Durability durability;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public UploadSessionStore(Path directory) {
+        this(directory, Durability.none());
+    }
+
+    public UploadSessionStore(Path directory, Durability durability) {
+        this.directory = directory;
+        this.durability = durability;
+    }
+
+    /**
+     * Loads the sessions left behind by a previous run.
+     */
+    public void init() throws IOException {
+        sessions.clear();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + STATE_SUFFIX)) {
+            for (Path state : stream) {
+                load(state).ifPresent(session -> sessions.put(session.id, session));
+            }
+        }
+    }
+
+    public UploadSession create(String filename, long size, String contentType) throws IOException {
+        Files.createDirectories(directory);
+        Session session = new Session(UUID.randomUUID().toString(), filename, size, contentType);
+        try (RandomAccessFile file = new RandomAccessFile(session.data.toFile(), "rw")) {
+            file.setLength(size);
+        }
+        session.save();
+        sessions.put(session.id, session);
+        return session.view();
+    }
+
+    public Optional<UploadSession> find(String id) {
+        return Optional.ofNullable(sessions.get(id))
+                .map(Session::view);
+    }
+
+    /**
+     * @return the sessions in progress
+     */
+    public List<UploadSession> findAll() {
+        return sessions.values().stream()
+                .map(Session::view)
+                .toList();
+    }
+
+    /**
+     * Writes a chunk at its offset. The bytes received before a connection is dropped are kept,
+     * only the rest of the chunk has to be sent again.
+     *
+     * @return the session after the write, empty if there is no such session (any more)
+     * @throws IllegalArgumentException if the chunk does not fit into the file
+     * @throws EOFException if the content ended before the given length
+     */
+    public Optional<UploadSession> write(String id, long offset, long length, InputStream content) throws IOException {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return Optional.empty();
+        }
+        if (offset < 0 || length < 0 || offset + length > session.size) {
+            throw new IllegalArgumentException("The chunk does not fit into the file.");
+        }
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                return Optional.empty();
+            }
+            long written = 0;
+            try (FileChannel channel = FileChannel.open(session.data, StandardOpenOption.WRITE);
+                 ReadableByteChannel source = Channels.newChannel(content)) {
+                while (written < length) {
+                    long transferred = channel.transferFrom(source, offset + written, length - written);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    written += transferred;
+                }
+            }
+            finally {
+                if (written > 0) {
+                    durability.sync(session.data);
+                }
+                session.received(offset, written);
+            }
+            if (written < length) {
+                throw new EOFException("The chunk ended after " + written + " of " + length + " bytes.");
+            }
+            return Optional.of(session.view());
+        }
+        finally {
+            session.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the content of a session received completely over to the publisher, and closes the session if it has been published.
+     * The session is not written or cancelled meanwhile. If the content could not be published, the session stays
+     * as it was with its content, so completing can be retried or the session cancelled.
+     *
+     * @param publisher stores the content file, tells the result, empty if it could not be stored;
+     *                  the file may be moved away by a successful publisher only
+     * @return result of the publisher, empty if there is no such session, it is not complete or it could not be published
+     */
+    public <T> Optional<T> complete(String id, Function<Path, Optional<T>> publisher) throws IOException {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return Optional.empty();
+        }
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed || !session.view().isComplete()) {
+                return Optional.empty();
+            }
+            Optional<T> published = publisher.apply(session.data);
+            if (published.isEmpty()) {
+                return Optional.empty();
+            }
+            session.closed = true;
+            sessions.remove(id, session);
+            deleteQuietly(session.data);
+            Files.deleteIfExists(session.state);
+            return published;
+        }
+        finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    public boolean cancel(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                return false;
+            }
+            session.closed = true;
+            sessions.remove(id, session);
+            deleteQuietly(session.state);
+            deleteQuietly(session.data);
+            return true;
+        }
+        finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Cancels the sessions nothing has been received for during the given time.
+     *
+     * @return number of cancelled sessions
+     */
+    public long expire(Duration maxIdle) {
+        long limit = System.currentTimeMillis() - maxIdle.toMillis();
+        return sessions.values().stream()
+                .filter(session -> session.updated < limit)
+                .map(session -> session.id)
+                .toList()
+                .stream()
+                .filter(this::cancel)
+                .count();
+    }
+
+    private Optional<Session> load(Path state) {
+        try (Reader reader = Files.newBufferedReader(state)) {
+            Properties properties = new Properties();
+            properties.load(reader);
+            String name = state.getFileName().toString();
+            Session session = new Session(
+                    name.substring(0, name.length() - STATE_SUFFIX.length()),
+                    properties.getProperty("filename"),
+                    Long.parseLong(properties.getProperty("size")),
+                    properties.getProperty("contentType"));
+            if (!Files.isRegularFile(session.data)) {
+                return Optional.empty();
+            }
+            session.updated = Long.parseLong(properties.getProperty("updated"));
+            for (String range : properties.getProperty("received", "").split(",")) {
+                if (!range.isBlank()) {
+                    int separator = range.indexOf('-');
+                    long start = Long.parseLong(range.substring(0, separator));
+                    session.received.put(start, Long.parseLong(range.substring(separator + 1)));
+                }
+            }
+            return Optional.of(session);
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    private class Session {
+
+        private final String id;
+        private final String filename;
+        private final long size;
+        private final String contentType;
+        private final Path data;
+        private final Path state;
+        /**
+         * Received ranges, start to end (exclusive), merged when they touch.
+         */
+        private final NavigableMap<Long, Long> received = new TreeMap<>();
+        /**
+         * Writers share it, completing and cancelling take it exclusively.
+         */
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private long updated = System.currentTimeMillis();
+        private boolean closed;
+
+        private Session(String id, String filename, long size, String contentType) {
+            this.id = id;
+            this.filename = filename;
+            this.size = size;
+            this.contentType = contentType;
+            this.data = directory.resolve(id + DATA_SUFFIX);
+            this.state = directory.resolve(id + STATE_SUFFIX);
+        }
+
+        private synchronized void received(long offset, long length) throws IOException {
+            updated = System.currentTimeMillis();
+            if (length <= 0) {
+                return;
+            }
+            long start = offset;
+            long end = offset + length;
+            Map.Entry<Long, Long> before = received.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> next = received.ceilingEntry(start);
+            while (next != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                received.remove(next.getKey());
+                next = received.ceilingEntry(start);
+            }
+            received.put(start, end);
+            save();
+        }
+
+        private synchronized void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("filename", filename);
+            properties.setProperty("size", Long.toString(size));
+            properties.setProperty("contentType", contentType);
+            properties.setProperty("updated", Long.toString(updated));
+            StringJoiner ranges = new StringJoiner(",");
+            received.forEach((start, end) -> ranges.add(start + "-" + end));
+            properties.setProperty("received", ranges.toString());
+            Path temp = directory.resolve(id + STATE_SUFFIX + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp)) {
+                properties.store(writer, null);
+            }
+            Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private synchronized UploadSession view() {
+            long total = 0;
+            List<String> missing = new ArrayList<>();
+            long position = 0;
+            for (Map.Entry<Long, Long> range : received.entrySet()) {
+                if (range.getKey() > position) {
+                    missing.add(position + "-" + (range.getKey() - 1));
+                }
+                total += range.getValue() - range.getKey();
+                position = range.getValue();
+            }
+            if (position < size) {
+                missing.add(position + "-" + (size - 1));
+            }
+            return new UploadSession(id, filename, size, contentType, total, missing);
+        }
+    }
+}
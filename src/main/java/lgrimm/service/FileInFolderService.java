@@ -1,27 +1,39 @@
 package lgrimm.service;
 
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.*;
 import lgrimm.datamodel.*;
 import lgrimm.repository.*;
 
 import org.springframework.beans.factory.annotation.*;
 import org.springframework.core.io.*;
+import org.springframework.http.*;
 import org.springframework.stereotype.*;
 
 import java.io.*;
-import java.nio.file.*;
 import java.util.*;
 import java.util.stream.*;
 
 @Service
 public class FileInFolderService {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+
     private final FileInFolderRepository repository;
+    private final FileStorageMetrics metrics;
 
-    @Autowired
     public FileInFolderService(FileInFolderRepository repository) {
+        this(repository, new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public FileInFolderService(FileInFolderRepository repository, MeterRegistry registry) {
         this.repository = repository;
         if (!repository.init("." + File.separator + "uploads", false)) {
             throw new RuntimeException("Could not initialize the file storage!");
         }
+        this.metrics = new FileStorageMetrics(registry, repository);
     }
 
     public Payload newFile() {
@@ -32,123 +44,400 @@ public class FileInFolderService {
     }
 
     public Payload uploadFile(Multipart file, String baseUrl) {
+        return firstPage(
+                saveFile(file).getMessage(),
+                null,
+                baseUrl);
+    }
+
+    public OperationResult saveFile(Multipart file) {
         if (file == null) {
-            return new Payload(
-                    "No file was given.",
-                    null,
-                    convertPathListToFileInfoList(repository.findAll(), baseUrl)
-            );
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "no.file");
+            return new OperationResult(null, false, "No file was given.");
         }
-        String message = repository.save(file)
-                .map(filename -> filename + " file has been successfully uploaded.")
-                .orElseGet(() -> "Could not upload the file: " + file.getOriginalFilename());
-        return new Payload(
-                message,
-                null,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
-        );
+        Timer.Sample sample = metrics.start();
+        Optional<String> saved = repository.save(file);
+        metrics.stop(sample, FileStorageMetrics.OPERATION_UPLOAD, saved.isPresent());
+        if (saved.isPresent()) {
+            metrics.bytesIn(file.getSize());
+            return new OperationResult(saved.get(), true, saved.get() + " file has been successfully uploaded.");
+        }
+        if (repository.exceedsQuota(file.getSize())) {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "quota");
+            return new OperationResult(
+                    file.getOriginalFilename(),
+                    false,
+                    "Could not upload the file, the storage quota has been reached: " + file.getOriginalFilename());
+        }
+        metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "save.failed");
+        return new OperationResult(
+                file.getOriginalFilename(),
+                false,
+                "Could not upload the file: " + file.getOriginalFilename());
+    }
+
+    /**
+     * @return whether a new file of the size would go beyond the storage quota at the moment
+     */
+    public boolean exceedsQuota(long size) {
+        return repository.exceedsQuota(size);
     }
 
     public Payload uploadFiles(List<Multipart> files, String baseUrl) {
         if (files == null || files.size() == 0) {
-            return new Payload(
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD_BATCH, "no.file");
+            return firstPage(
                     null,
                     List.of("No files were given."),
-                    convertPathListToFileInfoList(repository.findAll(), baseUrl)
-            );
+                    baseUrl);
         }
-        files = files.stream()
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-        List<String> saved = repository.saveAll(files).toList();
-        List<String> messages = files.stream()
-                .map(Multipart::getOriginalFilename)
-                .map(filename -> {
-                    if (saved.contains(filename)) {
-                        return filename + ": [Success]";
+        List<String> messages = saveFiles(files).stream()
+                .map(result -> {
+                    if (result.isSuccess()) {
+                        return result.getFilename() + ": [Success]";
                     }
                     else {
-                        return filename + ": [Failed]";
+                        return result.getFilename() + ": [Failed]";
                     }
                 })
                 .collect(Collectors.toList());
         messages.add(0, "Results:");
-        return new Payload(
+        return firstPage(
                 null,
                 messages,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
-        );
+                baseUrl);
     }
 
-    public Payload getFileList(String baseUrl) {
+    /**
+     * @return result of each given file, in the order of the files
+     */
+    public List<OperationResult> saveFiles(List<Multipart> files) {
+        if (files == null || files.size() == 0) {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD_BATCH, "no.file");
+            return new ArrayList<>();
+        }
+        List<Multipart> nonNullFiles = files.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        Timer.Sample sample = metrics.start();
+        Set<String> saved = repository.saveAll(nonNullFiles).collect(Collectors.toSet());
+        metrics.stop(sample, FileStorageMetrics.OPERATION_UPLOAD_BATCH, saved.size() == nonNullFiles.size());
+        metrics.batch(nonNullFiles.size());
+        return nonNullFiles.stream()
+                .map(file -> {
+                    String filename = file.getOriginalFilename();
+                    if (saved.contains(filename)) {
+                        metrics.bytesIn(file.getSize());
+                        return new OperationResult(filename, true, filename + " file has been successfully uploaded.");
+                    }
+                    metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "save.failed");
+                    return new OperationResult(filename, false, "Could not upload the file: " + filename);
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Stores the files of a ZIP archive arriving as a stream.
+     *
+     * @return result of each file entry, in the order of the archive
+     */
+    public List<OperationResult> saveArchive(InputStream archive) {
+        Timer.Sample sample = metrics.start();
+        List<Map.Entry<String, Boolean>> outcomes = repository.saveArchive(archive);
+        boolean allSaved = outcomes.stream().allMatch(Map.Entry::getValue);
+        metrics.stop(sample, FileStorageMetrics.OPERATION_UPLOAD_BATCH, allSaved && !outcomes.isEmpty());
+        if (outcomes.isEmpty()) {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD_BATCH, "no.file");
+            return new ArrayList<>();
+        }
+        metrics.batch(outcomes.size());
+        return outcomes.stream()
+                .map(outcome -> {
+                    String filename = outcome.getKey();
+                    if (outcome.getValue()) {
+                        repository.findMetadataByFilename(filename)
+                                .ifPresent(metadata -> metrics.bytesIn(metadata.getSize()));
+                        return new OperationResult(filename, true, filename + " file has been successfully uploaded.");
+                    }
+                    metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "save.failed");
+                    return new OperationResult(filename, false, "Could not upload the file: " + filename);
+                })
+                .collect(Collectors.toList());
+    }
+
+    public UploadSession createUploadSession(String filename, long size, String contentType) {
+        if (filename == null || filename.isBlank()) {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "no.file");
+            return null;
+        }
+        if (contentType == null || contentType.isBlank()) {
+            contentType = MediaTypeFactory.getMediaType(filename)
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                    .toString();
+        }
+        return repository.createUploadSession(filename, size, contentType)
+                .orElse(null);
+    }
+
+    public UploadSession getUploadSession(String id) {
+        return repository.findUploadSession(id)
+                .orElse(null);
+    }
+
+    /**
+     * @return the session after the chunk has been written, null if the chunk could not be written completely
+     */
+    public UploadSession writeChunk(String id, long offset, long length, InputStream content) {
+        Optional<UploadSession> session = repository.writeChunk(id, offset, length, content);
+        if (session.isPresent()) {
+            metrics.bytesIn(length);
+        }
+        else {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "chunk.failed");
+        }
+        return session.orElse(null);
+    }
+
+    public OperationResult completeUploadSession(String id) {
+        UploadSession session = getUploadSession(id);
+        if (session == null) {
+            return new OperationResult(null, false, "No such upload session: " + id);
+        }
+        if (!session.isComplete()) {
+            return new OperationResult(
+                    session.getFilename(),
+                    false,
+                    "The upload is not complete, missing: " + String.join(", ", session.getMissing()));
+        }
+        Timer.Sample sample = metrics.start();
+        Optional<String> saved = repository.completeUploadSession(id);
+        metrics.stop(sample, FileStorageMetrics.OPERATION_UPLOAD, saved.isPresent());
+        if (saved.isPresent()) {
+            return new OperationResult(saved.get(), true, saved.get() + " file has been successfully uploaded.");
+        }
+        if (repository.exceedsQuota(session.getSize())) {
+            metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "quota");
+            return new OperationResult(
+                    session.getFilename(),
+                    false,
+                    "Could not upload the file, the storage quota has been reached: " + session.getFilename());
+        }
+        metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "save.failed");
+        return new OperationResult(
+                session.getFilename(),
+                false,
+                "Could not upload the file: " + session.getFilename());
+    }
+
+    public boolean cancelUploadSession(String id) {
+        return repository.cancelUploadSession(id);
+    }
+
+    public Payload getFileList(FileQuery query, String baseUrl) {
+        query = normalize(query);
+        FilePage page = findPage(query);
         return new Payload(
                 null,
                 null,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
+                page,
+                query,
+                convertMetadataListToFileInfoList(page.getFiles(), baseUrl)
         );
     }
 
+    public FilePage getFilePage(FileQuery query) {
+        return findPage(normalize(query));
+    }
+
+    private FileQuery normalize(FileQuery query) {
+        if (query == null) {
+            query = new FileQuery(null, null, SortKey.NAME, false, null, DEFAULT_PAGE_SIZE);
+        }
+        if (query.getLimit() <= 0) {
+            query = query.withLimit(DEFAULT_PAGE_SIZE);
+        }
+        else if (query.getLimit() > MAX_PAGE_SIZE) {
+            query = query.withLimit(MAX_PAGE_SIZE);
+        }
+        return query;
+    }
+
+    private FilePage findPage(FileQuery query) {
+        Timer.Sample sample = metrics.start();
+        FilePage page = repository.findPage(query);
+        metrics.stop(sample, FileStorageMetrics.OPERATION_LIST, true);
+        return page;
+    }
+
     public Resource getFile(String filename) {
         if (filename == null || filename.isBlank()) {
+            metrics.failure(FileStorageMetrics.OPERATION_DOWNLOAD, "no.file");
             return null;
         }
-        return repository.getByFilename(filename)
+        Timer.Sample sample = metrics.start();
+        Optional<Resource> resource = repository.getByFilename(filename);
+        metrics.stop(sample, FileStorageMetrics.OPERATION_DOWNLOAD, resource.isPresent());
+        if (resource.isEmpty()) {
+            metrics.failure(FileStorageMetrics.OPERATION_DOWNLOAD, "not.found");
+        }
+        return resource.orElse(null);
+    }
+
+    /**
+     * @return the gzip-compressed copy of a file, null if it is not there yet: it is made in the background then
+     */
+    public Resource getCompressedFile(String filename) {
+        if (filename == null || filename.isBlank()) {
+            return null;
+        }
+        Optional<Resource> variant = repository.findCompressedVariant(filename);
+        if (variant.isEmpty()) {
+            repository.requestCompressedVariant(filename);
+        }
+        return variant.orElse(null);
+    }
+
+    /**
+     * @return names of the files matching the filters, in ascending order
+     */
+    public List<String> findFilenames(String prefix, String glob) {
+        return repository.findNames(prefix, glob);
+    }
+
+    /**
+     * Records the number of bytes a download is sending, once the response has been put together.
+     */
+    public void recordDownload(long bytes) {
+        metrics.bytesOut(bytes);
+    }
+
+    public FileMetadata getFileMetadata(String filename) {
+        if (filename == null || filename.isBlank()) {
+            return null;
+        }
+        return repository.findMetadataByFilename(filename)
                 .orElse(null);
     }
 
     public Payload deleteFile(String filename, String baseUrl) {
+        return firstPage(
+                removeFile(filename).getMessage(),
+                null,
+                baseUrl);
+    }
+
+    public OperationResult removeFile(String filename) {
         if (filename == null || filename.isBlank()) {
-            return new Payload(
-                    "No file was given.",
-                    null,
-                    convertPathListToFileInfoList(repository.findAll(), baseUrl)
-            );
+            metrics.failure(FileStorageMetrics.OPERATION_DELETE, "no.file");
+            return new OperationResult(null, false, "No file was given.");
         }
-        String message;
+        Timer.Sample sample = metrics.start();
         try {
             boolean existed = repository.delete(filename);
+            metrics.stop(sample, FileStorageMetrics.OPERATION_DELETE, existed);
             if (existed) {
-                message = filename + " file has been deleted.";
-            }
-            else {
-                message = filename + " file does not exist!";
+                return new OperationResult(filename, true, filename + " file has been deleted.");
             }
+            metrics.failure(FileStorageMetrics.OPERATION_DELETE, "not.found");
+            return new OperationResult(filename, false, filename + " file does not exist!");
         }
         catch (Exception e) {
-            message = "Could not delete the file: " + filename + ". Error: " + e.getMessage();
+            metrics.stop(sample, FileStorageMetrics.OPERATION_DELETE, false);
+            metrics.failure(FileStorageMetrics.OPERATION_DELETE, e.getClass().getSimpleName());
+            return new OperationResult(
+                    filename,
+                    false,
+                    "Could not delete the file: " + filename + ". Error: " + e.getMessage());
         }
-        return new Payload(
-                message,
-                null,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
-        );
     }
 
     public Payload deleteAllFiles(String baseUrl) {
+        DeletionSummary summary = removeAllFiles();
+        return firstPage(
+                summary.getDeleted() + " of " + summary.getTotal() + " file(s) has been deleted.",
+                null,
+                baseUrl);
+    }
+
+    public DeletionSummary removeAllFiles() {
+        Timer.Sample sample = metrics.start();
         long count = repository.count();
         long deleted = repository.deleteAll();
-        return new Payload(
-                deleted + " of " + count + " file(s) has been deleted.",
-                null,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
-        );
+        metrics.stop(sample, FileStorageMetrics.OPERATION_DELETE_ALL, deleted == count);
+        return new DeletionSummary(deleted, count);
+    }
+
+    /**
+     * Starts deleting files in the background: the listed ones, or the ones matching the filters without a list.
+     *
+     * All the files are deleted by {@link #removeAllFiles()} only, never for a missing selection.
+     *
+     * @param filenames names of the files to delete, null to use the filters
+     * @param prefix beginning of the names, null for any
+     * @param glob glob pattern of the names, null for any
+     * @return the started job, null if neither a list nor a filter is given
+     */
+    public DeletionJob startDeletion(List<String> filenames, String prefix, String glob) {
+        if (filenames != null) {
+            return repository.startDeletion(filenames);
+        }
+        if ((prefix == null || prefix.isEmpty()) && (glob == null || glob.isBlank())) {
+            return null;
+        }
+        return repository.startDeletion(prefix, glob);
+    }
+
+    public DeletionJob getDeletion(String id) {
+        return repository.findDeletion(id)
+                .orElse(null);
+    }
+
+    public DeletionJob cancelDeletion(String id) {
+        return repository.cancelDeletion(id)
+                .orElse(null);
+    }
+
+    /**
+     * Moves the files left in the root by the flat layout into the sharded layout, while the storage stays available.
+     */
+    public MigrationSummary migrateLayout() {
+        return repository.migrateLayout();
     }
 
     public Payload handleMaxSizeException(String baseUrl) {
-        return new Payload(
-                "The selected file (or one of them) is too large!",
+        return firstPage(
+                rejectTooLarge().getMessage(),
                 null,
-                convertPathListToFileInfoList(repository.findAll(), baseUrl)
+                baseUrl);
+    }
+
+    public OperationResult rejectTooLarge() {
+        metrics.failure(FileStorageMetrics.OPERATION_UPLOAD, "too.large");
+        return new OperationResult(null, false, "The selected file (or one of them) is too large!");
+    }
+
+    /**
+     * @return view of a changing operation with the first page of the default listing, the storage is not read as a whole
+     */
+    private Payload firstPage(String message, List<String> messages, String baseUrl) {
+        FileQuery query = normalize(null);
+        FilePage page = findPage(query);
+        return new Payload(
+                message,
+                messages,
+                page,
+                query,
+                convertMetadataListToFileInfoList(page.getFiles(), baseUrl)
         );
     }
 
-    private List<FileInfo> convertPathListToFileInfoList(List<Path> pathList, String baseUrl) {
-        return pathList.stream()
-                .map(path -> {
-                    String filename = path.getFileName().toString();
-                    String url = baseUrl + "/files/" + filename;
-                    return new FileInfo(filename, url);
-                })
+    private List<FileInfo> convertMetadataListToFileInfoList(List<FileMetadata> metadataList, String baseUrl) {
+        return metadataList.stream()
+                .map(metadata -> new FileInfo(
+                        metadata.getName(),
+                        baseUrl + "/files/" + metadata.getName(),
+                        metadata.getSize(),
+                        metadata.getLastModified()))
                 .toList();
     }
 }
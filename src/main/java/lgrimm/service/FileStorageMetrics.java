@@ -0,0 +1,98 @@
+package lgrimm.service;
+
+import io.micrometer.core.instrument.*;
+import lgrimm.repository.*;
+
+/**
+ * Meters of the file storage operations: latency per operation, bytes moved,
+ * failures by cause, files per batch, the size of the storage and the content cache statistics.
+ */
+public class FileStorageMetrics {
+
+    public static final String OPERATION_UPLOAD = "upload";
+    public static final String OPERATION_UPLOAD_BATCH = "upload.batch";
+    public static final String OPERATION_DOWNLOAD = "download";
+    public static final String OPERATION_LIST = "list";
+    public static final String OPERATION_DELETE = "delete";
+    public static final String OPERATION_DELETE_ALL = "delete.all";
+
+    private final MeterRegistry registry;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final DistributionSummary batchFiles;
+
+    public FileStorageMetrics(MeterRegistry registry, FileInFolderRepository repository) {
+        this.registry = registry;
+        this.bytesIn = Counter.builder("storage.bytes.in")
+                .description("Bytes received by uploads")
+                .baseUnit("bytes")
+                .register(registry);
+        this.bytesOut = Counter.builder("storage.bytes.out")
+                .description("Bytes sent by downloads")
+                .baseUnit("bytes")
+                .register(registry);
+        this.batchFiles = DistributionSummary.builder("storage.upload.batch.files")
+                .description("Number of files in a multi-file upload")
+                .baseUnit("files")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("storage.files", repository, FileInFolderRepository::count)
+                .description("Number of stored files")
+                .baseUnit("files")
+                .register(registry);
+        Gauge.builder("storage.size", repository, FileInFolderRepository::totalSize)
+                .description("Total size of the stored files")
+                .baseUnit("bytes")
+                .register(registry);
+        ContentCache cache = repository.getContentCache();
+        FunctionCounter.builder("storage.cache.requests", cache, ContentCache::hits)
+                .description("Downloads looked up in the content cache")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("storage.cache.requests", cache, ContentCache::misses)
+                .description("Downloads looked up in the content cache")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("storage.cache.evictions", cache, ContentCache::evictions)
+                .description("Contents evicted from the content cache to make room")
+                .register(registry);
+        Gauge.builder("storage.cache.size", cache, ContentCache::size)
+                .description("Memory held by the content cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, String operation, boolean success) {
+        sample.stop(Timer.builder("storage.operation")
+                .description("Latency of the file storage operations")
+                .tag("operation", operation)
+                .tag("outcome", success ? "success" : "failure")
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    public void failure(String operation, String cause) {
+        Counter.builder("storage.failures")
+                .description("Failed file storage operations")
+                .tag("operation", operation)
+                .tag("cause", cause)
+                .register(registry)
+                .increment();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    public void batch(int files) {
+        batchFiles.record(files);
+    }
+}
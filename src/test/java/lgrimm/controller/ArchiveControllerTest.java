@@ -0,0 +1,127 @@
+package lgrimm.controller;
+
+import lgrimm.datamodel.*;
+import lgrimm.service.FileInFolderService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+import org.springframework.test.web.servlet.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ArchiveController.class)
+class ArchiveControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @MockBean
+    private FileInFolderService service;
+    String filename1, filename2, filename3, content1;
+    byte[] content2, content3;
+
+    @BeforeEach
+    void setUp() {
+        filename1 = "file1.txt";
+        filename2 = "image.png";
+        filename3 = "movie.mp4";
+        content1 = "content1".repeat(100);
+        content2 = new byte[1000];
+        content3 = new byte[100_000];
+        new Random(1).nextBytes(content2);
+        new Random(2).nextBytes(content3);
+        when(service.getFileMetadata(filename1))
+                .thenReturn(new FileMetadata(filename1, content1.length(), 1_600_000_000_000L, MediaType.TEXT_PLAIN_VALUE));
+        when(service.getFileMetadata(filename2))
+                .thenReturn(new FileMetadata(filename2, content2.length, 1_600_000_000_000L, MediaType.IMAGE_PNG_VALUE));
+        when(service.getFileMetadata(filename3))
+                .thenReturn(new FileMetadata(filename3, content3.length, 1_600_000_000_000L, "video/mp4"));
+        when(service.getFile(filename1))
+                .thenAnswer(invocation -> new ByteArrayResource(content1.getBytes()));
+        when(service.getFile(filename2))
+                .thenAnswer(invocation -> new ByteArrayResource(content2));
+        when(service.getFile(filename3))
+                .thenAnswer(invocation -> new ByteArrayResource(content3));
+    }
+
+    @Test
+    void getArchive_Filter() throws Exception {
+        when(service.findFilenames("file", null))
+                .thenReturn(List.of(filename1));
+
+        byte[] archive = mockMvc
+                .perform(get("/api/archive")
+                        .param("prefix", "file"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(ArchiveController.APPLICATION_ZIP))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\""))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, byte[]> contents = unzip(archive, entries);
+        Assertions.assertEquals(List.of(filename1), List.copyOf(contents.keySet()));
+        Assertions.assertEquals(content1, new String(contents.get(filename1)));
+        Assertions.assertEquals(ZipEntry.DEFLATED, entries.get(filename1).getMethod());
+        verify(service).recordDownload(archive.length);
+    }
+
+    @Test
+    void getArchive_List() throws Exception {
+        byte[] archive = mockMvc
+                .perform(post("/api/archive")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"" + filename2 + "\", \"" + filename3 + "\", \"" + filename2 + "\", \"missing.txt\"]"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, byte[]> contents = unzip(archive, entries);
+        Assertions.assertEquals(List.of(filename2, filename3), List.copyOf(contents.keySet()));
+        Assertions.assertArrayEquals(content2, contents.get(filename2));
+        Assertions.assertArrayEquals(content3, contents.get(filename3));
+        Assertions.assertEquals(ZipEntry.STORED, entries.get(filename2).getMethod());
+        Assertions.assertEquals(ZipEntry.DEFLATED, entries.get(filename3).getMethod());
+        Assertions.assertTrue(archive.length < content2.length + content3.length + 1000);
+        verify(service, never()).getFile("missing.txt");
+    }
+
+    @Test
+    void uploadArchive() throws Exception {
+        when(service.saveArchive(any()))
+                .thenReturn(List.of(
+                        new OperationResult(filename1, true, filename1 + " file has been successfully uploaded."),
+                        new OperationResult("folder/" + filename2, false, "Could not upload the file: folder/" + filename2)));
+
+        mockMvc
+                .perform(post("/api/archive/upload")
+                        .contentType(ArchiveController.APPLICATION_ZIP)
+                        .content(new byte[]{1, 2, 3}))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].filename").value(filename1))
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[1].filename").value("folder/" + filename2))
+                .andExpect(jsonPath("$[1].success").value(false));
+        verify(service).saveArchive(any(InputStream.class));
+    }
+
+    private Map<String, byte[]> unzip(byte[] archive, Map<String, ZipEntry> entries) throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,185 @@
+package lgrimm.controller;
+
+import lgrimm.repository.*;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.*;
+import org.springframework.boot.test.context.*;
+import org.springframework.boot.test.web.server.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.*;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.concurrent.*;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"storage.async.buffer-size=4KB", "storage.execution.max-wait=100ms", "storage.quota.max-file-size=200KB"})
+class AsyncFileServletTest {
+
+    @LocalServerPort
+    int port;
+    @Autowired
+    FileInFolderRepository repository;
+    @Autowired
+    BulkheadInterceptor bulkheads;
+    HttpClient client;
+    String filename;
+    byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        client = HttpClient.newHttpClient();
+        filename = "async-" + UUID.randomUUID() + ".bin";
+        content = new byte[100_000];
+        new Random(1).nextBytes(content);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.delete(filename);
+    }
+
+    @Test
+    void putAndGet() throws Exception {
+        HttpResponse<String> put = client.send(
+                HttpRequest.newBuilder(uri(filename))
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(201, put.statusCode());
+        Assertions.assertEquals(filename + " file has been successfully uploaded.", put.body());
+        Assertions.assertEquals(content.length, repository.findMetadataByFilename(filename).orElseThrow().getSize());
+
+        HttpResponse<byte[]> get = client.send(
+                HttpRequest.newBuilder(uri(filename)).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        Assertions.assertEquals(200, get.statusCode());
+        Assertions.assertArrayEquals(content, get.body());
+        Assertions.assertEquals(
+                MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                get.headers().firstValue(HttpHeaders.CONTENT_TYPE).orElseThrow());
+    }
+
+    @Test
+    void putAndGet_Concurrently() throws Exception {
+        List<String> filenames = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        List<CompletableFuture<HttpResponse<String>>> puts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            filenames.add("async-" + UUID.randomUUID() + ".bin");
+            byte[] bytes = new byte[150_000];
+            new Random(i).nextBytes(bytes);
+            contents.add(bytes);
+            puts.add(client.sendAsync(
+                    HttpRequest.newBuilder(uri(filenames.get(i)))
+                            .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(bytes)))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        try {
+            for (CompletableFuture<HttpResponse<String>> put : puts) {
+                Assertions.assertEquals(201, put.get(30, TimeUnit.SECONDS).statusCode());
+            }
+            List<CompletableFuture<HttpResponse<byte[]>>> gets = new ArrayList<>();
+            for (String name : filenames) {
+                gets.add(client.sendAsync(HttpRequest.newBuilder(uri(name)).GET().build(),
+                        HttpResponse.BodyHandlers.ofByteArray()));
+            }
+            for (int i = 0; i < gets.size(); i++) {
+                HttpResponse<byte[]> get = gets.get(i).get(30, TimeUnit.SECONDS);
+                Assertions.assertEquals(200, get.statusCode());
+                Assertions.assertArrayEquals(contents.get(i), get.body());
+            }
+        }
+        finally {
+            filenames.forEach(repository::delete);
+        }
+    }
+
+    @Test
+    void put_Exists() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(filename))
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                .build();
+        client.send(request, HttpResponse.BodyHandlers.discarding());
+
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        Assertions.assertEquals(409, response.statusCode());
+    }
+
+    @Test
+    void put_WrongFilename() throws Exception {
+        HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri(""))
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+        Assertions.assertEquals(400, response.statusCode());
+    }
+
+    @Test
+    void put_NoPlace() throws Exception {
+        int places = bulkheads.available(Bulkhead.Type.UPLOAD);
+        for (int i = 0; i < places; i++) {
+            Assertions.assertTrue(bulkheads.enter(Bulkhead.Type.UPLOAD, new MockHttpServletResponse()));
+        }
+        try {
+            HttpResponse<Void> response = client.send(
+                    HttpRequest.newBuilder(uri(filename))
+                            .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            Assertions.assertEquals(503, response.statusCode());
+            Assertions.assertTrue(response.headers().firstValue(HttpHeaders.RETRY_AFTER).isPresent());
+            Assertions.assertTrue(repository.findMetadataByFilename(filename).isEmpty());
+        }
+        finally {
+            for (int i = 0; i < places; i++) {
+                bulkheads.leave(Bulkhead.Type.UPLOAD);
+            }
+        }
+    }
+
+    @Test
+    void put_TooLarge() throws Exception {
+        byte[] large = new byte[300_000];
+        HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri(filename))
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(large))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+        Assertions.assertEquals(507, response.statusCode());
+        Assertions.assertTrue(repository.findMetadataByFilename(filename).isEmpty());
+    }
+
+    @Test
+    void put_TooLargeWithoutLength() throws Exception {
+        byte[] large = new byte[300_000];
+        HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri(filename))
+                        .PUT(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(large)))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding());
+        Assertions.assertEquals(507, response.statusCode());
+        Assertions.assertTrue(repository.findMetadataByFilename(filename).isEmpty());
+    }
+
+    @Test
+    void get_NotFound() throws Exception {
+        HttpResponse<Void> response = client.send(
+                HttpRequest.newBuilder(uri(filename)).GET().build(),
+                HttpResponse.BodyHandlers.discarding());
+        Assertions.assertEquals(404, response.statusCode());
+    }
+
+    private URI uri(String filename) {
+        return URI.create("http://localhost:" + port + "/async/files/" + filename);
+    }
+}
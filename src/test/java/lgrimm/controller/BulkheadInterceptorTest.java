@@ -0,0 +1,76 @@
+package lgrimm.controller;
+
+import lgrimm.configuration.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.mock.web.*;
+import org.springframework.web.method.*;
+
+import java.time.*;
+
+class BulkheadInterceptorTest {
+
+    BulkheadInterceptor interceptor;
+    HandlerMethod upload, download, list;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        StorageProperties.Execution properties = new StorageProperties.Execution();
+        properties.setMaxUploads(1);
+        properties.setMaxDownloads(2);
+        properties.setMaxWait(Duration.ofMillis(10));
+        interceptor = new BulkheadInterceptor(properties);
+        Handlers handlers = new Handlers();
+        upload = new HandlerMethod(handlers, Handlers.class.getMethod("upload"));
+        download = new HandlerMethod(handlers, Handlers.class.getMethod("download"));
+        list = new HandlerMethod(handlers, Handlers.class.getMethod("list"));
+    }
+
+    @Test
+    void preHandle_LimitReached() throws Exception {
+        MockHttpServletRequest request1 = new MockHttpServletRequest();
+        MockHttpServletResponse response1 = new MockHttpServletResponse();
+        Assertions.assertTrue(interceptor.preHandle(request1, response1, upload));
+        Assertions.assertEquals(0, interceptor.available(Bulkhead.Type.UPLOAD));
+
+        MockHttpServletRequest request2 = new MockHttpServletRequest();
+        MockHttpServletResponse response2 = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(request2, response2, upload));
+        Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), response2.getStatus());
+        Assertions.assertEquals("1", response2.getHeader(HttpHeaders.RETRY_AFTER));
+
+        Assertions.assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), download));
+        Assertions.assertEquals(1, interceptor.available(Bulkhead.Type.DOWNLOAD));
+
+        interceptor.afterCompletion(request1, response1, upload, null);
+        Assertions.assertEquals(1, interceptor.available(Bulkhead.Type.UPLOAD));
+        interceptor.afterCompletion(request1, response1, upload, null);
+        Assertions.assertEquals(1, interceptor.available(Bulkhead.Type.UPLOAD));
+        Assertions.assertTrue(interceptor.preHandle(request2, new MockHttpServletResponse(), upload));
+    }
+
+    @Test
+    void preHandle_NotLimited() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), list));
+            Assertions.assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new Object()));
+        }
+        Assertions.assertEquals(1, interceptor.available(Bulkhead.Type.UPLOAD));
+        Assertions.assertEquals(2, interceptor.available(Bulkhead.Type.DOWNLOAD));
+        Assertions.assertEquals(16, interceptor.available(Bulkhead.Type.DELETION));
+    }
+
+    static class Handlers {
+
+        @Bulkhead(Bulkhead.Type.UPLOAD)
+        public void upload() {
+        }
+
+        @Bulkhead(Bulkhead.Type.DOWNLOAD)
+        public void download() {
+        }
+
+        public void list() {
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package lgrimm.controller;
+
+import lgrimm.datamodel.*;
+import lgrimm.service.FileInFolderService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.*;
+
+import java.util.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(FileApiController.class)
+class FileApiControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @MockBean
+    private FileInFolderService service;
+    String filename1, filename2, content1;
+
+    @BeforeEach
+    void setUp() {
+        filename1 = "file1.txt";
+        filename2 = "file2.txt";
+        content1 = "content1";
+    }
+
+    @Test
+    void getFiles() throws Exception {
+        FileQuery query = new FileQuery("file", null, SortKey.SIZE, true, null, 10);
+        FilePage page = new FilePage(
+                List.of(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE)),
+                "cursor",
+                2);
+        when(service.getFilePage(query))
+                .thenReturn(page);
+
+        mockMvc
+                .perform(
+                        get("/api/files")
+                                .param("prefix", "file")
+                                .param("sort", "size")
+                                .param("order", "desc")
+                                .param("limit", "10")
+                )
+                .andExpect(status().isOk())
+                .andDo(print())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.files[0].name").value(filename1))
+                .andExpect(jsonPath("$.files[0].size").value(8))
+                .andExpect(jsonPath("$.nextCursor").value("cursor"))
+                .andExpect(jsonPath("$.totalCount").value(2));
+    }
+
+    @Test
+    void getFileMetadata() throws Exception {
+        when(service.getFileMetadata(filename1))
+                .thenReturn(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE));
+
+        mockMvc
+                .perform(get("/api/files/" + filename1))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contentType").value(MediaType.TEXT_PLAIN_VALUE));
+        mockMvc
+                .perform(get("/api/files/" + filename2))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void uploadFile() throws Exception {
+        MockMultipartFile file1 = new MockMultipartFile("file", filename1, MediaType.TEXT_PLAIN_VALUE, content1.getBytes());
+        when(service.saveFile(any()))
+                .thenReturn(new OperationResult(filename1, true, filename1 + " file has been successfully uploaded."));
+
+        mockMvc
+                .perform(multipart("/api/files").file(file1))
+                .andExpect(status().isCreated())
+                .andDo(print())
+                .andExpect(jsonPath("$.filename").value(filename1))
+                .andExpect(jsonPath("$.success").value(true));
+        verify(service, never()).getFileList(any(), any());
+    }
+
+    @Test
+    void uploadFile_FileExists() throws Exception {
+        MockMultipartFile file1 = new MockMultipartFile("file", filename1, MediaType.TEXT_PLAIN_VALUE, content1.getBytes());
+        when(service.saveFile(any()))
+                .thenReturn(new OperationResult(filename1, false, "Could not upload the file: " + filename1));
+        when(service.getFileMetadata(filename1))
+                .thenReturn(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE));
+
+        mockMvc
+                .perform(multipart("/api/files").file(file1))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.success").value(false));
+    }
+
+    @Test
+    void uploadFile_QuotaExceeded() throws Exception {
+        MockMultipartFile file1 = new MockMultipartFile("file", filename1, MediaType.TEXT_PLAIN_VALUE, content1.getBytes());
+        when(service.saveFile(any()))
+                .thenReturn(new OperationResult(filename1, false, "Could not upload the file, the storage quota has been reached: " + filename1));
+        when(service.exceedsQuota(content1.length()))
+                .thenReturn(true);
+
+        mockMvc
+                .perform(multipart("/api/files").file(file1))
+                .andExpect(status().isInsufficientStorage())
+                .andExpect(jsonPath("$.success").value(false));
+    }
+
+    @Test
+    void uploadFiles() throws Exception {
+        MockMultipartFile file1 = new MockMultipartFile("files", filename1, MediaType.TEXT_PLAIN_VALUE, content1.getBytes());
+        MockMultipartFile file2 = new MockMultipartFile("files", filename2, MediaType.TEXT_PLAIN_VALUE, content1.getBytes());
+        when(service.saveFiles(argThat(files -> files.size() == 2)))
+                .thenReturn(List.of(
+                        new OperationResult(filename1, true, filename1 + " file has been successfully uploaded."),
+                        new OperationResult(filename2, false, "Could not upload the file: " + filename2)));
+
+        mockMvc
+                .perform(multipart("/api/files/batch").file(file1).file(file2))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[1].filename").value(filename2))
+                .andExpect(jsonPath("$[1].success").value(false));
+    }
+
+    @Test
+    void deleteFile() throws Exception {
+        when(service.removeFile(filename1))
+                .thenReturn(new OperationResult(filename1, true, filename1 + " file has been deleted."));
+        when(service.removeFile(filename2))
+                .thenReturn(new OperationResult(filename2, false, filename2 + " file does not exist!"));
+
+        mockMvc
+                .perform(delete("/api/files/" + filename1))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value(filename1 + " file has been deleted."));
+        mockMvc
+                .perform(delete("/api/files/" + filename2))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void deleteAllFiles() throws Exception {
+        when(service.removeAllFiles())
+                .thenReturn(new DeletionSummary(1, 2));
+
+        mockMvc
+                .perform(delete("/api/files"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted").value(1))
+                .andExpect(jsonPath("$.total").value(2));
+    }
+
+    @Test
+    void migrateLayout() throws Exception {
+        when(service.migrateLayout())
+                .thenReturn(new MigrationSummary(3, 1));
+
+        mockMvc
+                .perform(post("/api/files/layout"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.moved").value(3))
+                .andExpect(jsonPath("$.remaining").value(1));
+    }
+
+    @Test
+    void startDeletion() throws Exception {
+        when(service.startDeletion(List.of(filename1, filename2), null, null))
+                .thenReturn(new DeletionJob("id1", JobState.RUNNING, 2, 0, 0));
+        when(service.startDeletion(null, "file", "*.txt"))
+                .thenReturn(new DeletionJob("id2", JobState.RUNNING, 5, 0, 0));
+
+        mockMvc
+                .perform(post("/api/files/deletions")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[\"" + filename1 + "\", \"" + filename2 + "\"]"))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/api/files/deletions/id1"))
+                .andExpect(jsonPath("$.state").value("RUNNING"))
+                .andExpect(jsonPath("$.total").value(2));
+        mockMvc
+                .perform(post("/api/files/deletions")
+                        .param("prefix", "file")
+                        .param("glob", "*.txt"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").value("id2"));
+    }
+
+    @Test
+    void startDeletion_NoSelection() throws Exception {
+        mockMvc
+                .perform(post("/api/files/deletions"))
+                .andExpect(status().isBadRequest());
+        verify(service, never()).removeAllFiles();
+    }
+
+    @Test
+    void getAndCancelDeletion() throws Exception {
+        when(service.getDeletion("id1"))
+                .thenReturn(new DeletionJob("id1", JobState.COMPLETED, 2, 1, 1));
+        when(service.cancelDeletion("id1"))
+                .thenReturn(new DeletionJob("id1", JobState.COMPLETED, 2, 1, 1));
+
+        mockMvc
+                .perform(get("/api/files/deletions/id1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deleted").value(1))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.done").value(true));
+        mockMvc
+                .perform(get("/api/files/deletions/id2"))
+                .andExpect(status().isNotFound());
+        mockMvc
+                .perform(delete("/api/files/deletions/id1"))
+                .andExpect(status().isOk());
+        mockMvc
+                .perform(delete("/api/files/deletions/id2"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -1,22 +1,25 @@
 package lgrimm.controller;
 
-import lgrimm.datamodel.FileInfo;
-import lgrimm.datamodel.Multipart;
-import lgrimm.datamodel.Payload;
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
 import lgrimm.service.FileInFolderService;
 import org.junit.jupiter.api.*;
+import org.mockito.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.core.io.*;
-import org.springframework.http.MediaType;
+import org.springframework.http.*;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.*;
+import org.springframework.util.FileSystemUtils;
 
-import java.io.File;
+import java.io.*;
 import java.nio.file.*;
-import java.util.List;
+import java.util.*;
+import java.util.zip.*;
 
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -102,7 +105,7 @@ class FileInFolderControllerTest {
                 filename1 + " file has been successfully uploaded.",
                 null,
                 fileInfoList);
-        when(service.uploadFile(multipartOfFile1, baseUrl))
+        when(service.uploadFile(argThat(sameMultipart(multipartOfFile1)), eq(baseUrl)))
                 .thenReturn(sentPayload);
 
         mockMvc.perform(
@@ -136,8 +139,10 @@ class FileInFolderControllerTest {
                 null,
                 messages,
                 fileInfoList);
-        List<Multipart> multiparts = List.of(multipartOfFiles1, multipartOfFiles2);
-        when(service.uploadFiles(multiparts, baseUrl))
+        when(service.uploadFiles(argThat(multiparts -> multiparts.size() == 2 &&
+                        sameMultipart(multipartOfFiles1).matches(multiparts.get(0)) &&
+                        sameMultipart(multipartOfFiles2).matches(multiparts.get(1))),
+                eq(baseUrl)))
                 .thenReturn(sentPayload);
 
         mockMvc.perform(
@@ -160,7 +165,8 @@ class FileInFolderControllerTest {
                 null,
                 fileInfoList
         );
-        when(service.getFileList(baseUrl))
+        FileQuery defaultQuery = new FileQuery(null, null, SortKey.NAME, false, null, 0);
+        when(service.getFileList(defaultQuery, baseUrl))
                 .thenReturn(sentPayload);
 
         mockMvc
@@ -184,6 +190,33 @@ class FileInFolderControllerTest {
                 .andExpect(model().attribute("payload", sentPayload));
     }
 
+    @Test
+    void getListFiles_Query() throws Exception {
+        Payload sentPayload = new Payload(
+                null,
+                null,
+                List.of(fileInfo2)
+        );
+        FileQuery query = new FileQuery("file", "*.txt", SortKey.SIZE, true, "cursor", 10);
+        when(service.getFileList(query, baseUrl))
+                .thenReturn(sentPayload);
+
+        mockMvc
+                .perform(
+                        get("/files")
+                                .queryParam("prefix", "file")
+                                .queryParam("glob", "*.txt")
+                                .queryParam("sort", "size")
+                                .queryParam("order", "desc")
+                                .queryParam("after", "cursor")
+                                .queryParam("limit", "10")
+                )
+                .andExpect(status().isOk())
+                .andDo(print())
+                .andExpect(view().name("file_list"))
+                .andExpect(model().attribute("payload", sentPayload));
+    }
+
     @Test
     void getFile() throws Exception {
         String rootName = "." + File.separator + "init_test100";
@@ -211,6 +244,185 @@ class FileInFolderControllerTest {
         Assertions.assertTrue(rootFolder.delete());
     }
 
+    @Test
+    void getFile_Sendfile() throws Exception {
+        String rootName = "." + File.separator + "init_test101";
+        Path rootPath = Paths.get(rootName);
+        File rootFolder = rootPath.toFile();
+        Assertions.assertEquals(rootPath, Files.createDirectories(rootPath));
+        Path path = rootPath.resolve(filename1);
+        File file = path.toFile();
+        file.delete();
+        byte[] content = new byte[64 * 1024];
+        Assertions.assertEquals(path, Files.write(path, content));
+        Path snapshot = rootPath.resolve("snapshot");
+        Resource resource = new SnapshottableResource(path, snapshot);
+        when(service.getFile(filename1))
+                .thenReturn(resource);
+
+        MvcResult result = mockMvc
+                .perform(
+                        get("/files/" + filename1)
+                                .requestAttr("org.apache.tomcat.sendfile.support", true)
+                )
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, content.length))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", snapshot.toFile().getCanonicalPath()))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.start", 0L))
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.end", (long) content.length))
+                .andReturn();
+        Assertions.assertEquals(0, result.getResponse().getContentAsByteArray().length);
+
+        // without a snapshot the file could change before the container opens it by its name
+        when(service.getFile(filename1))
+                .thenReturn(new UrlResource(path.toUri()));
+        result = mockMvc
+                .perform(
+                        get("/files/" + filename1)
+                                .requestAttr("org.apache.tomcat.sendfile.support", true)
+                )
+                .andExpect(status().isOk())
+                .andExpect(request().attribute("org.apache.tomcat.sendfile.filename", (Object) null))
+                .andReturn();
+        Assertions.assertEquals(content.length, result.getResponse().getContentAsByteArray().length);
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootFolder));
+    }
+
+    @Test
+    void getFile_ConditionalAndRanges() throws Exception {
+        String rootName = "." + File.separator + "init_test102";
+        Path rootPath = Paths.get(rootName);
+        File rootFolder = rootPath.toFile();
+        Assertions.assertEquals(rootPath, Files.createDirectories(rootPath));
+        Path path = rootPath.resolve(filename1);
+        File file = path.toFile();
+        file.delete();
+        String content = "0123456789";
+        Assertions.assertEquals(path, Files.write(path, content.getBytes()));
+        Resource resource = new UrlResource(path.toUri());
+        FileMetadata metadata = new FileMetadata(filename1, content.length(), 1_600_000_000_000L, MediaType.TEXT_PLAIN_VALUE);
+        String eTag = "\"a-" + Long.toHexString(metadata.getLastModified()) + "\"";
+        when(service.getFile(filename1))
+                .thenReturn(resource);
+        when(service.getFileMetadata(filename1))
+                .thenReturn(metadata);
+
+        mockMvc
+                .perform(get("/files/" + filename1))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().dateValue(HttpHeaders.LAST_MODIFIED, metadata.getLastModified()))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+                .andExpect(content().string(content));
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.IF_MODIFIED_SINCE, "Sun, 13 Sep 2020 12:26:40 GMT"))
+                .andExpect(status().isNotModified());
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.RANGE, "bytes=2-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-4/10"))
+                .andExpect(content().string("234"));
+
+        MvcResult multiRange = mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.RANGE, "bytes=0-1,8-9"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().contentTypeCompatibleWith("multipart/byteranges"))
+                .andReturn();
+        String body = multiRange.getResponse().getContentAsString();
+        Assertions.assertTrue(body.contains("Content-Range: bytes 0-1/10"));
+        Assertions.assertTrue(body.contains("Content-Range: bytes 8-9/10"));
+
+        mockMvc
+                .perform(get("/files/" + filename1)
+                        .header(HttpHeaders.RANGE, "bytes=2-4")
+                        .header(HttpHeaders.IF_RANGE, "\"outdated\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(content));
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.RANGE, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+        Assertions.assertTrue(file.delete());
+        Assertions.assertTrue(rootFolder.delete());
+    }
+
+    @Test
+    void getFile_Compressed() throws Exception {
+        String rootName = "." + File.separator + "init_test103";
+        Path rootPath = Paths.get(rootName);
+        File rootFolder = rootPath.toFile();
+        Assertions.assertEquals(rootPath, Files.createDirectories(rootPath));
+        Path path = rootPath.resolve(filename1);
+        Path variantPath = rootPath.resolve(filename1 + ".gz");
+        String content = "0123456789".repeat(200);
+        Assertions.assertEquals(path, Files.write(path, content.getBytes()));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(variantPath))) {
+            out.write(content.getBytes());
+        }
+        FileMetadata metadata = new FileMetadata(filename1, content.length(), 1_600_000_000_000L, MediaType.TEXT_PLAIN_VALUE);
+        String eTag = "\"7d0-" + Long.toHexString(metadata.getLastModified()) + "-gzip\"";
+        when(service.getFile(filename1))
+                .thenReturn(new UrlResource(path.toUri()));
+        when(service.getFileMetadata(filename1))
+                .thenReturn(metadata);
+
+        MvcResult onTheFly = mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.ACCEPT_ENCODING, "br;q=1.0, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+                .andReturn();
+        Assertions.assertEquals(content, gunzip(onTheFly.getResponse().getContentAsByteArray()));
+
+        when(service.getCompressedFile(filename1))
+                .thenReturn(new UrlResource(variantPath.toUri()));
+        MvcResult precompressed = mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.ACCEPT_ENCODING, "*"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, Files.size(variantPath)))
+                .andReturn();
+        Assertions.assertEquals(content, gunzip(precompressed.getResponse().getContentAsByteArray()));
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.ACCEPT_ENCODING, "gzip").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        mockMvc
+                .perform(get("/files/" + filename1).header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(content().string(content));
+
+        mockMvc
+                .perform(get("/files/" + filename1)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.RANGE, "bytes=2-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(content().string("234"));
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootFolder));
+    }
+
+    private static String gunzip(byte[] encoded) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            return new String(in.readAllBytes());
+        }
+    }
+
     @Test
     void deleteFile() throws Exception {
         List<FileInfo> fileInfoList = List.of(fileInfo2);
@@ -255,4 +467,46 @@ class FileInFolderControllerTest {
                 .andExpect(model().size(1))
                 .andExpect(model().attribute("payload", sentPayload));
     }
+
+    private static ArgumentMatcher<Multipart> sameMultipart(Multipart expected) {
+        return actual -> {
+            if (actual == null) {
+                return false;
+            }
+            try (InputStream expectedContent = expected.getInputStream();
+                 InputStream actualContent = actual.getInputStream()) {
+                return expected.getName().equals(actual.getName()) &&
+                        expected.getOriginalFilename().equals(actual.getOriginalFilename()) &&
+                        expected.getContentType().equals(actual.getContentType()) &&
+                        expected.getSize() == actual.getSize() &&
+                        Arrays.equals(expectedContent.readAllBytes(), actualContent.readAllBytes());
+            }
+            catch (IOException e) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A stored file as the repository gives it, its snapshot is a hard link made on demand.
+     */
+    private static class SnapshottableResource extends FileSystemResource implements Snapshottable {
+
+        private final Path snapshot;
+
+        SnapshottableResource(Path path, Path snapshot) {
+            super(path);
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Optional<File> snapshot() {
+            try {
+                return Optional.of(Files.createLink(snapshot, getFile().toPath()).toFile());
+            }
+            catch (IOException e) {
+                return Optional.empty();
+            }
+        }
+    }
 }
\ No newline at end of file
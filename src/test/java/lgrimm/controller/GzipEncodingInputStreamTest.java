@@ -0,0 +1,56 @@
+package lgrimm.controller;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+class GzipEncodingInputStreamTest {
+
+    @Test
+    void read_DecodesToSource() throws IOException {
+        byte[] content = "content1 content1 content1 content2".repeat(1000).getBytes();
+
+        Assertions.assertArrayEquals(content, roundTrip(content));
+    }
+
+    @Test
+    void read_Empty() throws IOException {
+        Assertions.assertArrayEquals(new byte[0], roundTrip(new byte[0]));
+    }
+
+    @Test
+    void read_Incompressible() throws IOException {
+        byte[] content = new byte[200_000];
+        new Random(1).nextBytes(content);
+
+        Assertions.assertArrayEquals(content, roundTrip(content));
+    }
+
+    @Test
+    void read_ByteByByte() throws IOException {
+        byte[] content = "content1".repeat(100).getBytes();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (InputStream in = new GzipEncodingInputStream(new ByteArrayInputStream(content))) {
+            int read;
+            while ((read = in.read()) >= 0) {
+                encoded.write(read);
+            }
+        }
+
+        try (InputStream decoded = new GZIPInputStream(new ByteArrayInputStream(encoded.toByteArray()))) {
+            Assertions.assertArrayEquals(content, decoded.readAllBytes());
+        }
+    }
+
+    private static byte[] roundTrip(byte[] content) throws IOException {
+        byte[] encoded;
+        try (InputStream in = new GzipEncodingInputStream(new ByteArrayInputStream(content))) {
+            encoded = in.readAllBytes();
+        }
+        try (InputStream decoded = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            return decoded.readAllBytes();
+        }
+    }
+}
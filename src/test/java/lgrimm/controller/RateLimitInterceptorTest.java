@@ -0,0 +1,239 @@
+package lgrimm.controller;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.simple.*;
+import jakarta.servlet.*;
+import jakarta.servlet.http.*;
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
+import org.junit.jupiter.api.*;
+import org.springframework.core.io.*;
+import org.springframework.http.*;
+import org.springframework.mock.web.*;
+import org.springframework.util.unit.*;
+import org.springframework.web.method.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+class RateLimitInterceptorTest {
+
+    AtomicLong now;
+    MeterRegistry registry;
+    RateLimitInterceptor interceptor;
+    List<Long> pauses;
+    HandlerMethod upload, download, deletion;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        StorageProperties.RateLimit properties = new StorageProperties.RateLimit();
+        properties.setEnabled(true);
+        properties.setClientBandwidth(DataSize.ofKilobytes(1));
+        properties.setGlobalBandwidth(DataSize.ofKilobytes(2));
+        properties.setBurst(Duration.ofSeconds(1));
+        properties.setClientConcurrency(2);
+        properties.setMaxDelay(Duration.ZERO);
+        now = new AtomicLong();
+        registry = new SimpleMeterRegistry();
+        pauses = new CopyOnWriteArrayList<>();
+        interceptor = new RateLimitInterceptor(properties, registry, now::get, pauses::add);
+        Handlers handlers = new Handlers();
+        upload = new HandlerMethod(handlers, Handlers.class.getMethod("upload"));
+        download = new HandlerMethod(handlers, Handlers.class.getMethod("download"));
+        deletion = new HandlerMethod(handlers, Handlers.class.getMethod("deletion"));
+    }
+
+    @Test
+    void preHandle_ClientConcurrency() throws Exception {
+        MockHttpServletRequest request1 = request("10.0.0.1");
+        Assertions.assertTrue(interceptor.preHandle(request1, new MockHttpServletResponse(), download));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), download));
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(request("10.0.0.1"), rejected, download));
+        Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+        Assertions.assertEquals("1", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.2"), new MockHttpServletResponse(), download));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), deletion));
+
+        interceptor.afterCompletion(request1, new MockHttpServletResponse(), download, null);
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), download));
+        Assertions.assertEquals(1, registry.get("storage.ratelimit.requests")
+                .tag("result", "rejected")
+                .tag("reason", "concurrency")
+                .counter().count());
+        Assertions.assertEquals(3, registry.get("storage.ratelimit.in.flight").gauge().value());
+    }
+
+    @Test
+    void preHandle_ClientBandwidth() throws Exception {
+        MockHttpServletRequest uploadRequest = request("10.0.0.1");
+        uploadRequest.setContent(new byte[3072]);
+        transfer(uploadRequest, upload, (request, response) ->
+                Assertions.assertEquals(3072, request.getInputStream().readAllBytes().length));
+        Assertions.assertEquals(1, pauses.size());
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(2), pauses.get(0), 1e6);
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        Assertions.assertFalse(interceptor.preHandle(request("10.0.0.1"), rejected, download));
+        Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+        Assertions.assertEquals("2", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+        Assertions.assertTrue(registry.get("storage.ratelimit.tokens").gauge().value() < 0);
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.2"), new MockHttpServletResponse(), download));
+        Assertions.assertEquals(1, registry.get("storage.ratelimit.requests")
+                .tag("result", "rejected")
+                .tag("reason", "bandwidth")
+                .counter().count());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.1"), new MockHttpServletResponse(), download));
+    }
+
+    @Test
+    void doFilter_PacesDownload() throws Exception {
+        transfer(request("10.0.0.1"), download, (request, response) -> {
+            OutputStream output = response.getOutputStream();
+            output.write(new byte[20_000]);
+            output.write(new byte[480]);
+        });
+        Assertions.assertEquals(4, pauses.size());
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(19), pauses.get(3), 1e6);
+        Assertions.assertEquals(4, registry.get("storage.ratelimit.delay").timer().count());
+    }
+
+    @Test
+    void doFilter_PacesLargeDownloadWithoutSendfile() throws Exception {
+        Path file = Files.createTempFile("ratelimit", ".bin");
+        try {
+            byte[] content = new byte[64 * 1024];
+            Files.write(file, content);
+            Resource resource = new SnapshottableResource(file);
+            FileMetadata metadata = new FileMetadata("ratelimit.bin", content.length, 1_600_000_000_000L,
+                    MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            DownloadHandler handler = new DownloadHandler(new StorageProperties());
+            MockHttpServletRequest downloadRequest = request("10.0.0.1");
+            downloadRequest.setAttribute("org.apache.tomcat.sendfile.support", true);
+            transfer(downloadRequest, download, (request, response) -> {
+                ResponseEntity<?> entity = handler.download(resource, metadata, request, response);
+                Assertions.assertNull(request.getAttribute("org.apache.tomcat.sendfile.filename"));
+                try (InputStream body = ((Resource) entity.getBody()).getInputStream()) {
+                    body.transferTo(response.getOutputStream());
+                }
+            });
+            Assertions.assertEquals(8, pauses.size());
+            Assertions.assertEquals(TimeUnit.SECONDS.toNanos(63), pauses.get(7), 1e6);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void doFilter_PacesParts() throws Exception {
+        MockHttpServletRequest uploadRequest = request("10.0.0.1");
+        uploadRequest.setContent(new byte[2048]);
+        uploadRequest.addPart(new MockPart("file", new byte[2000]));
+        transfer(uploadRequest, upload, (request, response) -> {
+            try {
+                Assertions.assertEquals(1, request.getParts().size());
+                Assertions.assertEquals(1, request.getParts().size());
+            }
+            catch (ServletException e) {
+                throw new IOException(e);
+            }
+        });
+        Assertions.assertEquals(1, pauses.size());
+        Assertions.assertEquals(TimeUnit.SECONDS.toNanos(1), pauses.get(0), 1e6);
+    }
+
+    @Test
+    void doFilter_NotAdmitted() throws Exception {
+        MockHttpServletRequest deletionRequest = request("10.0.0.1");
+        deletionRequest.setContent(new byte[3072]);
+        transfer(deletionRequest, deletion, (request, response) -> {
+            Assertions.assertEquals(3072, request.getInputStream().readAllBytes().length);
+            response.getOutputStream().write(new byte[3072]);
+        });
+        Assertions.assertEquals(List.of(), pauses);
+        Assertions.assertEquals(2048, registry.get("storage.ratelimit.tokens").gauge().value(), 0.001);
+    }
+
+    @Test
+    void sweep_ForgetsIdleClients() throws Exception {
+        MockHttpServletRequest request1 = request("10.0.0.1");
+        Assertions.assertTrue(interceptor.preHandle(request1, new MockHttpServletResponse(), download));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.2"), new MockHttpServletResponse(), download));
+        interceptor.afterCompletion(request1, new MockHttpServletResponse(), download, null);
+        Assertions.assertEquals(2, interceptor.clients());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        Assertions.assertTrue(interceptor.preHandle(request("10.0.0.3"), new MockHttpServletResponse(), download));
+        Assertions.assertEquals(2, interceptor.clients());
+    }
+
+    /**
+     * Runs the transfer through the filter and the interceptor, the way the dispatcher does.
+     */
+    private void transfer(MockHttpServletRequest request, HandlerMethod handler, Transfer transfer) throws Exception {
+        interceptor.doFilter(request, new MockHttpServletResponse(), (pacedRequest, pacedResponse) -> {
+            HttpServletRequest httpRequest = (HttpServletRequest) pacedRequest;
+            HttpServletResponse httpResponse = (HttpServletResponse) pacedResponse;
+            try {
+                Assertions.assertTrue(interceptor.preHandle(httpRequest, httpResponse, handler));
+                transfer.run(httpRequest, httpResponse);
+                interceptor.afterCompletion(httpRequest, httpResponse, handler, null);
+            }
+            catch (IOException | ServletException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new ServletException(e);
+            }
+        });
+    }
+
+    interface Transfer {
+
+        void run(HttpServletRequest request, HttpServletResponse response) throws IOException;
+    }
+
+    private static MockHttpServletRequest request(String address) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(address);
+        return request;
+    }
+
+    /**
+     * A stored file as the repository gives it, one sendfile would take; it is its own snapshot.
+     */
+    private static class SnapshottableResource extends FileSystemResource implements Snapshottable {
+
+        SnapshottableResource(Path path) {
+            super(path);
+        }
+
+        @Override
+        public Optional<File> snapshot() {
+            return Optional.of(getFile());
+        }
+    }
+
+    static class Handlers {
+
+        @Bulkhead(Bulkhead.Type.UPLOAD)
+        public void upload() {
+        }
+
+        @Bulkhead(Bulkhead.Type.DOWNLOAD)
+        public void download() {
+        }
+
+        @Bulkhead(Bulkhead.Type.DELETION)
+        public void deletion() {
+        }
+    }
+}
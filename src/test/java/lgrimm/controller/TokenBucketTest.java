@@ -0,0 +1,42 @@
+package lgrimm.controller;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+class TokenBucketTest {
+
+    AtomicLong now;
+    TokenBucket bucket;
+
+    @BeforeEach
+    void setUp() {
+        now = new AtomicLong(1_000);
+        bucket = new TokenBucket(1000, 2000, now::get);
+    }
+
+    @Test
+    void take_Debt() {
+        Assertions.assertEquals(0, bucket.waitNanos());
+        bucket.take(1500);
+        Assertions.assertEquals(0, bucket.waitNanos());
+        bucket.take(1000);
+        Assertions.assertEquals(-500, bucket.tokens(), 0.001);
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.waitNanos());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(300), bucket.waitNanos());
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(300));
+        Assertions.assertEquals(0, bucket.waitNanos());
+        Assertions.assertFalse(bucket.isFull());
+    }
+
+    @Test
+    void refill_UpToCapacity() {
+        bucket.take(2000);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assertions.assertTrue(bucket.isFull());
+        Assertions.assertEquals(2000, bucket.tokens(), 0.001);
+    }
+}
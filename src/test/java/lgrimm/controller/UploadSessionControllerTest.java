@@ -0,0 +1,162 @@
+package lgrimm.controller;
+
+import lgrimm.datamodel.*;
+import lgrimm.service.FileInFolderService;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.*;
+import org.springframework.test.web.servlet.*;
+
+import java.util.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(UploadSessionController.class)
+class UploadSessionControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @MockBean
+    private FileInFolderService service;
+    UploadSession session;
+
+    @BeforeEach
+    void setUp() {
+        session = new UploadSession("id1", "file1.bin", 10, MediaType.APPLICATION_OCTET_STREAM_VALUE, 0, List.of("0-9"));
+    }
+
+    @Test
+    void createSession() throws Exception {
+        when(service.createUploadSession("file1.bin", 10, null))
+                .thenReturn(session);
+
+        mockMvc
+                .perform(
+                        post("/api/uploads")
+                                .param("filename", "file1.bin")
+                                .param("size", "10")
+                )
+                .andExpect(status().isCreated())
+                .andDo(print())
+                .andExpect(header().string(HttpHeaders.LOCATION, "http://localhost/api/uploads/id1"))
+                .andExpect(jsonPath("$.id").value("id1"))
+                .andExpect(jsonPath("$.missing[0]").value("0-9"));
+    }
+
+    @Test
+    void createSession_FileExists() throws Exception {
+        mockMvc
+                .perform(
+                        post("/api/uploads")
+                                .param("filename", "file1.bin")
+                                .param("size", "10")
+                )
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void putChunk() throws Exception {
+        UploadSession written = new UploadSession("id1", "file1.bin", 10, MediaType.APPLICATION_OCTET_STREAM_VALUE, 4, List.of("0-5"));
+        when(service.getUploadSession("id1"))
+                .thenReturn(session);
+        when(service.writeChunk(eq("id1"), eq(6L), eq(4L), any()))
+                .thenReturn(written);
+
+        mockMvc
+                .perform(
+                        put("/api/uploads/id1")
+                                .param("offset", "6")
+                                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .content("6789".getBytes())
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received").value(4))
+                .andExpect(jsonPath("$.missing[0]").value("0-5"));
+    }
+
+    @Test
+    void putChunk_OutOfRange() throws Exception {
+        when(service.getUploadSession("id1"))
+                .thenReturn(session);
+
+        mockMvc
+                .perform(
+                        put("/api/uploads/id1")
+                                .param("offset", "8")
+                                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .content("6789".getBytes())
+                )
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+        verify(service, never()).writeChunk(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void putChunk_NoSuchSession() throws Exception {
+        mockMvc
+                .perform(
+                        put("/api/uploads/id2")
+                                .param("offset", "0")
+                                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .content("0123".getBytes())
+                )
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void completeSession() throws Exception {
+        when(service.completeUploadSession("id1"))
+                .thenReturn(new OperationResult("file1.bin", true, "file1.bin file has been successfully uploaded."));
+        when(service.completeUploadSession("id2"))
+                .thenReturn(new OperationResult("file2.bin", false, "The upload is not complete, missing: 0-9"));
+
+        mockMvc
+                .perform(post("/api/uploads/id1/complete"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.success").value(true));
+        mockMvc
+                .perform(post("/api/uploads/id2/complete"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void completeSession_NotStored() throws Exception {
+        UploadSession session = new UploadSession("id1", "file1.bin", 10, MediaType.APPLICATION_OCTET_STREAM_VALUE, 10, List.of());
+        when(service.completeUploadSession("id1"))
+                .thenReturn(new OperationResult("file1.bin", false, "Could not upload the file: file1.bin"));
+        when(service.getUploadSession("id1"))
+                .thenReturn(session);
+
+        mockMvc
+                .perform(post("/api/uploads/id1/complete"))
+                .andExpect(status().isInternalServerError());
+        when(service.exceedsQuota(10))
+                .thenReturn(true);
+        mockMvc
+                .perform(post("/api/uploads/id1/complete"))
+                .andExpect(status().isInsufficientStorage());
+        when(service.getFileMetadata("file1.bin"))
+                .thenReturn(new FileMetadata("file1.bin", 5, 1000, MediaType.APPLICATION_OCTET_STREAM_VALUE));
+        mockMvc
+                .perform(post("/api/uploads/id1/complete"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void cancelSession() throws Exception {
+        when(service.cancelUploadSession("id1"))
+                .thenReturn(true);
+
+        mockMvc
+                .perform(delete("/api/uploads/id1"))
+                .andExpect(status().isNoContent());
+        mockMvc
+                .perform(delete("/api/uploads/id2"))
+                .andExpect(status().isNotFound());
+    }
+}
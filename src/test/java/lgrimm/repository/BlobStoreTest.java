@@ -0,0 +1,63 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+class BlobStoreTest {
+
+    Path root, storage;
+    BlobStore blobStore;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Paths.get("." + File.separator + "blob_test");
+        Assumptions.assumeTrue(BlobStore.isSupported(root));
+        storage = root.resolve(".storage");
+        Files.createDirectories(root);
+        blobStore = new BlobStore(storage);
+        blobStore.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void storeDuplicates() throws IOException {
+        Path file1 = root.resolve("file1.txt");
+        Path file2 = root.resolve("file2.txt");
+        Path file3 = root.resolve("file3.txt");
+
+        String hash1 = blobStore.store(new ByteArrayInputStream("content".getBytes()), file1);
+        String hash2 = blobStore.store(new ByteArrayInputStream("content".getBytes()), file2);
+        String hash3 = blobStore.store(new ByteArrayInputStream("other".getBytes()), file3);
+
+        Assertions.assertEquals(hash1, hash2);
+        Assertions.assertNotEquals(hash1, hash3);
+        Assertions.assertEquals("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", hash1);
+        Assertions.assertEquals("content", Files.readString(file2));
+        Assertions.assertEquals(2, blobStore.countBlobs());
+        Assertions.assertThrows(FileAlreadyExistsException.class,
+                () -> blobStore.store(new ByteArrayInputStream("content".getBytes()), file1));
+    }
+
+    @Test
+    void collectGarbage() throws IOException {
+        Path file1 = root.resolve("file1.txt");
+        Path file2 = root.resolve("file2.txt");
+        blobStore.store(new ByteArrayInputStream("content".getBytes()), file1);
+        blobStore.store(new ByteArrayInputStream("content".getBytes()), file2);
+
+        Files.delete(file1);
+        Assertions.assertEquals(0, blobStore.collectGarbage());
+        Assertions.assertEquals(1, blobStore.countBlobs());
+
+        Files.delete(file2);
+        Assertions.assertEquals(1, blobStore.collectGarbage());
+        Assertions.assertEquals(0, blobStore.countBlobs());
+    }
+}
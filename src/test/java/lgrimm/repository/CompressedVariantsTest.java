@@ -0,0 +1,62 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.zip.*;
+
+class CompressedVariantsTest {
+
+    Path root;
+    CompressedVariants variants;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Paths.get("." + File.separator + "variants_test");
+        Files.createDirectories(root);
+        variants = new CompressedVariants(root.resolve("variants"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void publish_Find() throws IOException {
+        Path original = Files.writeString(root.resolve("file1.txt"), "content1".repeat(100));
+        Assertions.assertTrue(variants.find("file1.txt", original).isEmpty());
+
+        variants.publish("file1.txt", variants.compress(original), Files.getLastModifiedTime(original));
+
+        Path variant = variants.find("file1.txt", original).orElseThrow();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(variant))) {
+            Assertions.assertEquals("content1".repeat(100), new String(in.readAllBytes()));
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.resolve("variants"), "*.tmp")) {
+            Assertions.assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+    @Test
+    void find_OriginalChanged() throws IOException {
+        Path original = Files.writeString(root.resolve("file1.txt"), "content1");
+        variants.publish("file1.txt", variants.compress(original), Files.getLastModifiedTime(original));
+        Files.setLastModifiedTime(original, FileTime.fromMillis(Files.getLastModifiedTime(original).toMillis() + 1000));
+
+        Assertions.assertTrue(variants.find("file1.txt", original).isEmpty());
+    }
+
+    @Test
+    void invalidate() throws IOException {
+        Path original = Files.writeString(root.resolve("file1.txt"), "content1");
+        variants.publish("file1.txt", variants.compress(original), Files.getLastModifiedTime(original));
+        variants.invalidate("file1.txt");
+        variants.invalidate("file2.txt");
+
+        Assertions.assertTrue(variants.find("file1.txt", original).isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+class ContentCacheTest {
+
+    ContentCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new ContentCache(20, 10);
+    }
+
+    @Test
+    void get_HitsAndMisses() throws IOException {
+        Assertions.assertTrue(cache.get("file1.txt").isEmpty());
+        cache.put("file1.txt", buffer("content1"), 1000);
+
+        Optional<ContentCache.Content> content = cache.get("file1.txt");
+        Assertions.assertTrue(content.isPresent());
+        Assertions.assertEquals(8, content.get().size());
+        Assertions.assertEquals(1000, content.get().getLastModified());
+        Assertions.assertEquals("content1", new String(content.get().newInputStream().readAllBytes()));
+        Assertions.assertEquals("content1", new String(content.get().newInputStream().readAllBytes()));
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void put_EvictsLeastRecentlyUsed() {
+        cache.put("file1.txt", buffer("content1"), 0);
+        cache.put("file2.txt", buffer("content2"), 0);
+        cache.get("file1.txt");
+        cache.put("file3.txt", buffer("content3"), 0);
+
+        Assertions.assertTrue(cache.get("file1.txt").isPresent());
+        Assertions.assertTrue(cache.get("file2.txt").isEmpty());
+        Assertions.assertTrue(cache.get("file3.txt").isPresent());
+        Assertions.assertEquals(1, cache.evictions());
+        Assertions.assertEquals(16, cache.size());
+        Assertions.assertEquals(2, cache.count());
+    }
+
+    @Test
+    void put_TooLarge() throws IOException {
+        ContentCache.Content content = cache.put("file1.txt", buffer("content1content1"), 0);
+
+        Assertions.assertEquals("content1content1", new String(content.newInputStream().readAllBytes()));
+        Assertions.assertTrue(cache.get("file1.txt").isEmpty());
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void put_Replaces() {
+        cache.put("file1.txt", buffer("content1"), 0);
+        cache.put("file1.txt", buffer("content"), 0);
+
+        Assertions.assertEquals(7, cache.size());
+        Assertions.assertEquals(1, cache.count());
+    }
+
+    @Test
+    void invalidate() throws IOException {
+        cache.put("file1.txt", buffer("content1"), 0);
+        ContentCache.Content content = cache.get("file1.txt").orElseThrow();
+        cache.invalidate("file1.txt");
+
+        Assertions.assertTrue(cache.get("file1.txt").isEmpty());
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals("content1", new String(content.newInputStream().readAllBytes()));
+    }
+
+    @Test
+    void clear() {
+        cache.put("file1.txt", buffer("content1"), 0);
+        cache.put("file2.txt", buffer("content2"), 0);
+        cache.clear();
+
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.count());
+    }
+
+    @Test
+    void disabled() {
+        cache = ContentCache.disabled();
+        cache.put("file1.txt", buffer("content1"), 0);
+
+        Assertions.assertFalse(cache.isEnabled());
+        Assertions.assertFalse(cache.isCacheable(0));
+        Assertions.assertTrue(cache.get("file1.txt").isEmpty());
+        Assertions.assertEquals(0, cache.misses());
+    }
+
+    private static ByteBuffer buffer(String content) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length());
+        buffer.put(content.getBytes());
+        return buffer.flip();
+    }
+}
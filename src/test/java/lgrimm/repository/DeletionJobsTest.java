@@ -0,0 +1,75 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+import org.junit.jupiter.api.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+class DeletionJobsTest {
+
+    DeletionJobs jobs;
+
+    @BeforeEach
+    void setUp() {
+        jobs = new DeletionJobs(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobs.close();
+    }
+
+    @Test
+    void run() throws InterruptedException {
+        List<String> names = IntStream.range(0, 100).mapToObj(i -> "file" + i).toList();
+        Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+        DeletionJob job = jobs.run(names, name -> !name.endsWith("7") && deleted.add(name));
+        Assertions.assertEquals(new DeletionJob(job.getId(), JobState.COMPLETED, 100, 90, 10), job);
+        Assertions.assertEquals(90, deleted.size());
+        Assertions.assertEquals(Optional.of(job), jobs.find(job.getId()));
+
+        Assertions.assertEquals(0, jobs.expire(Duration.ofMinutes(1)));
+        Assertions.assertEquals(1, jobs.expire(Duration.ofMillis(-1)));
+        Assertions.assertTrue(jobs.find(job.getId()).isEmpty());
+    }
+
+    @Test
+    void run_Empty() throws InterruptedException {
+        DeletionJob job = jobs.run(List.of(), name -> true);
+
+        Assertions.assertEquals(JobState.COMPLETED, job.getState());
+        Assertions.assertEquals(0, job.getTotal());
+    }
+
+    @Test
+    void startAndCancel() throws InterruptedException {
+        List<String> names = IntStream.range(0, 100).mapToObj(i -> "file" + i).toList();
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+
+        DeletionJob job = jobs.start(names, name -> {
+            started.countDown();
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                return false;
+            }
+        });
+        Assertions.assertEquals(JobState.RUNNING, job.getState());
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(jobs.find(job.getId()).orElseThrow().isDone());
+        Assertions.assertTrue(jobs.cancel(job.getId()).isPresent());
+        release.countDown();
+
+        DeletionJob cancelled = jobs.await(job.getId(), Duration.ofSeconds(5)).orElseThrow();
+        Assertions.assertEquals(JobState.CANCELLED, cancelled.getState());
+        Assertions.assertEquals(4, cancelled.getDeleted());
+        Assertions.assertTrue(jobs.cancel("unknown").isEmpty());
+        Assertions.assertTrue(jobs.await("unknown", Duration.ofSeconds(5)).isEmpty());
+    }
+}
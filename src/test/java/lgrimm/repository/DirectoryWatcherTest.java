@@ -0,0 +1,30 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+class DirectoryWatcherTest {
+
+    @Test
+    void reportsExternalChanges() throws Exception {
+        Path root = Paths.get("." + File.separator + "watcher_test");
+        Files.createDirectories(root);
+        CountDownLatch changed = new CountDownLatch(1);
+
+        try (DirectoryWatcher ignored = new DirectoryWatcher(root, name -> {
+            if (name.equals("file1.txt")) {
+                changed.countDown();
+            }
+        }, () -> {})) {
+            Files.write(root.resolve("file1.txt"), "content1".getBytes());
+            Assertions.assertTrue(changed.await(15, TimeUnit.SECONDS));
+        }
+        finally {
+            Files.deleteIfExists(root.resolve("file1.txt"));
+            Files.deleteIfExists(root);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package lgrimm.repository;
+
+import lgrimm.configuration.*;
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+class DurabilityTest {
+
+    Path root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Paths.get("." + File.separator + "durability_test");
+        Files.createDirectories(root);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void sync_EveryPolicy() throws IOException {
+        Path file = Files.writeString(root.resolve("file1.txt"), "content");
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            try (Durability durability = new Durability(policy, Duration.ZERO)) {
+                Assertions.assertEquals(policy, durability.getPolicy());
+                Assertions.assertDoesNotThrow(() -> durability.sync(file));
+                Assertions.assertDoesNotThrow(() -> durability.sync(root));
+            }
+        }
+    }
+
+    @Test
+    void sync_MissingFile() {
+        Path file = root.resolve("no_such_file.txt");
+        try (Durability none = Durability.none();
+             Durability perFile = new Durability(FsyncPolicy.FILE, Duration.ZERO);
+             Durability group = new Durability(FsyncPolicy.GROUP, Duration.ZERO)) {
+            Assertions.assertDoesNotThrow(() -> none.sync(file));
+            Assertions.assertThrows(IOException.class, () -> perFile.sync(file));
+            Assertions.assertThrows(IOException.class, () -> group.sync(file));
+        }
+    }
+
+    @Test
+    void sync_GroupCommitOfConcurrentWriters() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(Files.writeString(root.resolve("file" + i + ".txt"), "content" + i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (Durability durability = new Durability(FsyncPolicy.GROUP, Duration.ofMillis(1))) {
+            List<Future<?>> results = new ArrayList<>();
+            for (Path file : files) {
+                results.add(executor.submit(() -> {
+                    durability.sync(file);
+                    durability.sync(root);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                Assertions.assertDoesNotThrow(() -> result.get(10, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void sync_Closed() throws IOException {
+        Path file = Files.writeString(root.resolve("file1.txt"), "content");
+        Durability durability = new Durability(FsyncPolicy.GROUP, Duration.ZERO);
+        durability.close();
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> Assertions.assertThrows(IOException.class, () -> durability.sync(file)));
+    }
+}
@@ -1,14 +1,24 @@
 package lgrimm.repository;
 
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.simple.*;
+import lgrimm.configuration.*;
 import lgrimm.datamodel.*;
 import org.junit.jupiter.api.*;
 import org.springframework.core.io.*;
 import org.springframework.http.*;
+import org.springframework.util.*;
+import org.springframework.util.unit.*;
 
 import java.io.*;
 import java.nio.file.*;
+import java.security.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
 
 class FileInFolderRepositoryTest {
 
@@ -148,6 +158,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         List<Resource> resources = repository.getAll();
         Assertions.assertEquals(2, resources.size());
@@ -166,6 +177,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertTrue(repository.findByFilename("file1\ntxt").isEmpty());
         Assertions.assertTrue(deleteAllFromDirectory(rootFolder));
@@ -181,6 +193,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertTrue(repository.findByFilename("file3.txt").isEmpty());
         Assertions.assertTrue(deleteAllFromDirectory(rootFolder));
@@ -196,6 +209,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Optional<Path> path = repository.findByFilename(filename2);
         Assertions.assertTrue(path.isPresent());
@@ -213,6 +227,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         List<Path> paths = repository.findAll();
         Assertions.assertEquals(2, paths.size());
@@ -249,6 +264,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertTrue(repository.save(file).isEmpty());
         List<Path> paths = repository.findAll();
@@ -271,6 +287,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Optional<String> savedFilename = repository.save(file);
         Assertions.assertTrue(savedFilename.isPresent());
@@ -284,6 +301,456 @@ class FileInFolderRepositoryTest {
         Assertions.assertTrue(rootFolder.delete());
     }
 
+    @Test
+    void save_StreamingContent() {
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        File rootFolder = Paths.get(root).toFile();
+        Assertions.assertTrue(repository.init(root, true));
+        long size = 8L * 1024 * 1024;
+        InputStreamSource source = () -> new InputStream() {
+            long remaining = size;
+
+            @Override
+            public int read() {
+                return remaining-- > 0 ? 'x' : -1;
+            }
+        };
+        Multipart file = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, size, source);
+
+        Optional<String> savedFilename = repository.save(file);
+        Assertions.assertTrue(savedFilename.isPresent());
+        Assertions.assertEquals(size, new File(root + File.separator + filename1).length());
+        Assertions.assertTrue(deleteAllFromDirectory(rootFolder));
+        Assertions.assertTrue(rootFolder.delete());
+    }
+
+    @Test
+    void publish() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Path incoming = repository.createIncoming().orElseThrow();
+        Files.writeString(incoming, "content");
+        Assertions.assertEquals(0, repository.count());
+
+        Assertions.assertEquals(Optional.of(filename1), repository.publish(incoming, filename1, MediaType.TEXT_PLAIN_VALUE));
+        Assertions.assertFalse(Files.exists(incoming));
+        Assertions.assertEquals("content", Files.readString(rootPath.resolve(filename1)));
+        Assertions.assertEquals(Optional.of(rootPath.resolve(filename1)), repository.findLocationByFilename(filename1));
+        Assertions.assertEquals(7, repository.findMetadataByFilename(filename1).orElseThrow().getSize());
+
+        Path taken = repository.createIncoming().orElseThrow();
+        Assertions.assertEquals(Optional.empty(), repository.publish(taken, filename1, MediaType.TEXT_PLAIN_VALUE));
+        Assertions.assertFalse(Files.exists(taken));
+        Path outside = repository.createIncoming().orElseThrow();
+        Assertions.assertEquals(Optional.empty(), repository.publish(outside, "../" + filename2, MediaType.TEXT_PLAIN_VALUE));
+        Assertions.assertEquals(1, repository.count());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void uploadSession() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        byte[] content = "chunked content".getBytes();
+        UploadSession session = repository.createUploadSession(filename1, content.length, MediaType.TEXT_PLAIN_VALUE)
+                .orElseThrow();
+        Assertions.assertEquals(0, repository.count());
+
+        Assertions.assertTrue(repository.writeChunk(session.getId(), 7, 8, new ByteArrayInputStream(content, 7, 8)).isPresent());
+        Assertions.assertTrue(repository.completeUploadSession(session.getId()).isEmpty());
+        Assertions.assertTrue(repository.writeChunk(session.getId(), 0, 7, new ByteArrayInputStream(content, 0, 7)).isPresent());
+        Assertions.assertEquals(Optional.of(filename1), repository.completeUploadSession(session.getId()));
+
+        Assertions.assertEquals("chunked content", Files.readString(rootPath.resolve(filename1)));
+        Assertions.assertEquals(MediaType.TEXT_PLAIN_VALUE,
+                repository.findMetadataByFilename(filename1).orElseThrow().getContentType());
+        Assertions.assertTrue(repository.findUploadSession(session.getId()).isEmpty());
+        Assertions.assertTrue(repository.createUploadSession(filename1, 1, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        Assertions.assertTrue(repository.createUploadSession("../" + filename2, 1, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void uploadSession_NameTakenKeepsSession() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        byte[] content = "chunked content".getBytes();
+        UploadSession session = repository.createUploadSession(filename1, content.length, MediaType.TEXT_PLAIN_VALUE)
+                .orElseThrow();
+        Assertions.assertTrue(repository.writeChunk(session.getId(), 0, content.length, new ByteArrayInputStream(content)).isPresent());
+        Assertions.assertTrue(repository.save(new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "other".getBytes())).isPresent());
+
+        Assertions.assertTrue(repository.completeUploadSession(session.getId()).isEmpty());
+        Assertions.assertTrue(repository.findUploadSession(session.getId()).orElseThrow().isComplete());
+        Assertions.assertTrue(repository.delete(filename1));
+        Assertions.assertEquals(Optional.of(filename1), repository.completeUploadSession(session.getId()));
+        Assertions.assertEquals("chunked content", Files.readString(rootPath.resolve(filename1)));
+        Assertions.assertTrue(repository.findUploadSession(session.getId()).isEmpty());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void save_RenamedIntoPlace() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Files.createDirectories(rootPath);
+        Files.writeString(rootPath.resolve(FileInFolderRepository.TEMP_PREFIX + "left-by-a-crash"), "half");
+        StorageProperties properties = new StorageProperties();
+        properties.getWrite().setFsync(FsyncPolicy.GROUP);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.empty(), repository.save(file1));
+        try (Stream<Path> files = Files.list(rootPath)) {
+            Assertions.assertEquals(List.of(rootPath.resolve(filename1)), files.toList());
+        }
+        Assertions.assertEquals("content", Files.readString(rootPath.resolve(filename1)));
+        Assertions.assertTrue(repository.getByFilename(FileInFolderRepository.TEMP_PREFIX + "x").isEmpty());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void getByFilename_Snapshot() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content1".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+
+        Resource resource = repository.getByFilename(filename1).orElseThrow();
+        File snapshot = ((Snapshottable) resource).snapshot().orElseThrow();
+        Assertions.assertTrue(repository.delete(filename1));
+        Multipart other = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "other".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(other));
+
+        Assertions.assertEquals("content1", Files.readString(snapshot.toPath()));
+        Assertions.assertTrue(snapshot.toPath().startsWith(rootPath.resolve(FileInFolderRepository.STORAGE_DIRECTORY)));
+        Assertions.assertEquals(List.of(Paths.get(filename1)), repository.findAll());
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertFalse(snapshot.exists());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void getByFilename_Cached() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getCache().setEnabled(true);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        ContentCache cache = repository.getContentCache();
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+
+        Resource first = repository.getByFilename(filename1).orElseThrow();
+        Resource second = repository.getByFilename(filename1).orElseThrow();
+        Assertions.assertEquals(1, cache.misses());
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(filename1, second.getFilename());
+        Assertions.assertEquals(7, second.contentLength());
+        Assertions.assertFalse(second.isFile());
+        Assertions.assertEquals("content", new String(first.getInputStream().readAllBytes()));
+        Assertions.assertEquals("content", new String(second.getInputStream().readAllBytes()));
+
+        Assertions.assertTrue(repository.delete(filename1));
+        Assertions.assertTrue(repository.getByFilename(filename1).isEmpty());
+        Assertions.assertEquals(0, cache.size());
+        file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "changed content".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals("changed content",
+                new String(repository.getByFilename(filename1).orElseThrow().getInputStream().readAllBytes()));
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void compressedVariant() throws Exception {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        String content = "content".repeat(1000);
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, content.getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertTrue(repository.findCompressedVariant(filename1).isEmpty());
+
+        repository.requestCompressedVariant(filename1);
+        Optional<Resource> variant = Optional.empty();
+        for (int i = 0; i < 100 && variant.isEmpty(); i++) {
+            Thread.sleep(50);
+            variant = repository.findCompressedVariant(filename1);
+        }
+        Assertions.assertTrue(variant.isPresent());
+        Assertions.assertTrue(variant.get().contentLength() < content.length());
+        try (InputStream in = new GZIPInputStream(variant.get().getInputStream())) {
+            Assertions.assertEquals(content, new String(in.readAllBytes()));
+        }
+        Assertions.assertEquals(List.of(Paths.get(filename1)), repository.findAll());
+
+        Assertions.assertTrue(repository.delete(filename1));
+        Assertions.assertTrue(repository.findCompressedVariant(filename1).isEmpty());
+        Assertions.assertTrue(repository.findCompressedVariant("../" + filename1).isEmpty());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void save_CompressedAtRest() throws Exception {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getWrite().setCompression(AtRestCompression.GZIP);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        String content = "content".repeat(1000);
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, content.getBytes());
+        Multipart file2 = new Multipart("file", filename2, MediaType.APPLICATION_OCTET_STREAM_VALUE, content.getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(file2));
+
+        Assertions.assertTrue(Files.size(rootPath.resolve(filename1)) < content.length());
+        Assertions.assertEquals(content.length(), Files.size(rootPath.resolve(filename2)));
+        Assertions.assertTrue(repository.isStoredCompressed(filename1));
+        Assertions.assertFalse(repository.isStoredCompressed(filename2));
+        Assertions.assertEquals(content.length(), repository.findMetadataByFilename(filename1).orElseThrow().getSize());
+        Assertions.assertEquals(2L * content.length(), repository.totalSize());
+        Resource resource = repository.getByFilename(filename1).orElseThrow();
+        Assertions.assertEquals(content.length(), resource.contentLength());
+        Assertions.assertFalse(resource.isFile());
+        try (InputStream in = resource.getInputStream()) {
+            Assertions.assertEquals(content, new String(in.readAllBytes()));
+        }
+        Resource stored = repository.findCompressedVariant(filename1).orElseThrow();
+        try (InputStream in = new GZIPInputStream(stored.getInputStream())) {
+            Assertions.assertEquals(content, new String(in.readAllBytes()));
+        }
+
+        Path incoming = repository.createIncoming().orElseThrow();
+        Files.writeString(incoming, content);
+        Assertions.assertEquals(Optional.of("file3.txt"), repository.publish(incoming, "file3.txt", MediaType.TEXT_PLAIN_VALUE));
+        Assertions.assertTrue(repository.isStoredCompressed("file3.txt"));
+
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertEquals(content.length(), repository.findMetadataByFilename(filename1).orElseThrow().getSize());
+        Assertions.assertEquals(content.length(), repository.findMetadataByFilename("file3.txt").orElseThrow().getSize());
+        repository.close();
+
+        properties.getWrite().setCompression(AtRestCompression.NONE);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertTrue(repository.isStoredCompressed(filename1));
+        Assertions.assertEquals(content.length(), repository.findMetadataByFilename(filename1).orElseThrow().getSize());
+        try (InputStream in = repository.getByFilename(filename1).orElseThrow().getInputStream()) {
+            Assertions.assertEquals(content, new String(in.readAllBytes()));
+        }
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void init_StoredEncodingNotReadWithoutCompression() throws Exception {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Files.createDirectories(rootPath);
+        Path path = rootPath.resolve(filename1);
+        Files.writeString(path, "content");
+        Assumptions.assumeTrue(StoredEncoding.isSupported(rootPath));
+        StoredEncoding.mark(path, 100);
+        repository = new FileInFolderRepository(new StorageProperties());
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+
+        Assertions.assertFalse(repository.isStoredCompressed(filename1));
+        Assertions.assertEquals(7, repository.findMetadataByFilename(filename1).orElseThrow().getSize());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void save_Sharded() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getLayout().setMode(LayoutMode.SHARDED);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        StorageLayout layout = StorageLayout.sharded(rootPath, properties.getLayout().getDepth());
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content1".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+
+        Assertions.assertTrue(Files.isRegularFile(layout.resolve(filename1)));
+        Assertions.assertFalse(Files.exists(rootPath.resolve(filename1)));
+        Assertions.assertEquals(Optional.of(Paths.get(filename1)), repository.findByFilename(filename1));
+        Assertions.assertTrue(repository.save(file1).isEmpty());
+        try (InputStream in = repository.getByFilename(filename1).orElseThrow().getInputStream()) {
+            Assertions.assertEquals("content1", new String(in.readAllBytes()));
+        }
+
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertEquals(List.of(filename1), repository.findAll().stream().map(Path::toString).toList());
+        Assertions.assertTrue(repository.delete(filename1));
+        Assertions.assertFalse(Files.exists(layout.resolve(filename1)));
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void save_ShardedInvalidFilename() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getLayout().setMode(LayoutMode.SHARDED);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+
+        for (String filename : List.of("dir/" + filename1, "../" + filename1, "..")) {
+            Multipart file = new Multipart("file", filename, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+            Assertions.assertTrue(repository.save(file).isEmpty(), filename);
+            Path incoming = repository.createIncoming().orElseThrow();
+            Files.writeString(incoming, "content");
+            Assertions.assertTrue(repository.publish(incoming, filename, MediaType.TEXT_PLAIN_VALUE).isEmpty(), filename);
+            Assertions.assertTrue(repository.createUploadSession(filename, 7, MediaType.TEXT_PLAIN_VALUE).isEmpty(), filename);
+        }
+        Assertions.assertEquals(0, repository.count());
+        try (Stream<Path> files = Files.walk(rootPath)) {
+            Assertions.assertTrue(files.noneMatch(path -> path.getFileName().toString().equals(filename1)));
+        }
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void save_TempFilename() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        String filename = FileInFolderRepository.TEMP_PREFIX + filename1;
+
+        Multipart file = new Multipart("file", filename, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Assertions.assertTrue(repository.save(file).isEmpty());
+        Path incoming = repository.createIncoming().orElseThrow();
+        Files.writeString(incoming, "content");
+        Assertions.assertTrue(repository.publish(incoming, filename, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        Assertions.assertTrue(repository.createUploadSession(filename, 7, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        Assertions.assertFalse(Files.exists(rootPath.resolve(filename)));
+        Assertions.assertEquals(0, repository.count());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void migrateLayout() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content1".getBytes());
+        Multipart file2 = new Multipart("file", filename2, MediaType.TEXT_PLAIN_VALUE, "content2".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(file2));
+        Assertions.assertTrue(Files.isRegularFile(rootPath.resolve(filename1)));
+        repository.close();
+
+        StorageProperties properties = new StorageProperties();
+        properties.getLayout().setMode(LayoutMode.SHARDED);
+        properties.getLayout().setMigrateOnStart(false);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        StorageLayout layout = StorageLayout.sharded(rootPath, properties.getLayout().getDepth());
+        Assertions.assertEquals(2, repository.count());
+        Assertions.assertTrue(repository.getByFilename(filename1).isPresent());
+        Assertions.assertTrue(repository.save(file1).isEmpty());
+
+        Assertions.assertEquals(new MigrationSummary(2, 0), repository.migrateLayout());
+        Assertions.assertFalse(Files.exists(rootPath.resolve(filename1)));
+        Assertions.assertTrue(Files.isRegularFile(layout.resolve(filename1)));
+        Assertions.assertTrue(Files.isRegularFile(layout.resolve(filename2)));
+        Assertions.assertEquals(2, repository.count());
+        try (InputStream in = repository.getByFilename(filename2).orElseThrow().getInputStream()) {
+            Assertions.assertEquals("content2", new String(in.readAllBytes()));
+        }
+        Assertions.assertEquals(new MigrationSummary(0, 0), repository.migrateLayout());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void init_LoadsStoredMetadata() throws Exception {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getMetadata().setEnabled(true);
+        properties.getMetadata().setVerifyOnStart(false);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Multipart file1 = new Multipart("file", filename1, "text/x-custom", "content1".getBytes());
+        Multipart file2 = new Multipart("file", filename2, MediaType.TEXT_PLAIN_VALUE, "content2".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(file2));
+        Assertions.assertTrue(repository.delete(filename2));
+        FileMetadata metadata1 = repository.findMetadataByFilename(filename1).orElseThrow();
+        Assertions.assertEquals(
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest("content1".getBytes())),
+                metadata1.getChecksum());
+
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertEquals(Optional.of(metadata1), repository.findMetadataByFilename(filename1));
+        Assertions.assertEquals(1, repository.count());
+        repository.close();
+        Files.writeString(rootPath.resolve("external.txt"), "external");
+
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), false));
+        Assertions.assertEquals(Optional.of(metadata1), repository.findMetadataByFilename(filename1));
+        Assertions.assertEquals(1, repository.count());
+        Assertions.assertTrue(repository.reconcile());
+        Assertions.assertEquals(2, repository.count());
+        Assertions.assertEquals("text/x-custom", repository.findMetadataByFilename(filename1).orElseThrow().getContentType());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void delete_DuringOpenDownload() throws IOException {
+        Path rootPath = Paths.get("init_test" + testFolderNumber.getAndIncrement());
+        StorageProperties properties = new StorageProperties();
+        properties.getLock().setTimeout(Duration.ofMillis(100));
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Multipart file2 = new Multipart("file", filename2, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(file2));
+
+        try (InputStream download = repository.getByFilename(filename1).orElseThrow().getInputStream()) {
+            Assertions.assertTrue(repository.delete(filename1));
+            Assertions.assertTrue(repository.delete(filename2));
+            Assertions.assertEquals("content", new String(download.readAllBytes()));
+        }
+        Assertions.assertEquals(0, repository.count());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
+    @Test
+    void startDeletion() throws Exception {
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+        for (String filename : List.of("a1.txt", "a2.txt", "a3.bin", "b1.txt")) {
+            Multipart file = new Multipart("file", filename, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+            Assertions.assertEquals(Optional.of(filename), repository.save(file));
+        }
+
+        DeletionJob job = repository.startDeletion("a", "*.txt");
+        Assertions.assertEquals(2, job.getTotal());
+        job = repository.deletions().await(job.getId(), Duration.ofSeconds(5)).orElseThrow();
+        Assertions.assertEquals(new DeletionJob(job.getId(), JobState.COMPLETED, 2, 2, 0), job);
+        Assertions.assertEquals(List.of(Paths.get("a3.bin"), Paths.get("b1.txt")), repository.findAll());
+
+        job = repository.startDeletion(List.of("b1.txt", "missing.txt"));
+        job = repository.deletions().await(job.getId(), Duration.ofSeconds(5)).orElseThrow();
+        Assertions.assertEquals(new DeletionJob(job.getId(), JobState.COMPLETED, 2, 1, 1), job);
+        Assertions.assertEquals(1, repository.deleteAll());
+        Assertions.assertEquals(0, repository.count());
+        Assertions.assertTrue(repository.findDeletion("unknown").isEmpty());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
     @Test
     void saveAll() {
         String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
@@ -307,6 +774,242 @@ class FileInFolderRepositoryTest {
         Assertions.assertTrue(rootFolder.delete());
     }
 
+    @Test
+    void saveArchive() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.getUpload().setArchiveBuffer(DataSize.ofKilobytes(64));
+        properties.getUpload().setArchiveEntryInMemory(DataSize.ofKilobytes(16));
+        repository = new FileInFolderRepository(properties);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+        byte[] large = new byte[100_000];
+        new Random(1).nextBytes(large);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < 20; i++) {
+                zip.putNextEntry(new ZipEntry("small" + i + ".txt"));
+                zip.write(("content" + i).getBytes());
+            }
+            zip.putNextEntry(new ZipEntry("folder/"));
+            zip.putNextEntry(new ZipEntry("folder/nested.txt"));
+            zip.write("nested".getBytes());
+            zip.putNextEntry(new ZipEntry("large.bin"));
+            zip.write(large);
+            zip.closeEntry();
+        }
+
+        List<Map.Entry<String, Boolean>> outcomes = repository.saveArchive(new ByteArrayInputStream(bytes.toByteArray()));
+        Assertions.assertEquals(22, outcomes.size());
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertEquals(Map.entry("small" + i + ".txt", true), outcomes.get(i));
+            Assertions.assertEquals("content" + i, new String(repository.getByFilename("small" + i + ".txt").orElseThrow().getInputStream().readAllBytes()));
+        }
+        Assertions.assertEquals(Map.entry("folder/nested.txt", false), outcomes.get(20));
+        Assertions.assertEquals(Map.entry("large.bin", true), outcomes.get(21));
+        Assertions.assertArrayEquals(large, repository.getByFilename("large.bin").orElseThrow().getInputStream().readAllBytes());
+        Assertions.assertEquals(
+                MediaType.TEXT_PLAIN_VALUE,
+                repository.findMetadataByFilename("small0.txt").orElseThrow().getContentType());
+        Assertions.assertEquals(21, repository.count());
+
+        Assertions.assertEquals(List.of(), repository.saveArchive(new ByteArrayInputStream("not an archive".getBytes())));
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
+    @Test
+    void save_RecordsWriteTimer() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        repository = new FileInFolderRepository(new StorageProperties(), registry);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+
+        Multipart file1 = new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.empty(), repository.save(file1));
+        Assertions.assertEquals(1, registry.get("storage.repository.write")
+                .tag("outcome", "success")
+                .timer().count());
+        Assertions.assertEquals(1, registry.get("storage.repository.write")
+                .tag("outcome", "failure")
+                .timer().count());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
+    @Test
+    void save_Quota() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.getQuota().setEnabled(true);
+        properties.getQuota().setMaxTotalSize(DataSize.ofBytes(20));
+        properties.getQuota().setMaxFiles(3);
+        properties.getQuota().setMaxFileSize(DataSize.ofBytes(12));
+        repository = new FileInFolderRepository(properties);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+
+        Multipart tooLarge = new Multipart("file", "large.txt", MediaType.TEXT_PLAIN_VALUE, "content content".getBytes());
+        Assertions.assertTrue(repository.exceedsQuota(tooLarge.getSize()));
+        Assertions.assertEquals(Optional.empty(), repository.save(tooLarge));
+        Assertions.assertEquals(Optional.of(filename1), repository.save(
+                new Multipart("file", filename1, MediaType.TEXT_PLAIN_VALUE, "content1".getBytes())));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(
+                new Multipart("file", filename2, MediaType.TEXT_PLAIN_VALUE, "content2".getBytes())));
+        Assertions.assertTrue(repository.exceedsQuota(5));
+        Assertions.assertEquals(Optional.empty(), repository.save(
+                new Multipart("file", "file3.txt", MediaType.TEXT_PLAIN_VALUE, "content3".getBytes())));
+        Assertions.assertTrue(repository.createUploadSession("file3.txt", 5, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        Assertions.assertEquals(List.of(Paths.get(filename1), Paths.get(filename2)), repository.findAll());
+
+        Assertions.assertTrue(repository.delete(filename2));
+        Assertions.assertFalse(repository.exceedsQuota(5));
+        Assertions.assertTrue(repository.verifyUsage());
+        Files.write(Paths.get(root, "outside.txt"), "0123456789".getBytes());
+        repository.verifyUsage();
+        Assertions.assertEquals(18, repository.totalSize());
+        Assertions.assertTrue(repository.exceedsQuota(5));
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
+    @Test
+    void uploadSession_HoldsQuota() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.getQuota().setEnabled(true);
+        properties.getQuota().setMaxTotalSize(DataSize.ofBytes(20));
+        repository = new FileInFolderRepository(properties);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+        byte[] content = "chunked content".getBytes();
+
+        UploadSession session = repository.createUploadSession(filename1, content.length, MediaType.TEXT_PLAIN_VALUE)
+                .orElseThrow();
+        Assertions.assertTrue(repository.exceedsQuota(10));
+        Assertions.assertTrue(repository.createUploadSession(filename2, 10, MediaType.TEXT_PLAIN_VALUE).isEmpty());
+        Assertions.assertEquals(Optional.empty(), repository.save(
+                new Multipart("file", filename2, MediaType.TEXT_PLAIN_VALUE, "content 10".getBytes())));
+
+        Assertions.assertTrue(repository.init(root, false));
+        Assertions.assertTrue(repository.exceedsQuota(10));
+        Assertions.assertTrue(repository.writeChunk(session.getId(), 0, content.length, new ByteArrayInputStream(content)).isPresent());
+        Assertions.assertEquals(Optional.of(filename1), repository.completeUploadSession(session.getId()));
+        Assertions.assertFalse(repository.exceedsQuota(5));
+        Assertions.assertTrue(repository.exceedsQuota(6));
+
+        UploadSession cancelled = repository.createUploadSession(filename2, 5, MediaType.TEXT_PLAIN_VALUE).orElseThrow();
+        Assertions.assertTrue(repository.exceedsQuota(1));
+        Assertions.assertTrue(repository.cancelUploadSession(cancelled.getId()));
+        Assertions.assertFalse(repository.exceedsQuota(5));
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
+    @Test
+    void saveArchive_Quota() throws Exception {
+        StorageProperties properties = new StorageProperties();
+        properties.getUpload().setArchiveBuffer(DataSize.ofKilobytes(64));
+        properties.getUpload().setArchiveEntryInMemory(DataSize.ofKilobytes(16));
+        properties.getQuota().setEnabled(true);
+        properties.getQuota().setMaxFileSize(DataSize.ofKilobytes(50));
+        repository = new FileInFolderRepository(properties);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        Assertions.assertTrue(repository.init(root, true));
+        byte[] large = new byte[100_000];
+        new Random(1).nextBytes(large);
+        CRC32 crc = new CRC32();
+        crc.update(large);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("deflated.bin"));
+            zip.write(large);
+            ZipEntry stored = new ZipEntry("stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(large.length);
+            stored.setCompressedSize(large.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(large);
+            zip.putNextEntry(new ZipEntry("fits.bin"));
+            zip.write(large, 0, 40_000);
+            zip.closeEntry();
+        }
+
+        List<Map.Entry<String, Boolean>> outcomes = repository.saveArchive(new ByteArrayInputStream(bytes.toByteArray()));
+        Assertions.assertEquals(List.of(
+                Map.entry("deflated.bin", false),
+                Map.entry("stored.bin", false),
+                Map.entry("fits.bin", true)), outcomes);
+        Assertions.assertEquals(1, repository.count());
+        Assertions.assertFalse(repository.exceedsQuota(50 * 1024));
+        try (Stream<Path> incoming = Files.list(Paths.get(root, ".storage", "incoming"))) {
+            Assertions.assertEquals(0, incoming.count());
+        }
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(Paths.get(root)));
+    }
+
+    @Test
+    void saveAll_SlowFileDoesNotBlockOthers() {
+        StorageProperties properties = new StorageProperties();
+        properties.getUpload().setParallelism(2);
+        repository = new FileInFolderRepository(properties);
+        String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
+        File rootFolder = Paths.get(root).toFile();
+        Assertions.assertTrue(repository.init(root, true));
+        CountDownLatch fastFileOpened = new CountDownLatch(1);
+        InputStreamSource slowSource = () -> {
+            try {
+                if (!fastFileOpened.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("The files were not written concurrently.");
+                }
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new ByteArrayInputStream("slow".getBytes());
+        };
+        InputStreamSource fastSource = () -> {
+            fastFileOpened.countDown();
+            return new ByteArrayInputStream("fast".getBytes());
+        };
+        Multipart file1 = new Multipart("files", filename1, MediaType.TEXT_PLAIN_VALUE, 4, slowSource);
+        Multipart file2 = new Multipart("files", filename2, MediaType.TEXT_PLAIN_VALUE, 4, fastSource);
+
+        List<String> savedFilenames = repository.saveAll(List.of(file1, file2)).toList();
+        Assertions.assertEquals(List.of(filename1, filename2), savedFilenames);
+        Assertions.assertEquals(2, repository.count());
+        repository.close();
+        Assertions.assertTrue(deleteAllFromDirectory(rootFolder));
+        Assertions.assertTrue(rootFolder.delete());
+    }
+
+    @Test
+    void save_Deduplicated() throws IOException {
+        Path rootPath = Paths.get("." + File.separator + "init_test" + testFolderNumber.getAndIncrement());
+        Assumptions.assumeTrue(BlobStore.isSupported(rootPath));
+        StorageProperties properties = new StorageProperties();
+        properties.getDeduplication().setEnabled(true);
+        repository = new FileInFolderRepository(properties);
+        Assertions.assertTrue(repository.init(rootPath.toString(), true));
+        Multipart file1 = new Multipart("files", filename1, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+        Multipart file2 = new Multipart("files", filename2, MediaType.TEXT_PLAIN_VALUE, "content".getBytes());
+
+        Assertions.assertEquals(Optional.of(filename1), repository.save(file1));
+        Assertions.assertEquals(Optional.of(filename2), repository.save(file2));
+        Assertions.assertEquals(2, repository.count());
+        Assertions.assertEquals(List.of(filename1, filename2),
+                repository.findAll().stream().map(Path::toString).toList());
+        Assertions.assertEquals("content", Files.readString(rootPath.resolve(filename2)));
+        Assertions.assertEquals(Optional.empty(), repository.save(file1));
+
+        Assertions.assertTrue(repository.delete(filename1));
+        Assertions.assertEquals(0, repository.collectGarbage());
+        Assertions.assertTrue(repository.delete(filename2));
+        Assertions.assertEquals(1, repository.collectGarbage());
+        repository.close();
+        Assertions.assertTrue(FileSystemUtils.deleteRecursively(rootPath));
+    }
+
     @Test
     void delete_WrongFilename() {
         String root = "." + File.separator + "init_test" + testFolderNumber.getAndIncrement();
@@ -316,6 +1019,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertFalse(repository.delete("file1\ntxt"));
         List<Path> paths = repository.findAll();
@@ -335,6 +1039,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertFalse(repository.delete("file3.txt"));
         List<Path> paths = repository.findAll();
@@ -354,6 +1059,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertTrue(repository.delete(filename2));
         List<Path> paths = repository.findAll();
@@ -372,6 +1078,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertEquals(2, repository.deleteAll());
         List<Path> paths = repository.findAll();
@@ -388,6 +1095,7 @@ class FileInFolderRepositoryTest {
         Assertions.assertDoesNotThrow(file1::createNewFile);
         File file2 = new File(root + File.separator + filename2);
         Assertions.assertDoesNotThrow(file2::createNewFile);
+        Assertions.assertTrue(repository.reconcile());
 
         Assertions.assertEquals(2, repository.count());
         Assertions.assertTrue(deleteAllFromDirectory(rootFolder));
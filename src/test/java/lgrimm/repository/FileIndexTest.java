@@ -0,0 +1,190 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+class FileIndexTest {
+
+    FileIndex index;
+    AtomicInteger testFolderNumber = new AtomicInteger();
+    String filename1, filename2;
+
+    @BeforeEach
+    void setUp() {
+        index = new FileIndex();
+        filename1 = "file1.txt";
+        filename2 = "file2.txt";
+    }
+
+    @Test
+    void putAndRemove() {
+        FileMetadata metadata2 = new FileMetadata(filename2, 2, 20, MediaType.TEXT_PLAIN_VALUE);
+        FileMetadata metadata1 = new FileMetadata(filename1, 1, 10, MediaType.TEXT_PLAIN_VALUE);
+        index.put(metadata2);
+        index.put(metadata1);
+
+        Assertions.assertEquals(2, index.size());
+        Assertions.assertEquals(List.of(filename1, filename2), index.names());
+        Assertions.assertEquals(List.of(metadata1, metadata2), index.values());
+        Assertions.assertEquals(Optional.of(metadata1), index.get(filename1));
+        Assertions.assertEquals(3, index.totalSize());
+
+        index.remove(filename1);
+        Assertions.assertEquals(1, index.size());
+        Assertions.assertEquals(2, index.totalSize());
+        Assertions.assertEquals(List.of(filename2), index.names());
+        Assertions.assertTrue(index.get(filename1).isEmpty());
+
+        index.clear();
+        Assertions.assertEquals(0, index.size());
+    }
+
+    @Test
+    void rebuildAndReconcile() throws IOException {
+        Path root = Paths.get("." + File.separator + "index_test" + testFolderNumber.getAndIncrement());
+        Files.createDirectories(root);
+        Files.write(root.resolve(filename1), "content1".getBytes());
+        Files.createDirectories(root.resolve("folder"));
+        index.put(new FileMetadata("gone.txt", 1, 1, MediaType.TEXT_PLAIN_VALUE));
+
+        index.rebuild(root);
+        Assertions.assertEquals(List.of(filename1), index.names());
+        Assertions.assertEquals(8, index.get(filename1).orElseThrow().getSize());
+        Assertions.assertEquals(MediaType.TEXT_PLAIN_VALUE, index.get(filename1).orElseThrow().getContentType());
+
+        Files.write(root.resolve(filename2), "content2".getBytes());
+        Assertions.assertTrue(index.reconcile(root, filename2).isPresent());
+        Files.delete(root.resolve(filename1));
+        Assertions.assertTrue(index.reconcile(root, filename1).isEmpty());
+        Assertions.assertEquals(List.of(filename2), index.names());
+
+        Files.delete(root.resolve(filename2));
+        Files.delete(root.resolve("folder"));
+        Files.delete(root);
+    }
+
+    @Test
+    void listen() {
+        List<String> changes = new ArrayList<>();
+        index.listen(new FileIndex.Listener() {
+            @Override
+            public void put(FileMetadata metadata) {
+                changes.add("put " + metadata.getName());
+            }
+
+            @Override
+            public void removed(String name) {
+                changes.add("removed " + name);
+            }
+        });
+        FileMetadata metadata1 = new FileMetadata(filename1, 1, 10, MediaType.TEXT_PLAIN_VALUE);
+
+        index.put(metadata1);
+        index.put(new FileMetadata(filename1, 1, 10, MediaType.TEXT_PLAIN_VALUE));
+        index.remove(filename1);
+        index.remove(filename2);
+        index.listen(null);
+        index.put(metadata1);
+        Assertions.assertEquals(List.of("put " + filename1, "removed " + filename1), changes);
+        Assertions.assertEquals(1, index.totalSize());
+    }
+
+    @Test
+    void reconcile_KeepsChecksumOfUnchangedFile() throws IOException {
+        Path root = Paths.get("." + File.separator + "index_test" + testFolderNumber.getAndIncrement());
+        Files.createDirectories(root);
+        Path path = Files.write(root.resolve(filename1), "content1".getBytes());
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        index.put(new FileMetadata(filename1, 8, lastModified, lastModified, MediaType.TEXT_PLAIN_VALUE, "abcd"));
+
+        Assertions.assertEquals("abcd", index.reconcile(root, filename1).orElseThrow().getChecksum());
+        Files.write(path, "changed content1".getBytes());
+        Assertions.assertNull(index.reconcile(root, filename1).orElseThrow().getChecksum());
+
+        Files.delete(path);
+        Files.delete(root);
+    }
+
+    @Test
+    void names_Filtered() {
+        for (String name : List.of("a1.txt", "a2.bin", "b1.txt", "a3.txt")) {
+            index.put(new FileMetadata(name, 1, 1, MediaType.TEXT_PLAIN_VALUE));
+        }
+
+        Assertions.assertEquals(List.of("a1.txt", "a2.bin", "a3.txt", "b1.txt"), index.names(null, null));
+        Assertions.assertEquals(List.of("a1.txt", "a2.bin", "a3.txt"), index.names("a", " "));
+        Assertions.assertEquals(List.of("a1.txt", "a3.txt", "b1.txt"), index.names("", "*.txt"));
+        Assertions.assertEquals(List.of("a1.txt", "a3.txt"), index.names("a", "*.txt"));
+    }
+
+    @Test
+    void page_NoLimit() {
+        index.put(new FileMetadata("file1.txt", 1, 1, MediaType.TEXT_PLAIN_VALUE));
+
+        FilePage page = index.page(new FileQuery(null, null, SortKey.NAME, false, null, 0));
+        Assertions.assertEquals(List.of(), page.getFiles());
+        Assertions.assertNull(page.getNextCursor());
+        Assertions.assertEquals(1, page.getTotalCount());
+        Assertions.assertEquals(List.of(), index.page(new FileQuery(null, null, SortKey.SIZE, true, null, -1)).getFiles());
+    }
+
+    @Test
+    void page() {
+        for (int i = 0; i < 10; i++) {
+            index.put(new FileMetadata("file" + i + ".txt", 100 - i, 1000 + i, MediaType.TEXT_PLAIN_VALUE));
+        }
+        index.put(new FileMetadata("other.bin", 5, 5, MediaType.APPLICATION_OCTET_STREAM_VALUE));
+
+        FilePage first = index.page(new FileQuery(null, null, SortKey.NAME, false, null, 4));
+        Assertions.assertEquals(List.of("file0.txt", "file1.txt", "file2.txt", "file3.txt"), names(first));
+        Assertions.assertEquals(11, first.getTotalCount());
+        FilePage second = index.page(new FileQuery(null, null, SortKey.NAME, false, first.getNextCursor(), 4));
+        Assertions.assertEquals(List.of("file4.txt", "file5.txt", "file6.txt", "file7.txt"), names(second));
+        FilePage last = index.page(new FileQuery(null, null, SortKey.NAME, false, second.getNextCursor(), 4));
+        Assertions.assertEquals(List.of("file8.txt", "file9.txt", "other.bin"), names(last));
+        Assertions.assertNull(last.getNextCursor());
+
+        FilePage bySize = index.page(new FileQuery(null, null, SortKey.SIZE, false, null, 2));
+        Assertions.assertEquals(List.of("other.bin", "file9.txt"), names(bySize));
+        bySize = index.page(new FileQuery(null, null, SortKey.SIZE, false, bySize.getNextCursor(), 2));
+        Assertions.assertEquals(List.of("file8.txt", "file7.txt"), names(bySize));
+
+        FilePage byModified = index.page(new FileQuery("file", null, SortKey.MODIFIED, true, null, 3));
+        Assertions.assertEquals(List.of("file9.txt", "file8.txt", "file7.txt"), names(byModified));
+
+        FilePage byPrefix = index.page(new FileQuery("file", null, SortKey.NAME, true, null, 2));
+        Assertions.assertEquals(List.of("file9.txt", "file8.txt"), names(byPrefix));
+
+        FilePage byGlob = index.page(new FileQuery(null, "*.bin", SortKey.NAME, false, null, 10));
+        Assertions.assertEquals(List.of("other.bin"), names(byGlob));
+    }
+
+    private List<String> names(FilePage page) {
+        return page.getFiles().stream()
+                .map(FileMetadata::getName)
+                .toList();
+    }
+
+    @Test
+    void rebuild_SkipsExcludedNames() throws IOException {
+        Path root = Paths.get("." + File.separator + "index_test" + testFolderNumber.getAndIncrement());
+        Files.createDirectories(root);
+        Files.writeString(root.resolve(filename1), "content");
+        Files.writeString(root.resolve(".incoming-1"), "half");
+        index = new FileIndex(name -> !name.startsWith(".incoming-"));
+
+        index.rebuild(root);
+        Assertions.assertEquals(List.of(filename1), index.names());
+        Assertions.assertTrue(index.reconcile(root, ".incoming-1").isEmpty());
+        Assertions.assertEquals(1, index.size());
+        Files.delete(root.resolve(".incoming-1"));
+        Files.delete(root.resolve(filename1));
+        Files.delete(root);
+    }
+}
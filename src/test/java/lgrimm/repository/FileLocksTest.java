@@ -0,0 +1,76 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+class FileLocksTest {
+
+    FileLocks locks;
+
+    @BeforeEach
+    void setUp() {
+        locks = new FileLocks(64, Duration.ofMillis(100));
+    }
+
+    @Test
+    void acquireShared_ReadersDoNotContend() throws IOException {
+        try (FileLocks.Lease first = locks.acquireShared("file1.txt");
+             FileLocks.Lease second = locks.acquireShared("file1.txt")) {
+            Assertions.assertNotNull(first);
+            Assertions.assertNotNull(second);
+        }
+    }
+
+    @Test
+    void acquireExclusive_WaitsForReaders() throws IOException {
+        FileLocks.Lease reader = locks.acquireShared("file1.txt");
+        Assertions.assertThrows(IOException.class, () -> locks.acquireExclusive("file1.txt"));
+        reader.close();
+        locks.acquireExclusive("file1.txt").close();
+    }
+
+    @Test
+    void acquireShared_WaitsForWriter() throws IOException {
+        try (FileLocks.Lease writer = locks.acquireExclusive("file1.txt")) {
+            Assertions.assertThrows(IOException.class, () -> locks.acquireShared("file1.txt"));
+            Assertions.assertThrows(IOException.class, () -> locks.acquireExclusive("file1.txt"));
+        }
+    }
+
+    @Test
+    void acquireExclusive_DifferentStripesDoNotContend() throws IOException {
+        // "file1.txt" and "file2.txt" differ in their lowest hash bits only, so they are on different stripes
+        try (FileLocks.Lease first = locks.acquireExclusive("file1.txt");
+             FileLocks.Lease second = locks.acquireExclusive("file2.txt")) {
+            Assertions.assertNotNull(first);
+            Assertions.assertNotNull(second);
+        }
+    }
+
+    @Test
+    void close_OnAnotherThreadOnce() throws Exception {
+        FileLocks.Lease reader = locks.acquireShared("file1.txt");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(reader::close).get();
+        }
+        finally {
+            executor.shutdown();
+        }
+        reader.close();
+        try (FileLocks.Lease writer = locks.acquireExclusive("file1.txt")) {
+            Assertions.assertThrows(IOException.class, () -> locks.acquireShared("file1.txt"));
+        }
+    }
+
+    @Test
+    void new_SingleStripe() throws IOException {
+        locks = new FileLocks(1, Duration.ofMillis(100));
+        try (FileLocks.Lease writer = locks.acquireExclusive("file1.txt")) {
+            Assertions.assertThrows(IOException.class, () -> locks.acquireShared("file2.txt"));
+        }
+    }
+}
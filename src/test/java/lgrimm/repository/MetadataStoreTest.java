@@ -0,0 +1,114 @@
+package lgrimm.repository;
+
+import lgrimm.datamodel.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+class MetadataStoreTest {
+
+    Path root;
+    MetadataStore store;
+    FileMetadata metadata1, metadata2;
+
+    @BeforeEach
+    void setUp() {
+        root = Paths.get("." + File.separator + "metadata_test");
+        store = new MetadataStore(root.resolve("metadata"), Durability.none());
+        metadata1 = new FileMetadata("file1.txt", 8, 900, 1000, MediaType.TEXT_PLAIN_VALUE, "abcd");
+        metadata2 = new FileMetadata("file2.bin", 16, 2000, 2000, null, null);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void load_NothingStored() throws IOException {
+        Assertions.assertFalse(store.load(metadata -> Assertions.fail(), name -> Assertions.fail()));
+        store.compact(List::of);
+        Assertions.assertFalse(Files.exists(root));
+    }
+
+    @Test
+    void logAndCompact() throws IOException {
+        store.put(metadata1);
+        store.put(metadata2);
+        store.removed(metadata1.getName());
+        store.sync();
+        Assertions.assertEquals(3, store.records());
+        Assertions.assertEquals(Map.of(metadata2.getName(), metadata2), load());
+        Assertions.assertEquals(3, store.records());
+
+        store.compact(() -> List.of(metadata1, metadata2));
+        Assertions.assertEquals(0, store.records());
+        Assertions.assertEquals(0, Files.size(root.resolve("metadata").resolve("log")));
+        store.removed(metadata2.getName());
+        Assertions.assertEquals(Map.of(metadata1.getName(), metadata1), load());
+    }
+
+    @Test
+    void load_TornRecord() throws IOException {
+        store.put(metadata1);
+        store.put(metadata2);
+        store.close();
+        Path log = root.resolve("metadata").resolve("log");
+        long size = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        Assertions.assertEquals(Map.of(metadata1.getName(), metadata1), load());
+        Assertions.assertEquals(1, store.records());
+        store.put(metadata2);
+        Assertions.assertEquals(Map.of(metadata1.getName(), metadata1, metadata2.getName(), metadata2), load());
+    }
+
+    @Test
+    void load_InterruptedCompaction() throws IOException {
+        store.put(metadata1);
+        store.put(metadata2);
+        store.close();
+        Path directory = root.resolve("metadata");
+        Files.move(directory.resolve("log"), directory.resolve("log.compacting"));
+        store.removed(metadata1.getName());
+
+        Assertions.assertEquals(Map.of(metadata2.getName(), metadata2), load());
+        store.compact(() -> List.of(metadata2));
+        Assertions.assertFalse(Files.exists(directory.resolve("log.compacting")));
+        Assertions.assertEquals(Map.of(metadata2.getName(), metadata2), load());
+    }
+
+    @Test
+    void compact_WhileLogging() throws Exception {
+        Map<String, FileMetadata> state = new ConcurrentHashMap<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                FileMetadata metadata = new FileMetadata("file" + (i % 100) + ".txt", i, i, i, null, null);
+                state.put(metadata.getName(), metadata);
+                store.put(metadata);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            store.compact(() -> List.copyOf(state.values()));
+        }
+        writer.join();
+
+        Assertions.assertEquals(state, load());
+    }
+
+    private Map<String, FileMetadata> load() throws IOException {
+        Map<String, FileMetadata> state = new HashMap<>();
+        Assertions.assertTrue(store.load(metadata -> state.put(metadata.getName(), metadata), state::remove));
+        return state;
+    }
+}
@@ -0,0 +1,57 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+
+class SendfileSnapshotsTest {
+
+    Path root;
+    SendfileSnapshots snapshots;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Paths.get("." + File.separator + "snapshots_test");
+        Files.createDirectories(root);
+        snapshots = new SendfileSnapshots(root.resolve("snapshots"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void link_KeepsContentOfReplacedFile() throws IOException {
+        Path file = Files.writeString(root.resolve("file1.txt"), "content1");
+
+        Path snapshot = snapshots.link(file);
+        Path replacement = Files.writeString(root.resolve("replacement"), "other");
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Assertions.assertEquals("content1", Files.readString(snapshot));
+        Files.delete(file);
+        Assertions.assertEquals("content1", Files.readString(snapshot));
+    }
+
+    @Test
+    void expire() throws IOException {
+        Path file = Files.writeString(root.resolve("file1.txt"), "content1");
+        Path snapshot = snapshots.link(file);
+        Files.writeString(root.resolve("snapshots").resolve("stray"), "stray");
+
+        Assertions.assertEquals(1, snapshots.expire(Duration.ofHours(1)));
+        Assertions.assertTrue(Files.exists(snapshot));
+        Assertions.assertEquals(1, snapshots.expire(Duration.ofMillis(-1)));
+        Assertions.assertFalse(Files.exists(snapshot));
+        Assertions.assertTrue(Files.exists(file));
+
+        snapshots.link(file);
+        snapshots.clear();
+        Assertions.assertFalse(Files.exists(root.resolve("snapshots")));
+        Assertions.assertEquals(0, snapshots.expire(Duration.ZERO));
+    }
+}
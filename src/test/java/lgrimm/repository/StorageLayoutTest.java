@@ -0,0 +1,64 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+class StorageLayoutTest {
+
+    Path root = Paths.get("." + File.separator + "layout_test");
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void resolve_Flat() {
+        StorageLayout layout = StorageLayout.flat(root);
+
+        Assertions.assertFalse(layout.isSharded());
+        Assertions.assertEquals(root.resolve("file1.txt"), layout.resolve("file1.txt"));
+    }
+
+    @Test
+    void resolve_Sharded() {
+        StorageLayout layout = StorageLayout.sharded(root, 2);
+
+        Path path = layout.resolve("file1.txt");
+        Assertions.assertTrue(layout.isSharded());
+        Assertions.assertEquals(path, StorageLayout.sharded(root, 2).resolve("file1.txt"));
+        Assertions.assertEquals(3, root.relativize(path).getNameCount());
+        Assertions.assertEquals("file1.txt", path.getFileName().toString());
+        Assertions.assertTrue(path.getParent().getFileName().toString().matches("[0-9a-f]{2}"));
+        Assertions.assertEquals(5, root.relativize(StorageLayout.sharded(root, 9).resolve("file1.txt")).getNameCount());
+        Assertions.assertEquals(2, root.relativize(StorageLayout.sharded(root, 0).resolve("file1.txt")).getNameCount());
+    }
+
+    @Test
+    void resolve_Spreads() {
+        StorageLayout layout = StorageLayout.sharded(root, 1);
+
+        long shards = IntStream.range(0, 1000)
+                .mapToObj(i -> layout.resolve("file" + i + ".txt").getParent())
+                .distinct()
+                .count();
+        Assertions.assertTrue(shards > 200);
+    }
+
+    @Test
+    void directories() throws IOException {
+        StorageLayout layout = StorageLayout.sharded(root, 2);
+        Path path = layout.resolve("file1.txt");
+        Files.createDirectories(path.getParent());
+        Files.createDirectories(root.resolve("ab"));
+        Files.createDirectories(root.resolve(".storage").resolve("cd"));
+
+        Assertions.assertEquals(List.of(root, path.getParent()), layout.directories());
+        Assertions.assertEquals(List.of(root), StorageLayout.flat(root).directories());
+    }
+}
@@ -0,0 +1,67 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+class StorageQuotaTest {
+
+    AtomicLong usedBytes, usedFiles;
+    StorageQuota quota;
+
+    @BeforeEach
+    void setUp() {
+        usedBytes = new AtomicLong(600);
+        usedFiles = new AtomicLong(2);
+        quota = new StorageQuota(1000, 4, 300, usedBytes::get, usedFiles::get);
+    }
+
+    @Test
+    void hasRoomFor() {
+        Assertions.assertTrue(quota.hasRoomFor(300));
+        Assertions.assertFalse(quota.hasRoomFor(301));
+        usedBytes.set(800);
+        Assertions.assertTrue(quota.hasRoomFor(200));
+        Assertions.assertFalse(quota.hasRoomFor(201));
+        usedFiles.set(4);
+        Assertions.assertFalse(quota.hasRoomFor(0));
+        Assertions.assertFalse(quota.hasRoomFor(-1));
+    }
+
+    @Test
+    void reserve() {
+        Optional<StorageQuota.Reservation> first = quota.reserve(250);
+        Assertions.assertTrue(first.isPresent());
+        Assertions.assertTrue(quota.reserve(150).isPresent());
+        Assertions.assertFalse(quota.reserve(1).isPresent());
+
+        first.get().close();
+        first.get().close();
+        Assertions.assertTrue(quota.hasRoomFor(250));
+        Assertions.assertFalse(quota.hasRoomFor(251));
+        Assertions.assertTrue(quota.reserve(0).isPresent());
+        Assertions.assertFalse(quota.reserve(0).isPresent());
+    }
+
+    @Test
+    void allowance() {
+        Assertions.assertEquals(300, quota.allowance());
+        Optional<StorageQuota.Reservation> reservation = quota.reserve(250);
+        Assertions.assertEquals(150, quota.allowance());
+        reservation.get().close();
+        usedFiles.set(4);
+        Assertions.assertTrue(quota.allowance() < 0);
+        Assertions.assertEquals(Long.MAX_VALUE, StorageQuota.unlimited().allowance());
+    }
+
+    @Test
+    void unlimited() {
+        StorageQuota unlimited = StorageQuota.unlimited();
+        Assertions.assertTrue(unlimited.hasRoomFor(Long.MAX_VALUE / 2));
+        Assertions.assertTrue(unlimited.hasRoomFor(-1));
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertTrue(unlimited.reserve(Long.MAX_VALUE / 100).isPresent());
+        }
+    }
+}
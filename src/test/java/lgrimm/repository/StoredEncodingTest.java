@@ -0,0 +1,47 @@
+package lgrimm.repository;
+
+import org.junit.jupiter.api.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+class StoredEncodingTest {
+
+    Path root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Paths.get("." + File.separator + "stored_encoding_test");
+        Files.createDirectories(root);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(root);
+    }
+
+    @Test
+    void mark_DecodedSize() throws IOException {
+        Assumptions.assumeTrue(StoredEncoding.isSupported(root));
+        Path path = root.resolve("file1.txt");
+        try (OutputStream out = StoredEncoding.encode(Files.newOutputStream(path))) {
+            out.write("content1".getBytes());
+        }
+        Assertions.assertEquals(Optional.empty(), StoredEncoding.decodedSize(path));
+
+        StoredEncoding.mark(path, 8);
+        Assertions.assertEquals(Optional.of(8L), StoredEncoding.decodedSize(path));
+        Path moved = Files.move(path, root.resolve("file2.txt"));
+        Assertions.assertEquals(Optional.of(8L), StoredEncoding.decodedSize(moved));
+        try (InputStream in = StoredEncoding.decode(Files.newInputStream(moved))) {
+            Assertions.assertEquals("content1", new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    void decodedSize_NoFile() {
+        Assertions.assertEquals(Optional.empty(), StoredEncoding.decodedSize(root.resolve("no_such_file.txt")));
+    }
+}
@@ -0,0 +1,182 @@
+package lgrimm.repository;
+
+import lgrimm.configuration.*;
+import lgrimm.datamodel.*;
+import org.junit.jupiter.api.*;
+import org.springframework.http.*;
+import org.springframework.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+class UploadSessionStoreTest {
+
+    Path directory;
+    UploadSessionStore store;
+    byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Paths.get("." + File.separator + "upload_session_test");
+        store = new UploadSessionStore(directory);
+        store.init();
+        content = new byte[10_000];
+        new Random(1).nextBytes(content);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    void create() throws IOException {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+        Assertions.assertEquals("file1.bin", session.getFilename());
+        Assertions.assertEquals(0, session.getReceived());
+        Assertions.assertEquals(List.of("0-9999"), session.getMissing());
+        Assertions.assertFalse(session.isComplete());
+        Assertions.assertEquals(content.length, Files.size(directory.resolve(session.getId() + ".part")));
+        Assertions.assertEquals(Optional.of(session), store.find(session.getId()));
+    }
+
+    @Test
+    void write_OutOfOrderAndConcurrent() throws Exception {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        int chunk = 1000;
+        List<Integer> offsets = IntStream.range(0, content.length / chunk)
+                .map(i -> i * chunk)
+                .boxed()
+                .collect(Collectors.toList());
+        Collections.reverse(offsets);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Optional<UploadSession>>> results = new ArrayList<>();
+            for (int offset : offsets) {
+                results.add(executor.submit(() -> store.write(
+                        session.getId(), offset, chunk, new ByteArrayInputStream(content, offset, chunk))));
+            }
+            for (Future<Optional<UploadSession>> result : results) {
+                Assertions.assertTrue(result.get().isPresent());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        UploadSession written = store.find(session.getId()).orElseThrow();
+        Assertions.assertTrue(written.isComplete());
+        Assertions.assertEquals(List.of(), written.getMissing());
+        Assertions.assertArrayEquals(content, store.complete(session.getId(), UploadSessionStoreTest::read).orElseThrow());
+        Assertions.assertTrue(store.find(session.getId()).isEmpty());
+        Assertions.assertFalse(Files.exists(directory.resolve(session.getId() + ".part")));
+    }
+
+    @Test
+    void complete_NotPublishedKeepsSession() throws IOException {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        store.write(session.getId(), 0, content.length, new ByteArrayInputStream(content));
+
+        Assertions.assertTrue(store.complete(session.getId(), data -> Optional.empty()).isEmpty());
+        Assertions.assertTrue(store.find(session.getId()).orElseThrow().isComplete());
+        UploadSessionStore restarted = new UploadSessionStore(directory);
+        restarted.init();
+        Assertions.assertTrue(restarted.find(session.getId()).isPresent());
+        Assertions.assertArrayEquals(content, store.complete(session.getId(), UploadSessionStoreTest::read).orElseThrow());
+        Assertions.assertTrue(store.find(session.getId()).isEmpty());
+    }
+
+    @Test
+    void write_DroppedConnectionKeepsReceivedBytes() throws IOException {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+        Assertions.assertThrows(EOFException.class, () -> store.write(
+                session.getId(), 2000, 3000, new ByteArrayInputStream(content, 2000, 1000)));
+
+        UploadSession written = store.find(session.getId()).orElseThrow();
+        Assertions.assertEquals(1000, written.getReceived());
+        Assertions.assertEquals(List.of("0-1999", "3000-9999"), written.getMissing());
+        Assertions.assertTrue(store.complete(session.getId(), UploadSessionStoreTest::read).isEmpty());
+    }
+
+    @Test
+    void write_RecordsRangeAfterSync() throws IOException {
+        List<Long> receivedAtSync = new ArrayList<>();
+        AtomicBoolean failing = new AtomicBoolean();
+        store = new UploadSessionStore(directory, new Durability(FsyncPolicy.NONE, Duration.ZERO) {
+            @Override
+            public void sync(Path path) throws IOException {
+                receivedAtSync.add(store.findAll().get(0).getReceived());
+                if (failing.get()) {
+                    throw new IOException("The disk is gone.");
+                }
+            }
+        });
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+        store.write(session.getId(), 0, 1000, new ByteArrayInputStream(content, 0, 1000));
+        Assertions.assertEquals(List.of(0L), receivedAtSync);
+        Assertions.assertEquals(1000, store.find(session.getId()).orElseThrow().getReceived());
+
+        failing.set(true);
+        Assertions.assertThrows(IOException.class, () -> store.write(
+                session.getId(), 1000, 1000, new ByteArrayInputStream(content, 1000, 1000)));
+        Assertions.assertEquals(List.of(0L, 1000L), receivedAtSync);
+        Assertions.assertEquals(List.of("1000-9999"), store.find(session.getId()).orElseThrow().getMissing());
+        UploadSessionStore restarted = new UploadSessionStore(directory);
+        restarted.init();
+        Assertions.assertEquals(1000, restarted.find(session.getId()).orElseThrow().getReceived());
+    }
+
+    @Test
+    void write_OutOfRange() throws IOException {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> store.write(
+                session.getId(), 9000, 2000, new ByteArrayInputStream(content, 0, 2000)));
+        Assertions.assertTrue(store.write("no-such-session", 0, 1, new ByteArrayInputStream(content)).isEmpty());
+    }
+
+    @Test
+    void init_RestoresSessions() throws IOException {
+        UploadSession session = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        store.write(session.getId(), 0, 4000, new ByteArrayInputStream(content, 0, 4000));
+
+        UploadSessionStore restarted = new UploadSessionStore(directory);
+        restarted.init();
+
+        UploadSession restored = restarted.find(session.getId()).orElseThrow();
+        Assertions.assertEquals(4000, restored.getReceived());
+        Assertions.assertEquals(List.of("4000-9999"), restored.getMissing());
+        Assertions.assertEquals(MediaType.APPLICATION_OCTET_STREAM_VALUE, restored.getContentType());
+    }
+
+    @Test
+    void cancelAndExpire() throws IOException {
+        UploadSession session1 = store.create("file1.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        UploadSession session2 = store.create("file2.bin", content.length, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+
+        Assertions.assertTrue(store.cancel(session1.getId()));
+        Assertions.assertFalse(store.cancel(session1.getId()));
+        Assertions.assertFalse(Files.exists(directory.resolve(session1.getId() + ".part")));
+
+        Assertions.assertEquals(0, store.expire(Duration.ofHours(1)));
+        Assertions.assertEquals(1, store.expire(Duration.ofMillis(-1)));
+        Assertions.assertTrue(store.find(session2.getId()).isEmpty());
+    }
+
+    private static Optional<byte[]> read(Path data) {
+        try {
+            return Optional.of(Files.readAllBytes(data));
+        }
+        catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -21,9 +21,10 @@ class FileInFolderServiceTest {
     FileInFolderService service;
     String filename1, filename2, content1, content2, baseUrl;
     Path path1, path2;
-    List<Path> paths;
     FileInfo fileInfo1, fileInfo2;
     List<FileInfo> fileInfoList;
+    FileQuery firstQuery;
+    FilePage firstPage;
     Multipart file1, file2;
 
     @BeforeEach
@@ -37,11 +38,14 @@ class FileInFolderServiceTest {
         filename2 = "file2.txt";
         path1 = new File(filename1).toPath();
         path2 = new File(filename2).toPath();
-        paths = List.of(path1, path2);
-        when(repository.findAll())
-                .thenReturn(paths);
-        fileInfo1 = new FileInfo(filename1, baseUrl + "/files/" + filename1);
-        fileInfo2 = new FileInfo(filename2, baseUrl + "/files/" + filename2);
+        firstQuery = new FileQuery(null, null, SortKey.NAME, false, null, FileInFolderService.DEFAULT_PAGE_SIZE);
+        FileMetadata metadata1 = new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE);
+        FileMetadata metadata2 = new FileMetadata(filename2, 8, 2000, MediaType.TEXT_PLAIN_VALUE);
+        firstPage = new FilePage(List.of(metadata1, metadata2), null, 2);
+        when(repository.findPage(firstQuery))
+                .thenReturn(firstPage);
+        fileInfo1 = new FileInfo(filename1, baseUrl + "/files/" + filename1, 8L, 1000L);
+        fileInfo2 = new FileInfo(filename2, baseUrl + "/files/" + filename2, 8L, 2000L);
         fileInfoList = List.of(fileInfo1, fileInfo2);
         content1 = "content1";
         content2 = "content2";
@@ -88,6 +92,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 "No file was given.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFile(null, baseUrl));
@@ -103,6 +109,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 "Could not upload the file: " + filename3,
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFile(file3, baseUrl));
@@ -115,6 +123,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 "Could not upload the file: " + filename1,
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFile(file1, baseUrl));
@@ -127,6 +137,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 filename1 + " file has been successfully uploaded.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFile(file1, baseUrl));
@@ -137,6 +149,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 null,
                 List.of("No files were given."),
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFiles(null, baseUrl));
@@ -147,6 +161,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 null,
                 List.of("No files were given."),
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFiles(new ArrayList<>(), baseUrl));
@@ -164,19 +180,119 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 null,
                 List.of("Results:", filename1 + ": [Success]", filename2 + ": [Success]"),
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.uploadFiles(filesWithNull, baseUrl));
     }
 
     @Test
-    void getFileList() {
+    void saveFile() {
+        when(repository.save(file1))
+                .thenReturn(Optional.of(filename1));
+        when(repository.save(file2))
+                .thenReturn(Optional.empty());
+
+        Assertions.assertEquals(
+                new OperationResult(filename1, true, filename1 + " file has been successfully uploaded."),
+                service.saveFile(file1));
+        Assertions.assertEquals(
+                new OperationResult(filename2, false, "Could not upload the file: " + filename2),
+                service.saveFile(file2));
+        Assertions.assertEquals(
+                new OperationResult(null, false, "No file was given."),
+                service.saveFile(null));
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void saveFile_QuotaExceeded() {
+        when(repository.save(file1))
+                .thenReturn(Optional.empty());
+        when(repository.exceedsQuota(file1.getSize()))
+                .thenReturn(true);
+
+        Assertions.assertEquals(
+                new OperationResult(filename1, false, "Could not upload the file, the storage quota has been reached: " + filename1),
+                service.saveFile(file1));
+        Assertions.assertTrue(service.exceedsQuota(file1.getSize()));
+    }
+
+    @Test
+    void saveFiles() {
+        List<Multipart> files = List.of(file1, file2);
+        when(repository.saveAll(files))
+                .thenReturn(Stream.of(filename2));
+
+        Assertions.assertEquals(
+                List.of(
+                        new OperationResult(filename1, false, "Could not upload the file: " + filename1),
+                        new OperationResult(filename2, true, filename2 + " file has been successfully uploaded.")),
+                service.saveFiles(files));
+        Assertions.assertEquals(List.of(), service.saveFiles(null));
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void saveArchive() {
+        InputStream archive = new ByteArrayInputStream(new byte[0]);
+        when(repository.saveArchive(archive))
+                .thenReturn(List.of(Map.entry(filename1, true), Map.entry(filename2, false)));
+        when(repository.findMetadataByFilename(filename1))
+                .thenReturn(Optional.of(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE)));
+
+        Assertions.assertEquals(
+                List.of(
+                        new OperationResult(filename1, true, filename1 + " file has been successfully uploaded."),
+                        new OperationResult(filename2, false, "Could not upload the file: " + filename2)),
+                service.saveArchive(archive));
+    }
+
+    @Test
+    void getFilePage() {
+        FileQuery query = new FileQuery(null, null, SortKey.NAME, false, null, FileInFolderService.DEFAULT_PAGE_SIZE);
+        FilePage page = new FilePage(List.of(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE)), null, 1);
+        when(repository.findPage(query))
+                .thenReturn(page);
+
+        Assertions.assertEquals(page, service.getFilePage(query.withLimit(0)));
+    }
+
+    @Test
+    void getFileList_DefaultQuery() {
+        FileQuery query = new FileQuery(null, null, SortKey.NAME, false, null, FileInFolderService.DEFAULT_PAGE_SIZE);
+        FileMetadata metadata1 = new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE);
+        FilePage page = new FilePage(List.of(metadata1), "cursor", 2);
+        when(repository.findPage(query))
+                .thenReturn(page);
         Payload expectedPayload = new Payload(
                 null,
                 null,
-                fileInfoList
+                page,
+                query,
+                List.of(new FileInfo(filename1, baseUrl + "/files/" + filename1, 8L, 1000L))
+        );
+        Assertions.assertEquals(expectedPayload, service.getFileList(null, baseUrl));
+        Assertions.assertEquals("cursor", expectedPayload.getNextCursor());
+        Assertions.assertEquals(2L, expectedPayload.getFileCount());
+    }
+
+    @Test
+    void getFileList_LimitOutOfRange() {
+        FileQuery query = new FileQuery("file", "*.txt", SortKey.SIZE, true, null, 1_000_000);
+        FileQuery limitedQuery = query.withLimit(FileInFolderService.MAX_PAGE_SIZE);
+        FilePage page = new FilePage(List.of(), null, 2);
+        when(repository.findPage(limitedQuery))
+                .thenReturn(page);
+        Payload expectedPayload = new Payload(
+                null,
+                null,
+                page,
+                limitedQuery,
+                List.of()
         );
-        Assertions.assertEquals(expectedPayload, service.getFileList(baseUrl));
+        Assertions.assertEquals(expectedPayload, service.getFileList(query, baseUrl));
     }
 
     @Test
@@ -212,11 +328,40 @@ class FileInFolderServiceTest {
         Assertions.assertEquals(expectedResource, service.getFile(filename1));
     }
 
+    @Test
+    void getFileMetadata() {
+        FileMetadata metadata = new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE);
+        when(repository.findMetadataByFilename(filename1))
+                .thenReturn(Optional.of(metadata));
+        when(repository.findMetadataByFilename(filename2))
+                .thenReturn(Optional.empty());
+        Assertions.assertNull(service.getFileMetadata(null));
+        Assertions.assertNull(service.getFileMetadata("  "));
+        Assertions.assertNull(service.getFileMetadata(filename2));
+        Assertions.assertEquals(metadata, service.getFileMetadata(filename1));
+    }
+
+    @Test
+    void getCompressedFile() {
+        Resource variant = Mockito.mock(Resource.class);
+        when(repository.findCompressedVariant(filename1))
+                .thenReturn(Optional.of(variant));
+        when(repository.findCompressedVariant(filename2))
+                .thenReturn(Optional.empty());
+        Assertions.assertNull(service.getCompressedFile(null));
+        Assertions.assertEquals(variant, service.getCompressedFile(filename1));
+        Assertions.assertNull(service.getCompressedFile(filename2));
+        verify(repository, never()).requestCompressedVariant(filename1);
+        verify(repository).requestCompressedVariant(filename2);
+    }
+
     @Test
     void deleteFile_NullFilename() {
         Payload expectedPayload = new Payload(
                 "No file was given.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteFile(null, baseUrl));
@@ -227,6 +372,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 "No file was given.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteFile("  ", baseUrl));
@@ -240,6 +387,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 filename3 + " file does not exist!",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteFile(filename3, baseUrl));
@@ -252,6 +401,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 filename1 + " file does not exist!",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteFile(filename1, baseUrl));
@@ -264,6 +415,8 @@ class FileInFolderServiceTest {
         Payload expectedPayload = new Payload(
                 filename1 + " file has been deleted.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteFile(filename1, baseUrl));
@@ -275,23 +428,158 @@ class FileInFolderServiceTest {
                 .thenReturn(2L);
         when(repository.deleteAll())
                 .thenReturn(1L);
-        paths = List.of(path1);
-        when(repository.findAll())
-                .thenReturn(paths);
+        firstPage = new FilePage(List.of(new FileMetadata(filename1, 8, 1000, MediaType.TEXT_PLAIN_VALUE)), null, 1);
+        when(repository.findPage(firstQuery))
+                .thenReturn(firstPage);
         fileInfoList = List.of(fileInfo1);
         Payload expectedPayload = new Payload(
                 "1 of 2 file(s) has been deleted.",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.deleteAllFiles(baseUrl));
     }
 
+    @Test
+    void completeUploadSession() {
+        UploadSession incomplete = new UploadSession("id1", filename1, 10, MediaType.TEXT_PLAIN_VALUE, 4, List.of("4-9"));
+        UploadSession complete = new UploadSession("id2", filename2, 10, MediaType.TEXT_PLAIN_VALUE, 10, List.of());
+        when(repository.findUploadSession("id1"))
+                .thenReturn(Optional.of(incomplete));
+        when(repository.findUploadSession("id2"))
+                .thenReturn(Optional.of(complete));
+        when(repository.findUploadSession("id3"))
+                .thenReturn(Optional.empty());
+        when(repository.completeUploadSession("id2"))
+                .thenReturn(Optional.of(filename2));
+
+        Assertions.assertEquals(
+                new OperationResult(filename1, false, "The upload is not complete, missing: 4-9"),
+                service.completeUploadSession("id1"));
+        Assertions.assertEquals(
+                new OperationResult(filename2, true, filename2 + " file has been successfully uploaded."),
+                service.completeUploadSession("id2"));
+        Assertions.assertEquals(
+                new OperationResult(null, false, "No such upload session: id3"),
+                service.completeUploadSession("id3"));
+        verify(repository, never()).completeUploadSession("id1");
+    }
+
+    @Test
+    void completeUploadSession_NotStored() {
+        UploadSession complete = new UploadSession("id1", filename1, 10, MediaType.TEXT_PLAIN_VALUE, 10, List.of());
+        when(repository.findUploadSession("id1"))
+                .thenReturn(Optional.of(complete));
+        when(repository.completeUploadSession("id1"))
+                .thenReturn(Optional.empty());
+
+        Assertions.assertEquals(
+                new OperationResult(filename1, false, "Could not upload the file: " + filename1),
+                service.completeUploadSession("id1"));
+        when(repository.exceedsQuota(10))
+                .thenReturn(true);
+        Assertions.assertEquals(
+                new OperationResult(filename1, false, "Could not upload the file, the storage quota has been reached: " + filename1),
+                service.completeUploadSession("id1"));
+    }
+
+    @Test
+    void createUploadSession_DetectsContentType() {
+        UploadSession session = new UploadSession("id1", filename1, 10, MediaType.TEXT_PLAIN_VALUE, 0, List.of("0-9"));
+        when(repository.createUploadSession(filename1, 10, MediaType.TEXT_PLAIN_VALUE))
+                .thenReturn(Optional.of(session));
+
+        Assertions.assertEquals(session, service.createUploadSession(filename1, 10, null));
+        Assertions.assertNull(service.createUploadSession(" ", 10, null));
+    }
+
+    @Test
+    void removeFile() {
+        when(repository.delete(filename1))
+                .thenReturn(true);
+        when(repository.delete(filename2))
+                .thenReturn(false);
+
+        Assertions.assertEquals(
+                new OperationResult(filename1, true, filename1 + " file has been deleted."),
+                service.removeFile(filename1));
+        Assertions.assertEquals(
+                new OperationResult(filename2, false, filename2 + " file does not exist!"),
+                service.removeFile(filename2));
+        Assertions.assertEquals(
+                new OperationResult(null, false, "No file was given."),
+                service.removeFile(" "));
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void removeAllFiles() {
+        when(repository.count())
+                .thenReturn(2L);
+        when(repository.deleteAll())
+                .thenReturn(2L);
+
+        Assertions.assertEquals(new DeletionSummary(2, 2), service.removeAllFiles());
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void findFilenames() {
+        when(repository.findNames("file", "*.txt"))
+                .thenReturn(List.of(filename1, filename2));
+
+        Assertions.assertEquals(List.of(filename1, filename2), service.findFilenames("file", "*.txt"));
+    }
+
+    @Test
+    void startDeletion() {
+        DeletionJob job = new DeletionJob("id1", JobState.RUNNING, 2, 0, 0);
+        when(repository.startDeletion(List.of(filename1, filename2)))
+                .thenReturn(job);
+        when(repository.startDeletion("file", null))
+                .thenReturn(job);
+
+        Assertions.assertEquals(job, service.startDeletion(List.of(filename1, filename2), "ignored", null));
+        Assertions.assertEquals(job, service.startDeletion(null, "file", null));
+        Assertions.assertNull(service.startDeletion(null, null, null));
+        Assertions.assertNull(service.startDeletion(null, "", " "));
+        verify(repository, never()).startDeletion(null, null);
+        verify(repository, never()).startDeletion("", " ");
+    }
+
+    @Test
+    void getAndCancelDeletion() {
+        DeletionJob job = new DeletionJob("id1", JobState.CANCELLED, 2, 1, 0);
+        when(repository.findDeletion("id1"))
+                .thenReturn(Optional.of(job));
+        when(repository.findDeletion("id2"))
+                .thenReturn(Optional.empty());
+        when(repository.cancelDeletion("id1"))
+                .thenReturn(Optional.of(job));
+
+        Assertions.assertEquals(job, service.getDeletion("id1"));
+        Assertions.assertNull(service.getDeletion("id2"));
+        Assertions.assertEquals(job, service.cancelDeletion("id1"));
+        Assertions.assertNull(service.cancelDeletion("id2"));
+    }
+
+    @Test
+    void migrateLayout() {
+        when(repository.migrateLayout())
+                .thenReturn(new MigrationSummary(2, 0));
+
+        Assertions.assertEquals(new MigrationSummary(2, 0), service.migrateLayout());
+    }
+
     @Test
     void handleMaxSizeException() {
         Payload expectedPayload = new Payload(
                 "The selected file (or one of them) is too large!",
                 null,
+                firstPage,
+                firstQuery,
                 fileInfoList
         );
         Assertions.assertEquals(expectedPayload, service.handleMaxSizeException(baseUrl));
@@ -0,0 +1,142 @@
+package lgrimm.service;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.*;
+import lgrimm.datamodel.*;
+import lgrimm.repository.*;
+import org.junit.jupiter.api.*;
+import org.mockito.*;
+import org.springframework.http.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.mockito.Mockito.*;
+
+class FileStorageMetricsTest {
+
+    MeterRegistry registry;
+    FileInFolderRepository repository;
+    FileInFolderService service;
+    Multipart file1, file2;
+    String baseUrl;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        repository = Mockito.mock(FileInFolderRepository.class);
+        when(repository.init("." + File.separator + "uploads", false))
+                .thenReturn(true);
+        when(repository.findPage(any()))
+                .thenReturn(new FilePage(List.of(), null, 0));
+        service = new FileInFolderService(repository, registry);
+        baseUrl = "localhost:8080";
+        file1 = new Multipart("file", "file1.txt", MediaType.TEXT_PLAIN_VALUE, "content1".getBytes());
+        file2 = new Multipart("file", "file2.txt", MediaType.TEXT_PLAIN_VALUE, "content22".getBytes());
+    }
+
+    @Test
+    void gauges() {
+        when(repository.count())
+                .thenReturn(2L);
+        when(repository.totalSize())
+                .thenReturn(17L);
+
+        Assertions.assertEquals(2, registry.get("storage.files").gauge().value());
+        Assertions.assertEquals(17, registry.get("storage.size").gauge().value());
+    }
+
+    @Test
+    void contentCache() {
+        ContentCache cache = new ContentCache(16, 16);
+        when(repository.getContentCache())
+                .thenReturn(cache);
+        registry = new SimpleMeterRegistry();
+        new FileInFolderService(repository, registry);
+
+        cache.get("file1.txt");
+        cache.put("file1.txt", ByteBuffer.wrap("content1".getBytes()), 0);
+        cache.get("file1.txt");
+        cache.put("file2.txt", ByteBuffer.wrap("content22".getBytes()), 0);
+
+        Assertions.assertEquals(1, registry.get("storage.cache.requests").tag("result", "hit").functionCounter().count());
+        Assertions.assertEquals(1, registry.get("storage.cache.requests").tag("result", "miss").functionCounter().count());
+        Assertions.assertEquals(1, registry.get("storage.cache.evictions").functionCounter().count());
+        Assertions.assertEquals(9, registry.get("storage.cache.size").gauge().value());
+    }
+
+    @Test
+    void upload() {
+        when(repository.save(file1))
+                .thenReturn(Optional.of("file1.txt"));
+        when(repository.save(file2))
+                .thenReturn(Optional.empty());
+
+        service.uploadFile(file1, baseUrl);
+        service.uploadFile(file2, baseUrl);
+        service.uploadFile(null, baseUrl);
+
+        Assertions.assertEquals(8, registry.get("storage.bytes.in").counter().count());
+        Assertions.assertEquals(1, timer("upload", "success").count());
+        Assertions.assertEquals(1, timer("upload", "failure").count());
+        Assertions.assertEquals(1, failures("upload", "save.failed"));
+        Assertions.assertEquals(1, failures("upload", "no.file"));
+    }
+
+    @Test
+    void uploadBatch() {
+        List<Multipart> files = List.of(file1, file2);
+        when(repository.saveAll(files))
+                .thenReturn(Stream.of("file2.txt"));
+
+        service.uploadFiles(files, baseUrl);
+
+        Assertions.assertEquals(9, registry.get("storage.bytes.in").counter().count());
+        Assertions.assertEquals(1, registry.get("storage.upload.batch.files").summary().count());
+        Assertions.assertEquals(2, registry.get("storage.upload.batch.files").summary().totalAmount());
+        Assertions.assertEquals(1, timer("upload.batch", "failure").count());
+        Assertions.assertEquals(1, failures("upload", "save.failed"));
+    }
+
+    @Test
+    void downloadAndDelete() {
+        when(repository.getByFilename("file1.txt"))
+                .thenReturn(Optional.empty());
+        when(repository.delete("file1.txt"))
+                .thenReturn(false);
+
+        service.getFile("file1.txt");
+        service.recordDownload(100);
+        service.deleteFile("file1.txt", baseUrl);
+
+        Assertions.assertEquals(1, failures("download", "not.found"));
+        Assertions.assertEquals(100, registry.get("storage.bytes.out").counter().count());
+        Assertions.assertEquals(1, timer("delete", "failure").count());
+        Assertions.assertEquals(1, failures("delete", "not.found"));
+    }
+
+    @Test
+    void tooLarge() {
+        service.handleMaxSizeException(baseUrl);
+
+        Assertions.assertEquals(1, failures("upload", "too.large"));
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return registry.get("storage.operation")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .timer();
+    }
+
+    private double failures(String operation, String cause) {
+        return registry.get("storage.failures")
+                .tag("operation", operation)
+                .tag("cause", cause)
+                .counter()
+                .count();
+    }
+}